@@ -0,0 +1,179 @@
+package com.ant.core;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that the sync status store batches its writes, reads back what it saved, merges it
+    with what was set before the file was read, keeps a bounded number of locations, tells its
+    observers on the main thread, and times a status update against the SharedPreferences
+    commit it replaced.  The timings go to logcat.
+ */
+public class TestSyncStatusStore extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncStatusStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "test-sync-status";
+    private static final String PREFERENCES_NAME = "test-sync-status-prefs";
+    private static final int STORE_UPDATES = 10000;
+    private static final int COMMIT_UPDATES = 200;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteFiles();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFiles();
+        super.tearDown();
+    }
+
+    public void testUpdatesAreBatched() throws Exception {
+        SyncStatusStore store = new SyncStatusStore(mContext, FILE_NAME);
+        for (int i = 0; i < 100; i++) {
+            store.setLocationStatus(i % 2 == 0 ? Utility.LOCATION_STATUS_OK : Utility.LOCATION_STATUS_SERVER_DOWN, 0);
+            store.setLocationState("City " + (i % 5), Utility.LOCATION_STATUS_OK);
+        }
+        store.flush();
+        // the write scheduled by the first update finds nothing left to do
+        Thread.sleep(SyncStatusStore.PERSIST_DELAY_MILLIS * 2);
+        assertEquals(1, store.getWriteCount());
+    }
+
+    public void testStatusIsReadBack() throws Exception {
+        SyncStatusStore store = new SyncStatusStore(mContext, FILE_NAME);
+        store.setLocationStatus(Utility.LOCATION_STATUS_OK, 0);
+        store.setLocationStatus(Utility.LOCATION_STATUS_INVALID, 0);
+        store.setLocationState("City 0", Utility.LOCATION_STATUS_OK);
+        store.setLocationState("City 1", Utility.LOCATION_STATUS_SERVER_DOWN);
+        store.flush();
+
+        SyncStatusStore restarted = new SyncStatusStore(mContext, FILE_NAME);
+        // runs after the load
+        restarted.flush();
+        assertEquals(Utility.LOCATION_STATUS_INVALID, restarted.getLocationStatus());
+        assertEquals(Utility.LOCATION_STATUS_INVALID, restarted.getLastErrorStatus());
+        assertEquals(store.getLastSuccessMillis(), restarted.getLastSuccessMillis());
+        assertTrue(restarted.getLastSuccessMillis() > 0);
+        assertEquals(Utility.LOCATION_STATUS_OK, restarted.getLocationState("City 0").status);
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, restarted.getLocationState("City 1").status);
+        assertEquals(0, restarted.getLocationState("City 1").lastSuccessMillis);
+        assertNull(restarted.getLocationState("City 2"));
+    }
+
+    public void testEarlyUpdatesMergedWithFile() throws Exception {
+        SyncStatusStore store = new SyncStatusStore(mContext, FILE_NAME);
+        store.setLocationStatus(Utility.LOCATION_STATUS_SERVER_DOWN, 0);
+        store.setLocationState("City 0", Utility.LOCATION_STATUS_OK);
+        store.setLocationState("City 1", Utility.LOCATION_STATUS_OK);
+        store.flush();
+
+        // may run before or after the load, the outcome must be the same
+        SyncStatusStore restarted = new SyncStatusStore(mContext, FILE_NAME);
+        restarted.setLocationStatus(Utility.LOCATION_STATUS_OK, 0);
+        restarted.setLocationState("City 1", Utility.LOCATION_STATUS_SERVER_DOWN);
+        restarted.setLocationState("City 2", Utility.LOCATION_STATUS_OK);
+        restarted.flush();
+
+        assertEquals(Utility.LOCATION_STATUS_OK, restarted.getLocationStatus());
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, restarted.getLastErrorStatus());
+        assertEquals(store.getLastErrorMillis(), restarted.getLastErrorMillis());
+        assertEquals(Utility.LOCATION_STATUS_OK, restarted.getLocationState("City 0").status);
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, restarted.getLocationState("City 1").status);
+        assertEquals(store.getLocationState("City 1").lastSuccessMillis,
+                restarted.getLocationState("City 1").lastSuccessMillis);
+        assertEquals(Utility.LOCATION_STATUS_OK, restarted.getLocationState("City 2").status);
+    }
+
+    public void testOldestLocationsForgotten() throws Exception {
+        SyncStatusStore store = new SyncStatusStore(mContext, FILE_NAME);
+        store.flush();
+        int count = SyncStatusStore.MAX_LOCATIONS + 5;
+        for (int i = 0; i < count; i++) {
+            store.setLocationState("City " + i, Utility.LOCATION_STATUS_OK);
+        }
+        // synced again, so no longer among the oldest
+        store.setLocationState("City 0", Utility.LOCATION_STATUS_OK);
+
+        assertNotNull(store.getLocationState("City 0"));
+        for (int i = 1; i <= 5; i++) {
+            assertNull(store.getLocationState("City " + i));
+        }
+        assertNotNull(store.getLocationState("City 6"));
+        assertNotNull(store.getLocationState("City " + (count - 1)));
+    }
+
+    public void testServerUnavailableUntilRetry() {
+        SyncStatusStore store = new SyncStatusStore(mContext, FILE_NAME);
+        long now = System.currentTimeMillis();
+        store.setLocationStatus(Utility.LOCATION_STATUS_SERVER_DOWN, now + 60000);
+        assertEquals(Utility.LOCATION_STATUS_SERVER_UNAVAILABLE, store.getLocationStatus());
+        store.setLocationStatus(Utility.LOCATION_STATUS_SERVER_DOWN, now - 1);
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, store.getLocationStatus());
+        store.resetLocationStatus();
+        assertEquals(Utility.LOCATION_STATUS_UNKNOWN, store.getLocationStatus());
+    }
+
+    public void testObserversToldOnMainThread() throws Exception {
+        SyncStatusStore store = new SyncStatusStore(mContext, FILE_NAME);
+        final CountDownLatch told = new CountDownLatch(1);
+        final int[] seen = new int[]{-1};
+        final boolean[] onMainThread = new boolean[1];
+        store.addObserver(new SyncStatusStore.Observer() {
+            @Override
+            public void onSyncStatusChanged(@Utility.LocationStatus int status) {
+                seen[0] = status;
+                onMainThread[0] = Looper.myLooper() == Looper.getMainLooper();
+                told.countDown();
+            }
+        });
+        store.setLocationStatus(Utility.LOCATION_STATUS_SERVER_INVALID, 0);
+
+        assertTrue(told.await(5, TimeUnit.SECONDS));
+        assertEquals(Utility.LOCATION_STATUS_SERVER_INVALID, seen[0]);
+        assertTrue(onMainThread[0]);
+    }
+
+    public void testUpdateBenchmark() throws Exception {
+        SyncStatusStore store = new SyncStatusStore(mContext, FILE_NAME);
+        store.flush();
+        long start = System.nanoTime();
+        for (int i = 0; i < STORE_UPDATES; i++) {
+            store.setLocationStatus(i % 2 == 0 ? Utility.LOCATION_STATUS_OK : Utility.LOCATION_STATUS_SERVER_DOWN, 0);
+        }
+        long storeNanos = System.nanoTime() - start;
+        store.flush();
+
+        // what SunshineSyncAdapter.setLocationStatus did before
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        start = System.nanoTime();
+        for (int i = 0; i < COMMIT_UPDATES; i++) {
+            prefs.edit()
+                    .putInt("loc-status", i % 2 == 0 ? Utility.LOCATION_STATUS_OK : Utility.LOCATION_STATUS_SERVER_DOWN)
+                    .putLong("server-retry-at", 0)
+                    .commit();
+        }
+        long commitNanos = System.nanoTime() - start;
+
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, store.getLocationStatus());
+        assertTrue(store.getWriteCount() <= 1 + storeNanos / TimeUnit.MILLISECONDS.toNanos(SyncStatusStore.PERSIST_DELAY_MILLIS));
+        Log.i(LOG_TAG, String.format("status update: %.2fus in the store (%d writes for %d updates), "
+                        + "%.1fus with SharedPreferences.commit()",
+                storeNanos / 1000.0 / STORE_UPDATES, store.getWriteCount(), STORE_UPDATES,
+                commitNanos / 1000.0 / COMMIT_UPDATES));
+    }
+
+    private void deleteFiles() {
+        new File(mContext.getFilesDir(), FILE_NAME).delete();
+        mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+}
@@ -0,0 +1,452 @@
+package com.ant.core;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The outcome of the latest syncs: the location status shown by the forecast list and the
+ * settings, when requests to the server resume after an outage, when a sync last succeeded and
+ * last failed, and the same for every location synced.
+ * <p/>
+ * Everything is read from and written to memory, so it is safe to use from the main thread.
+ * Changes are saved to a small file on a background thread, {@link #PERSIST_DELAY_MILLIS} after
+ * the first of them so that a burst of updates costs one write, and the file is read back on
+ * that same thread when the store is first used.  A value set before the file was read wins
+ * over the saved one; everything else is taken from the file.  {@link Observer}s are told on
+ * the main thread, once for a burst of changes.
+ * <p/>
+ * Only the {@link #MAX_LOCATIONS} most recently synced locations are kept.
+ */
+public final class SyncStatusStore {
+
+    private static final String LOG_TAG = SyncStatusStore.class.getSimpleName();
+
+    static final String FILE_NAME = "sync-status";
+    private static final int FILE_VERSION = 1;
+    // changes made within this long of the first one are saved together
+    static final long PERSIST_DELAY_MILLIS = 500;
+    // well above the recent and saved locations a sync goes through; older ones are forgotten
+    static final int MAX_LOCATIONS = 32;
+
+    // what was set since the process started, and so must not be replaced by the file
+    private static final int SET_STATUS = 1;
+    private static final int SET_SERVER_RETRY = 1 << 1;
+    private static final int SET_LAST_SUCCESS = 1 << 2;
+    private static final int SET_LAST_ERROR = 1 << 3;
+
+    /**
+     * Told on the main thread when the status changed.
+     */
+    public interface Observer {
+        void onSyncStatusChanged(@Utility.LocationStatus int status);
+    }
+
+    /**
+     * What the last sync of one location found.
+     */
+    public static final class LocationState {
+        @Utility.LocationStatus
+        public final int status;
+        // when a sync of the location last succeeded, 0 if none did
+        public final long lastSuccessMillis;
+
+        LocationState(int status, long lastSuccessMillis) {
+            this.status = status;
+            this.lastSuccessMillis = lastSuccessMillis;
+        }
+    }
+
+    private static SyncStatusStore sInstance;
+
+    private final Context mContext;
+    private final String mFileName;
+    private final ScheduledExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Observer> mObservers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger mWriteCount = new AtomicInteger();
+    // only touched on the executor
+    private File mFile;
+
+    // all guarded by this
+    private int mStatus = Utility.LOCATION_STATUS_UNKNOWN;
+    private long mServerRetryAt;
+    private long mLastSuccessMillis;
+    private int mLastErrorStatus = Utility.LOCATION_STATUS_UNKNOWN;
+    private long mLastErrorMillis;
+    // least recently synced first
+    private final Map<String, LocationState> mLocations = new LinkedHashMap<>();
+    // the SET_ values of what changed since startup
+    private int mSet;
+    private boolean mWriteScheduled;
+    private boolean mNotifyPosted;
+
+    SyncStatusStore(Context context, String fileName) {
+        mContext = context.getApplicationContext();
+        mFileName = fileName;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SyncStatusStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * @return the store of this app; the saved status is read in the background, so call this
+     * early, e.g. when the application starts
+     */
+    public static synchronized SyncStatusStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncStatusStore(context, FILE_NAME);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the status of the last sync, {@link Utility#LOCATION_STATUS_SERVER_UNAVAILABLE}
+     * while requests to the server are paused after repeated failures
+     */
+    @SuppressWarnings("ResourceType")
+    @Utility.LocationStatus
+    public synchronized int getLocationStatus() {
+        if (mServerRetryAt > System.currentTimeMillis()) {
+            return Utility.LOCATION_STATUS_SERVER_UNAVAILABLE;
+        }
+        return mStatus;
+    }
+
+    /**
+     * Records the outcome of a sync of the preferred location.
+     *
+     * @param serverRetryAt when requests to the server resume, 0 if they aren't paused
+     */
+    public void setLocationStatus(@Utility.LocationStatus int status, long serverRetryAt) {
+        synchronized (this) {
+            if (status == mStatus && serverRetryAt == mServerRetryAt && status != Utility.LOCATION_STATUS_OK) {
+                return;
+            }
+            mStatus = status;
+            mServerRetryAt = serverRetryAt;
+            mSet |= SET_STATUS | SET_SERVER_RETRY;
+            long now = System.currentTimeMillis();
+            if (status == Utility.LOCATION_STATUS_OK) {
+                mLastSuccessMillis = now;
+                mSet |= SET_LAST_SUCCESS;
+            } else if (status != Utility.LOCATION_STATUS_UNKNOWN) {
+                mLastErrorStatus = status;
+                mLastErrorMillis = now;
+                mSet |= SET_LAST_ERROR;
+            }
+        }
+        onChanged();
+    }
+
+    /**
+     * Forgets the status, e.g. when the location changed and hasn't been synced yet.
+     */
+    public void resetLocationStatus() {
+        synchronized (this) {
+            if (mStatus == Utility.LOCATION_STATUS_UNKNOWN) {
+                return;
+            }
+            mStatus = Utility.LOCATION_STATUS_UNKNOWN;
+            mSet |= SET_STATUS;
+        }
+        onChanged();
+    }
+
+    /**
+     * Records the outcome of a sync of any location.
+     */
+    public void setLocationState(String locationSetting, @Utility.LocationStatus int status) {
+        synchronized (this) {
+            // taken out and put back, so that it moves to the most recent end
+            LocationState previous = mLocations.remove(locationSetting);
+            long lastSuccess = status == Utility.LOCATION_STATUS_OK ? System.currentTimeMillis()
+                    : previous != null ? previous.lastSuccessMillis : 0;
+            mLocations.put(locationSetting, new LocationState(status, lastSuccess));
+            trimLocations();
+        }
+        onChanged();
+    }
+
+    /**
+     * @return what the last sync of the location found, null if it was never synced
+     */
+    public synchronized LocationState getLocationState(String locationSetting) {
+        return mLocations.get(locationSetting);
+    }
+
+    public synchronized long getServerRetryAt() {
+        return mServerRetryAt;
+    }
+
+    /**
+     * @return when a sync of the preferred location last succeeded, 0 if none did
+     */
+    public synchronized long getLastSuccessMillis() {
+        return mLastSuccessMillis;
+    }
+
+    /**
+     * @return the status of the last failed sync, {@link Utility#LOCATION_STATUS_UNKNOWN} if
+     * none failed
+     */
+    @SuppressWarnings("ResourceType")
+    @Utility.LocationStatus
+    public synchronized int getLastErrorStatus() {
+        return mLastErrorStatus;
+    }
+
+    public synchronized long getLastErrorMillis() {
+        return mLastErrorMillis;
+    }
+
+    public void addObserver(Observer observer) {
+        mObservers.add(observer);
+    }
+
+    public void removeObserver(Observer observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * Saves what changed right away and waits for it.  Not for the main thread.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of times the file was written since the process started
+     */
+    public int getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    private void onChanged() {
+        boolean scheduleWrite;
+        boolean postNotify;
+        synchronized (this) {
+            scheduleWrite = !mWriteScheduled;
+            mWriteScheduled = true;
+            postNotify = !mNotifyPosted;
+            mNotifyPosted = true;
+        }
+        if (scheduleWrite) {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            }, PERSIST_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (postNotify) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifyObservers();
+                }
+            });
+        }
+    }
+
+    private void notifyObservers() {
+        int status;
+        synchronized (this) {
+            mNotifyPosted = false;
+            status = getLocationStatus();
+        }
+        for (Observer observer : mObservers) {
+            observer.onSyncStatusChanged(status);
+        }
+    }
+
+    // on the executor
+    private File getFile() {
+        if (mFile == null) {
+            mFile = new File(mContext.getFilesDir(), mFileName);
+        }
+        return mFile;
+    }
+
+    // on the executor
+    private void save() {
+        int status;
+        long serverRetryAt;
+        long lastSuccessMillis;
+        int lastErrorStatus;
+        long lastErrorMillis;
+        List<Map.Entry<String, LocationState>> locations;
+        synchronized (this) {
+            if (!mWriteScheduled) {
+                // nothing changed since the last write
+                return;
+            }
+            mWriteScheduled = false;
+            status = mStatus;
+            serverRetryAt = mServerRetryAt;
+            lastSuccessMillis = mLastSuccessMillis;
+            lastErrorStatus = mLastErrorStatus;
+            lastErrorMillis = mLastErrorMillis;
+            locations = new ArrayList<>(mLocations.entrySet());
+        }
+        File file = getFile();
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(status);
+            out.writeLong(serverRetryAt);
+            out.writeLong(lastSuccessMillis);
+            out.writeInt(lastErrorStatus);
+            out.writeLong(lastErrorMillis);
+            out.writeInt(locations.size());
+            for (Map.Entry<String, LocationState> entry : locations) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().status);
+                out.writeLong(entry.getValue().lastSuccessMillis);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                Log.w(LOG_TAG, "Couldn't replace " + file);
+            }
+            mWriteCount.incrementAndGet();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't save the sync status", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    // on the executor, before anything is saved
+    private void load() {
+        File file = getFile();
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != FILE_VERSION) {
+                Log.d(LOG_TAG, "Discarding sync status of another version");
+                return;
+            }
+            int status = in.readInt();
+            long serverRetryAt = in.readLong();
+            long lastSuccessMillis = in.readLong();
+            int lastErrorStatus = in.readInt();
+            long lastErrorMillis = in.readLong();
+            int count = in.readInt();
+            Map<String, LocationState> locations = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String locationSetting = in.readUTF();
+                locations.put(locationSetting, new LocationState(in.readInt(), in.readLong()));
+            }
+            synchronized (this) {
+                // whatever a sync set before the file was read is newer than the file
+                if ((mSet & SET_STATUS) == 0) {
+                    mStatus = status;
+                }
+                if ((mSet & SET_SERVER_RETRY) == 0) {
+                    mServerRetryAt = serverRetryAt;
+                }
+                if ((mSet & SET_LAST_SUCCESS) == 0) {
+                    mLastSuccessMillis = lastSuccessMillis;
+                }
+                if ((mSet & SET_LAST_ERROR) == 0) {
+                    mLastErrorStatus = lastErrorStatus;
+                    mLastErrorMillis = lastErrorMillis;
+                }
+                // the saved locations are older, so they go first and the ones synced since
+                // startup keep their place at the recent end
+                for (Map.Entry<String, LocationState> entry : mLocations.entrySet()) {
+                    LocationState saved = locations.remove(entry.getKey());
+                    LocationState current = entry.getValue();
+                    if (saved != null && current.lastSuccessMillis == 0) {
+                        // failed since startup, but the file still knows when it last worked
+                        current = new LocationState(current.status, saved.lastSuccessMillis);
+                    }
+                    locations.put(entry.getKey(), current);
+                }
+                mLocations.clear();
+                mLocations.putAll(locations);
+                trimLocations();
+                mNotifyPosted = true;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifyObservers();
+                }
+            });
+        } catch (EOFException e) {
+            Log.w(LOG_TAG, "Sync status file truncated, ignored");
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't load the sync status", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    // guarded by this
+    private void trimLocations() {
+        Iterator<String> oldest = mLocations.keySet().iterator();
+        while (mLocations.size() > MAX_LOCATIONS) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing sync status file", e);
+            }
+        }
+    }
+}
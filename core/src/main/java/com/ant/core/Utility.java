@@ -44,9 +44,11 @@ public class Utility {
     public static final int LOCATION_STATUS_SERVER_INVALID = 2;
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
+    // the server kept failing, requests are paused until it is tried again
+    public static final int LOCATION_STATUS_SERVER_UNAVAILABLE = 5;
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
+    @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID, LOCATION_STATUS_SERVER_UNAVAILABLE})
     public @interface LocationStatus {
     }
 
@@ -578,26 +580,24 @@ public class Utility {
     }
 
     /**
-     * @param c Context used to get the SharedPreferences
-     * @return the location status integer type
+     * Reads the {@link SyncStatusStore}, which never touches the disk on the calling thread.
+     *
+     * @param c Context used to get the SyncStatusStore
+     * @return the location status integer type, {@link #LOCATION_STATUS_SERVER_UNAVAILABLE}
+     * while requests to the server are paused after repeated failures
      */
-    @SuppressWarnings("ResourceType")
     static public
     @LocationStatus
     int getLocationStatus(Context c) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), LOCATION_STATUS_UNKNOWN);
+        return SyncStatusStore.getInstance(c).getLocationStatus();
     }
 
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      *
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the SyncStatusStore
      */
     static public void resetLocationStatus(Context c) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        SyncStatusStore.getInstance(c).resetLocationStatus();
     }
 }
\ No newline at end of file
@@ -0,0 +1,353 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Minimal in-process HTTP/1.1 server standing in for OpenWeatherMap, so the sync path can be
+    exercised end to end on a device without network access.  Connections are kept alive until
+    the client closes them, and every request is recorded for the test to inspect.
+ */
+class FakeWeatherServer {
+
+    private static final String LOG_TAG = FakeWeatherServer.class.getSimpleName();
+
+    // script step of withFaults() that drops the connection
+    static final int DROP = -1;
+
+    interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    static final class Request {
+        final String method;
+        final String path;
+        final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        String header(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        String queryParameter(String name) {
+            return Uri.parse(path).getQueryParameter(name);
+        }
+
+        List<String> queryParameters(String name) {
+            return Uri.parse(path).getQueryParameters(name);
+        }
+    }
+
+    static final class Response {
+        final int code;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        final byte[] body;
+
+        Response(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        static Response ok(String body) {
+            return new Response(200, utf8(body)).header("Content-Type", "application/json; charset=utf-8");
+        }
+
+        static Response notModified() {
+            return new Response(304, new byte[0]);
+        }
+
+        static Response status(int code) {
+            return new Response(code, new byte[0]);
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * @return this response with its body gzip-compressed and Content-Encoding set
+         */
+        Response gzipped() throws IOException {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(compressed);
+            out.write(body);
+            out.close();
+            Response response = new Response(code, compressed.toByteArray());
+            response.headers.putAll(headers);
+            return response.header(HttpWeatherTransport.HEADER_CONTENT_ENCODING, HttpWeatherTransport.ENCODING_GZIP);
+        }
+    }
+
+    private final Handler mHandler;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private ServerSocket mServerSocket;
+
+    FakeWeatherServer(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * A stand-in for the daily forecast endpoint: answers every "q" with a synthetic forecast of
+     * "cnt" days for a city of that name.
+     */
+    static FakeWeatherServer forecasts() {
+        return forecasts(false);
+    }
+
+    /**
+     * Like {@link #forecasts()}, but when gzip is true the body is compressed for every client
+     * that sends Accept-Encoding: gzip, as the real endpoint does.
+     */
+    static FakeWeatherServer forecasts(boolean gzip) {
+        return new FakeWeatherServer(forecastHandler(gzip));
+    }
+
+    /**
+     * Answers the daily forecast endpoint, and group requests (any path containing "/group")
+     * with one forecast for every "id" parameter.  Paths without "/daily" get the hourly
+     * forecast, 5 days in 3 hour steps.
+     */
+    static Handler forecastHandler(final boolean gzip) {
+        return new Handler() {
+            @Override
+            public Response handle(Request request) throws IOException {
+                String city = request.queryParameter(SunshineSyncAdapter.QUERY_PARAM_DEFAULT);
+                String days = request.queryParameter(SunshineSyncAdapter.CNT);
+                int dayCount = days != null ? Integer.parseInt(days) : ForecastSyncTask.NUM_DAYS;
+                Response response;
+                if (request.path.contains("/group")) {
+                    response = Response.ok(ForecastPayloads.groupForecast(
+                            request.queryParameters(SunshineSyncAdapter.ID), dayCount));
+                } else if (city == null) {
+                    return new Response(404, utf8(ForecastPayloads.notFound()));
+                } else if (request.path.contains("/daily")) {
+                    response = Response.ok(ForecastPayloads.dailyForecast(city, dayCount));
+                } else {
+                    response = Response.ok(ForecastPayloads.hourlyForecast(city, ForecastPayloads.HOURLY_SLOTS));
+                }
+                String acceptEncoding = request.header(HttpWeatherTransport.HEADER_ACCEPT_ENCODING);
+                if (gzip && acceptEncoding != null && acceptEncoding.contains(HttpWeatherTransport.ENCODING_GZIP)) {
+                    return response.gzipped();
+                }
+                return response;
+            }
+        };
+    }
+
+    /**
+     * Wraps a handler so that every answer takes at least the given time, like a round trip to
+     * the real server would.
+     */
+    static Handler withLatency(final Handler handler, final long latencyMillis) {
+        return new Handler() {
+            @Override
+            public Response handle(Request request) throws IOException {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                return handler.handle(request);
+            }
+        };
+    }
+
+    /**
+     * Wraps a handler so that the n-th request gets the n-th step of the script, and every request
+     * after the script ran out gets its last step.  A step is an HTTP status to answer with an
+     * empty body, {@link #DROP} to close the connection without answering, or 200 to let the
+     * wrapped handler answer.
+     */
+    static Handler withFaults(final Handler handler, final int... script) {
+        final AtomicInteger next = new AtomicInteger();
+        return new Handler() {
+            @Override
+            public Response handle(Request request) throws IOException {
+                int step = script[Math.min(next.getAndIncrement(), script.length - 1)];
+                if (step == DROP) {
+                    return null;
+                }
+                if (step == 200) {
+                    return handler.handle(request);
+                }
+                return Response.status(step);
+            }
+        };
+    }
+
+    void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing server socket", e);
+        }
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return an absolute url on this server, e.g. getUrl("/data/2.5/forecast/daily?")
+     */
+    String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    int getRequestCount() {
+        return mRequests.size();
+    }
+
+    List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnectionCount.incrementAndGet();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (SocketException e) {
+                // server socket closed
+                return;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error accepting connection", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = reader.readLine()) != null) {
+                if (requestLine.isEmpty()) {
+                    continue;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+                mRequests.add(request);
+
+                Response response = mHandler.handle(request);
+                if (response == null) {
+                    // handler asked us to drop the connection without answering
+                    break;
+                }
+                write(out, response);
+                if ("close".equalsIgnoreCase(request.header("Connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Connection ended: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing connection", e);
+            }
+        }
+    }
+
+    private static void write(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(' ').append(reason(response.code)).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        out.write(response.body);
+        out.flush();
+    }
+
+    private static String reason(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+
+    static byte[] utf8(String body) {
+        try {
+            return body.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.ant.sunshine.app.test.DayCalendar;
+import com.ant.sunshine.app.test.ForecastBatch;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Compares the old StringBuilder + JSONObject ingest path with the streaming
+    ForecastJsonParser on 14-day, 16-day and multi-city responses.  Timings and allocated bytes
+    are written to logcat; the assertions only check that both paths produce the same rows.
+ */
+public class ForecastParserBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = ForecastParserBenchmark.class.getSimpleName();
+
+    private static final int ITERATIONS = 50;
+    private static final int MULTI_CITY_COUNT = 25;
+
+    public void testFourteenDays() throws Exception {
+        compare("14 days", new byte[][]{ForecastPayloads.dailyForecast("Mountain View", 14).getBytes("UTF-8")});
+    }
+
+    public void testSixteenDays() throws Exception {
+        compare("16 days", new byte[][]{ForecastPayloads.dailyForecast("Mountain View", 16).getBytes("UTF-8")});
+    }
+
+    public void testMultiCity() throws Exception {
+        byte[][] payloads = new byte[MULTI_CITY_COUNT][];
+        for (int i = 0; i < MULTI_CITY_COUNT; i++) {
+            payloads[i] = ForecastPayloads.dailyForecast("City " + i, 16, i).getBytes("UTF-8");
+        }
+        compare(MULTI_CITY_COUNT + " cities", payloads);
+    }
+
+    private void compare(String label, byte[][] payloads) throws Exception {
+        // warm up both paths and make sure they agree before timing anything
+        for (byte[] payload : payloads) {
+            ForecastBatch legacy = new ForecastBatch();
+            for (ContentValues row : parseWithJsonObject(new ByteArrayInputStream(payload))) {
+                legacy.add(row);
+            }
+            ForecastBatch streamed = parseStreaming(new ByteArrayInputStream(payload));
+            assertEquals("Row count differs for " + label, legacy.size(), streamed.size());
+            for (int i = 0; i < streamed.size(); i++) {
+                String message = "Row " + i + " differs for " + label;
+                assertEquals(message, legacy.getDate(i), streamed.getDate(i));
+                assertEquals(message, legacy.getWeatherId(i), streamed.getWeatherId(i));
+                assertEquals(message, legacy.getShortDesc(i), streamed.getShortDesc(i));
+                assertEquals(message, legacy.getMinTemp(i), streamed.getMinTemp(i));
+                assertEquals(message, legacy.getMaxTemp(i), streamed.getMaxTemp(i));
+                assertEquals(message, legacy.getHumidity(i), streamed.getHumidity(i));
+                assertEquals(message, legacy.getPressure(i), streamed.getPressure(i));
+                assertEquals(message, legacy.getWindSpeed(i), streamed.getWindSpeed(i));
+                assertEquals(message, legacy.getDegrees(i), streamed.getDegrees(i));
+            }
+        }
+
+        long[] legacy = run(payloads, false);
+        long[] streaming = run(payloads, true);
+        Log.i(LOG_TAG, String.format("%s: JSONObject %d us/iter %d B/iter, streaming %d us/iter %d B/iter",
+                label, legacy[0], legacy[1], streaming[0], streaming[1]));
+    }
+
+    // returns {micros per iteration, bytes allocated per iteration}
+    @SuppressWarnings("deprecation")
+    private long[] run(byte[][] payloads, boolean streaming) throws Exception {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (byte[] payload : payloads) {
+                if (streaming) {
+                    parseStreaming(new ByteArrayInputStream(payload));
+                } else {
+                    parseWithJsonObject(new ByteArrayInputStream(payload));
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        return new long[]{elapsed / 1000 / ITERATIONS, Debug.getThreadAllocSize() / ITERATIONS};
+    }
+
+    private static ForecastBatch parseStreaming(InputStream inputStream) throws IOException, JSONException {
+        ForecastRowCollector collector = new ForecastRowCollector(DayCalendar.getInstance(), 2457000);
+        new ForecastJsonParser().parse(inputStream, collector);
+        return collector.getBatch();
+    }
+
+    // The ingest path as it was before streaming: buffer every line, then build the whole tree.
+    private static List<ContentValues> parseWithJsonObject(InputStream inputStream) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        reader.close();
+
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        JSONArray weatherArray = forecastJson.getJSONArray(SunshineSyncAdapter.JSON_KEY_LIST);
+        JSONObject cityJson = forecastJson.getJSONObject(SunshineSyncAdapter.JSON_QUERY_CITY);
+        cityJson.getString(SunshineSyncAdapter.JSON_KEY_NAME);
+        JSONObject cityCoord = cityJson.getJSONObject(SunshineSyncAdapter.JSON_KEY_COORD);
+        cityCoord.getDouble(SunshineSyncAdapter.JSON_KEY_LAT);
+        cityCoord.getDouble(SunshineSyncAdapter.JSON_KEY_LON);
+
+        Time dayTime = new Time();
+        List<ContentValues> rows = new ArrayList<>();
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray(SunshineSyncAdapter.JSON_KEY_WEATHER).getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject(SunshineSyncAdapter.JSON_KEY_TEMP);
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(2457000 + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt(SunshineSyncAdapter.JSON_KEY_HUMIDITY));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble(SunshineSyncAdapter.JSON_KEY_PRESSURE));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble(SunshineSyncAdapter.JSON_KEY_SPEED));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble(SunshineSyncAdapter.JSON_KEY_DEG));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble(SunshineSyncAdapter.JSON_KEY_MAX));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble(SunshineSyncAdapter.JSON_KEY_MIN));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString(SunshineSyncAdapter.JSON_KEY_MAIN));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt(SunshineSyncAdapter.JSON_KEY_ID));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 1L);
+            rows.add(weatherValues);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,135 @@
+package com.ant.sunshine.app.sync;
+
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Deterministic, synthetic OpenWeatherMap daily and hourly forecast responses.  The same city and seed
+    always produce the same body, so the sync tests and benchmarks don't depend on the network.
+ */
+final class ForecastPayloads {
+
+    private static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain", "Snow", "Mist"};
+    private static final int[] WEATHER_IDS = {800, 803, 501, 601, 701};
+
+    // 5 days of 8 slots, what the 3 hour forecast endpoint returns
+    static final int HOURLY_SLOTS = 40;
+    static final long HOURLY_START_SECONDS = 1419120000L;
+    static final long HOURLY_STEP_SECONDS = 3 * 3600L;
+
+    private ForecastPayloads() {
+    }
+
+    static String dailyForecast(String cityName, int days) {
+        return dailyForecast(cityName, days, 0);
+    }
+
+    static String dailyForecast(String cityName, int days, int seed) {
+        return dailyForecast(cityName, days, seed, null);
+    }
+
+    /**
+     * @param temperatureOffsets if not null, degrees added to the temperatures of each day
+     */
+    static String dailyForecast(String cityName, int days, int seed, double[] temperatureOffsets) {
+        StringBuilder json = new StringBuilder(512 + days * 320);
+        json.append("{\"city\":{\"id\":").append(Math.abs(cityName.hashCode()))
+                .append(",\"name\":\"").append(cityName).append('"')
+                .append(",\"coord\":{\"lon\":").append(format(-147.353 + seed))
+                .append(",\"lat\":").append(format(64.7488)).append('}')
+                .append(",\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            int kind = (i + seed) % DESCRIPTIONS.length;
+            double offset = temperatureOffsets != null ? temperatureOffsets[i] : 0;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1419120000L + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(format(10 + i + seed + offset))
+                    .append(",\"min\":").append(format(5 + i + seed + offset))
+                    .append(",\"max\":").append(format(15 + i + seed + offset))
+                    .append(",\"night\":4.5,\"eve\":9.1,\"morn\":6.2}")
+                    .append(",\"pressure\":").append(format(1010 + i))
+                    .append(",\"humidity\":").append(60 + (i % 30))
+                    .append(",\"weather\":[{\"id\":").append(WEATHER_IDS[kind])
+                    .append(",\"main\":\"").append(DESCRIPTIONS[kind]).append('"')
+                    .append(",\"description\":\"synthetic\",\"icon\":\"01d\"}]")
+                    .append(",\"speed\":").append(format(3.5 + i))
+                    .append(",\"deg\":").append(10 * i)
+                    .append(",\"clouds\":").append(i % 100)
+                    .append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * The 3 hour forecast response, whose slots carry their values under "main" and "wind".
+     */
+    static String hourlyForecast(String cityName, int slots) {
+        return hourlyForecast(cityName, slots, 0);
+    }
+
+    static String hourlyForecast(String cityName, int slots, int seed) {
+        StringBuilder json = new StringBuilder(256 + slots * 360);
+        json.append("{\"cod\":\"200\",\"message\":0.0036,\"cnt\":").append(slots)
+                .append(",\"list\":[");
+        for (int i = 0; i < slots; i++) {
+            int kind = (i / 8 + seed) % DESCRIPTIONS.length;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(HOURLY_START_SECONDS + i * HOURLY_STEP_SECONDS)
+                    .append(",\"main\":{\"temp\":").append(format(hourlyTemperature(i, seed)))
+                    .append(",\"temp_min\":").append(format(hourlyTemperature(i, seed) - 1))
+                    .append(",\"temp_max\":").append(format(hourlyTemperature(i, seed) + 1))
+                    .append(",\"pressure\":").append(format(1010 + i % 8))
+                    .append(",\"humidity\":").append(60 + (i % 30)).append('}')
+                    .append(",\"weather\":[{\"id\":").append(WEATHER_IDS[kind])
+                    .append(",\"main\":\"").append(DESCRIPTIONS[kind]).append('"')
+                    .append(",\"description\":\"synthetic\",\"icon\":\"01d\"}]")
+                    .append(",\"clouds\":{\"all\":").append(i % 100).append('}')
+                    .append(",\"wind\":{\"speed\":").append(format(2.5 + i % 5))
+                    .append(",\"deg\":").append(format(45 * (i % 8))).append('}')
+                    .append(",\"dt_txt\":\"synthetic\"}");
+        }
+        json.append("],\"city\":{\"id\":").append(Math.abs(cityName.hashCode()))
+                .append(",\"name\":\"").append(cityName).append('"')
+                .append(",\"coord\":{\"lat\":64.7488,\"lon\":").append(format(-147.353 + seed))
+                .append("},\"country\":\"US\"}}");
+        return json.toString();
+    }
+
+    /**
+     * @return the temperature of the slot in {@link #hourlyForecast}, a daily swing of 8 degrees
+     */
+    static double hourlyTemperature(int slot, int seed) {
+        return 10 + seed + 4 * Math.sin(slot * Math.PI / 4);
+    }
+
+    /**
+     * A group response: one complete daily forecast per city, in the order asked for.
+     */
+    static String groupForecast(List<String> cityNames, int days) {
+        StringBuilder json = new StringBuilder(64 + cityNames.size() * (512 + days * 320));
+        json.append("{\"cnt\":").append(cityNames.size()).append(",\"list\":[");
+        for (int i = 0; i < cityNames.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(dailyForecast(cityNames.get(i), days));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static String notFound() {
+        return "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+}
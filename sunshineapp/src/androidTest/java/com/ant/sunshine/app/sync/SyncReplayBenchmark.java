@@ -0,0 +1,171 @@
+package com.ant.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Records the responses of a stand-in server once, shuts it down and replays them through
+    fetch, parse and persist, the way a sync runs them.  Syncs per second and bytes allocated
+    per sync are written to logcat, for a cold database (every day written) and a warm one
+    (nothing changed); the assertions only check that the replay serves what was recorded and
+    that every replayed sync stores its forecast.
+ */
+public class SyncReplayBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = SyncReplayBenchmark.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final int LOCATIONS = 20;
+    private static final int PASSES = 10;
+
+    private File mDirectory;
+    private ForecastResponseCache mCache;
+    private List<String> mLocations;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mDirectory = new File(mContext.getCacheDir(), "test-replay-recordings");
+        deleteRecordings();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-replay-responses"));
+        mCache.clear();
+        mLocations = new ArrayList<>();
+        for (int i = 0; i < LOCATIONS; i++) {
+            mLocations.add("City " + i);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecordings();
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testReplayServesRecording() throws Exception {
+        String url = record();
+        ReplayWeatherTransport replay = ReplayWeatherTransport.fromDirectory(mDirectory, false);
+        assertEquals(LOCATIONS, replay.getRequestCount());
+
+        ForecastSyncTask task = new ForecastSyncTask(mContext, url, replay, mCache, new SyncStages());
+        WeatherTransport.Response response = replay.get(task.getUriFromParams("City 3",
+                ForecastSyncTask.FORMAT, ForecastSyncTask.UNITS, ForecastSyncTask.NUM_DAYS),
+                Collections.<String, String>emptyMap());
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals(ForecastPayloads.dailyForecast("City 3", ForecastSyncTask.NUM_DAYS), read(response.getBody()));
+        } finally {
+            response.close();
+        }
+
+        // nothing recorded: the sync sees the server as down
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, task.sync("Atlantis").status);
+        assertEquals(1, replay.getMissedCount());
+    }
+
+    public void testReplayThroughput() throws Exception {
+        String url = record();
+        ReplayWeatherTransport replay = ReplayWeatherTransport.fromDirectory(mDirectory, false);
+        ForecastSyncTask task = new ForecastSyncTask(mContext, url, replay, mCache, new SyncStages());
+
+        // warm up, and check that every sync went all the way to the database
+        for (String location : mLocations) {
+            ForecastSyncTask.Result result = task.sync(location);
+            assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+            assertEquals(ForecastSyncTask.NUM_DAYS, result.rowsWritten);
+        }
+
+        long[] warm = replay(task, false);
+        long[] cold = replay(task, true);
+        assertEquals(0, replay.getMissedCount());
+        int syncs = PASSES * LOCATIONS;
+        Log.i(LOG_TAG, String.format("%d replayed syncs, cold: %.1f syncs/s %d B/sync, warm: %.1f syncs/s %d B/sync",
+                syncs, syncs * 1e9 / cold[0], cold[1] / syncs, syncs * 1e9 / warm[0], warm[1] / syncs));
+    }
+
+    /**
+     * Syncs every location from the stand-in server through a recording transport.
+     *
+     * @return the base url the recordings were made with
+     */
+    private String record() throws Exception {
+        FakeWeatherServer server = FakeWeatherServer.forecasts();
+        server.start();
+        try {
+            String url = server.getUrl(FORECAST_PATH);
+            RecordingWeatherTransport recording = new RecordingWeatherTransport(new HttpWeatherTransport(), mDirectory);
+            ForecastSyncTask task = new ForecastSyncTask(mContext, url, recording, mCache, new SyncStages());
+            for (String location : mLocations) {
+                assertEquals(Utility.LOCATION_STATUS_OK, task.sync(location).status);
+            }
+            assertEquals(LOCATIONS, recording.getRecordedCount());
+            deleteAllRecords();
+            mCache.clear();
+            return url;
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    // returns {nanoseconds, bytes allocated} for all the passes
+    @SuppressWarnings("deprecation")
+    private long[] replay(ForecastSyncTask task, boolean cold) {
+        long elapsed = 0;
+        long allocated = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            if (cold) {
+                deleteAllRecords();
+            }
+            // global, as persisting happens on the persist thread
+            Debug.resetGlobalAllocSize();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            for (String location : mLocations) {
+                ForecastSyncTask.Result result = task.sync(location);
+                assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+                assertEquals(cold ? ForecastSyncTask.NUM_DAYS : 0, result.rowsWritten);
+            }
+            elapsed += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            allocated += Debug.getGlobalAllocSize();
+        }
+        return new long[]{elapsed, allocated};
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private void deleteRecordings() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,154 @@
+package com.ant.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TestAdaptiveSyncScheduler extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestAdaptiveSyncScheduler.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final String TEST_LOCATION = "94043";
+    private static final int HOUR = 60 * 60;
+    private static final int WEEK = 7 * 24 * HOUR;
+
+    /*
+        A week of forecast revisions as the provider published them: the hour of the week, the
+        first and last day of the forecast that moved, and by how many tenths of a degree.  Small
+        corrections at the far end of the forecast most of the week, and a front on day three
+        that keeps shifting the whole forecast for a day.
+     */
+    private static final int[][] REVISIONS = {
+            {12, 12, 13, 5},
+            {36, 11, 13, 5},
+            {60, 10, 13, 5},
+            {72, 0, 13, 40},
+            {78, 0, 13, -30},
+            {84, 0, 13, 35},
+            {90, 0, 13, -25},
+            {96, 0, 13, 30},
+            {120, 12, 13, 5},
+            {144, 13, 13, 5},
+    };
+
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-adaptive-responses"));
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testStableForecastStretchesToMaximum() {
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        for (int i = 0; i < 10; i++) {
+            AdaptiveSyncScheduler.Decision decision = AdaptiveSyncScheduler.decide(interval,
+                    new AdaptiveSyncScheduler.Observation(0, ForecastSyncTask.NUM_DAYS, 0, false));
+            assertTrue(decision.interval >= interval);
+            interval = decision.interval;
+        }
+        assertEquals(AdaptiveSyncScheduler.MAX_INTERVAL, interval);
+    }
+
+    public void testChurnTightensToMinimum() {
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        for (int i = 0; i < 10; i++) {
+            interval = AdaptiveSyncScheduler.decide(interval,
+                    new AdaptiveSyncScheduler.Observation(1, ForecastSyncTask.NUM_DAYS, 5.0, false)).interval;
+        }
+        assertEquals(AdaptiveSyncScheduler.MIN_INTERVAL, interval);
+    }
+
+    public void testFailedSyncKeepsInterval() {
+        AdaptiveSyncScheduler.Decision decision = AdaptiveSyncScheduler.decide(4 * HOUR,
+                AdaptiveSyncScheduler.Observation.of(Collections.singletonList(new ForecastSyncTask.Result())));
+        assertEquals(4 * HOUR, decision.interval);
+        assertNotNull(decision.reason);
+    }
+
+    /*
+        Simulation: replays the recorded week against the real sync path, letting the scheduler
+        pick the time of the next sync each time, and compares the number of syncs with the
+        fixed three hour schedule.  How late the scheduler saw each revision goes to logcat.
+     */
+    public void testReplayedWeekSavesSyncs() throws Exception {
+        final AtomicLong clock = new AtomicLong();
+        FakeWeatherServer server = new FakeWeatherServer(new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                return FakeWeatherServer.Response.ok(ForecastPayloads.dailyForecast(TEST_LOCATION,
+                        ForecastSyncTask.NUM_DAYS, 0, offsetsAt(clock.get())));
+            }
+        });
+        server.start();
+        try {
+            ForecastSyncTask task = new ForecastSyncTask(mContext, server.getUrl(FORECAST_PATH),
+                    new HttpWeatherTransport(), mCache);
+
+            int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+            int syncs = 0;
+            long maxLag = 0;
+            int nextRevision = 0;
+            for (long now = 0; now < WEEK; now += interval) {
+                clock.set(now);
+                ForecastSyncTask.Result result = task.sync(TEST_LOCATION);
+                assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+                syncs++;
+                while (nextRevision < REVISIONS.length && REVISIONS[nextRevision][0] * HOUR <= now) {
+                    maxLag = Math.max(maxLag, now - REVISIONS[nextRevision][0] * HOUR);
+                    nextRevision++;
+                }
+
+                AdaptiveSyncScheduler.Decision decision = AdaptiveSyncScheduler.decide(interval,
+                        AdaptiveSyncScheduler.Observation.of(Collections.singletonList(result)));
+                assertTrue(decision.interval >= AdaptiveSyncScheduler.MIN_INTERVAL);
+                assertTrue(decision.interval <= AdaptiveSyncScheduler.MAX_INTERVAL);
+                Log.d(LOG_TAG, String.format("hour %.1f: %s, next in %.1f hours",
+                        now / (double) HOUR, decision.reason, decision.interval / (double) HOUR));
+                interval = decision.interval;
+            }
+
+            int fixedSyncs = WEEK / SunshineSyncAdapter.SYNC_INTERVAL;
+            Log.i(LOG_TAG, String.format("%d syncs instead of %d, %d saved, revisions seen up to %.1f hours late",
+                    syncs, fixedSyncs, fixedSyncs - syncs, maxLag / (double) HOUR));
+            assertTrue("Adaptive schedule synced " + syncs + " times", syncs < fixedSyncs);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static double[] offsetsAt(long secondsIntoWeek) {
+        double[] offsets = new double[ForecastSyncTask.NUM_DAYS];
+        for (int[] revision : REVISIONS) {
+            if (revision[0] * HOUR > secondsIntoWeek) {
+                break;
+            }
+            for (int day = revision[1]; day <= revision[2]; day++) {
+                offsets[day] += revision[3] / 10.0;
+            }
+        }
+        return offsets;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
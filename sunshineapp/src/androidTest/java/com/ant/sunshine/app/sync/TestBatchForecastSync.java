@@ -0,0 +1,287 @@
+package com.ant.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TestBatchForecastSync extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBatchForecastSync.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final String GROUP_PATH = "/data/2.5/forecast/daily/group?";
+    private static final long SERVER_LATENCY_MILLIS = 20;
+    private static final int BENCHMARK_CITIES = 50;
+    private static final String GROUP_ETAG = "\"group-v1\"";
+
+    private final AtomicLong mClock = new AtomicLong(1000000);
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-batch-responses"));
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testGroupResponseIsSplitPerLocation() throws Exception {
+        FakeWeatherServer server = FakeWeatherServer.forecasts();
+        server.start();
+        try {
+            List<String> locations = Arrays.asList("City 0", "London,uk", "94043");
+            Map<String, ForecastSyncTask.Result> results = newBatchTask(server).sync(locations);
+
+            assertEquals(1, server.getRequestCount());
+            assertEquals(locations, new ArrayList<>(results.keySet()));
+            for (String location : locations) {
+                assertEquals(Utility.LOCATION_STATUS_OK, results.get(location).status);
+                assertEquals(ForecastSyncTask.NUM_DAYS, results.get(location).rowsWritten);
+                assertEquals(ForecastSyncTask.NUM_DAYS, countWeatherRows(location));
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testUnchangedGroupIsRevalidated() throws Exception {
+        FakeWeatherServer server = new FakeWeatherServer(new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                if (GROUP_ETAG.equals(request.header(ForecastResponseCache.HEADER_IF_NONE_MATCH))) {
+                    return FakeWeatherServer.Response.notModified();
+                }
+                return FakeWeatherServer.Response.ok(ForecastPayloads.groupForecast(
+                        request.queryParameters(SunshineSyncAdapter.ID), ForecastSyncTask.NUM_DAYS))
+                        .header(ForecastResponseCache.HEADER_ETAG, GROUP_ETAG);
+            }
+        });
+        server.start();
+        try {
+            List<String> locations = Arrays.asList("City 0", "City 1");
+            BatchForecastSyncTask batchTask = newBatchTask(server);
+            batchTask.sync(locations);
+            assertNull(server.getRequests().get(0).header(ForecastResponseCache.HEADER_IF_NONE_MATCH));
+
+            Map<String, ForecastSyncTask.Result> results = batchTask.sync(locations);
+            assertEquals(GROUP_ETAG, server.getRequests().get(1).header(ForecastResponseCache.HEADER_IF_NONE_MATCH));
+            for (String location : locations) {
+                assertEquals(Utility.LOCATION_STATUS_OK, results.get(location).status);
+                assertTrue(results.get(location).notModified);
+                assertEquals(ForecastSyncTask.NUM_DAYS, countWeatherRows(location));
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testServerErrorFallsBackToSingleFetches() throws Exception {
+        FakeWeatherServer server = new FakeWeatherServer(groupAnswering(503));
+        server.start();
+        try {
+            List<String> locations = Arrays.asList("City 0", "City 1", "City 2");
+            BatchForecastSyncTask batchTask = newBatchTask(server);
+            Map<String, ForecastSyncTask.Result> results = syncAll(batchTask, locations);
+
+            assertEquals(1 + locations.size(), server.getRequestCount());
+            for (String location : locations) {
+                assertEquals(Utility.LOCATION_STATUS_OK, results.get(location).status);
+                assertEquals(ForecastSyncTask.NUM_DAYS, countWeatherRows(location));
+            }
+            // a transient error doesn't give up on the group call, but leaves it alone for a while
+            assertFalse(batchTask.isGroupUnsupported());
+            assertTrue(batchTask.isGroupBackedOff());
+            int requests = server.getRequestCount();
+            syncAll(batchTask, locations);
+            assertEquals(locations.size(), server.getRequestCount() - requests);
+
+            mClock.addAndGet(BatchForecastSyncTask.GROUP_RETRY_MILLIS);
+            requests = server.getRequestCount();
+            syncAll(batchTask, locations);
+            assertEquals(1 + locations.size(), server.getRequestCount() - requests);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testMissingGroupEndpointIsRemembered() throws Exception {
+        FakeWeatherServer server = new FakeWeatherServer(groupAnswering(404));
+        server.start();
+        try {
+            List<String> locations = Arrays.asList("City 0", "City 1");
+            BatchForecastSyncTask batchTask = newBatchTask(server);
+            syncAll(batchTask, locations);
+            assertTrue(batchTask.isGroupUnsupported());
+
+            int requests = server.getRequestCount();
+            Map<String, ForecastSyncTask.Result> results = syncAll(batchTask, locations);
+            assertEquals(locations.size(), server.getRequestCount() - requests);
+            for (String location : locations) {
+                assertEquals(Utility.LOCATION_STATUS_OK, results.get(location).status);
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testFallbackFetchesConcurrently() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final FakeWeatherServer.Handler cities = FakeWeatherServer.withLatency(groupAnswering(503),
+                SERVER_LATENCY_MILLIS);
+        FakeWeatherServer server = new FakeWeatherServer(new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                int current = inFlight.incrementAndGet();
+                try {
+                    while (true) {
+                        int max = maxInFlight.get();
+                        if (current <= max || maxInFlight.compareAndSet(max, current)) {
+                            break;
+                        }
+                    }
+                    return cities.handle(request);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+        try {
+            // fewer than a group, which used to leave the whole fallback on one worker
+            List<String> locations = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                locations.add("City " + i);
+            }
+            Map<String, ForecastSyncTask.Result> results = syncAll(newBatchTask(server), locations);
+
+            assertEquals(locations, new ArrayList<>(results.keySet()));
+            for (String location : locations) {
+                assertEquals(Utility.LOCATION_STATUS_OK, results.get(location).status);
+            }
+            Log.i(LOG_TAG, "Fallback of " + locations.size() + " cities: at most " + maxInFlight.get()
+                    + " requests at a time");
+            assertTrue(maxInFlight.get() > 1);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /*
+        Benchmark: 50 cities against a local server with a fixed latency, fetched one request per
+        city and in groups, both on the default pool.  Requests per sync and wall-clock time go to
+        logcat.
+     */
+    public void testRequestsAndLatencyForFiftyCities() throws Exception {
+        FakeWeatherServer server = new FakeWeatherServer(FakeWeatherServer.withLatency(
+                FakeWeatherServer.forecastHandler(false), SERVER_LATENCY_MILLIS));
+        server.start();
+        try {
+            List<String> locations = new ArrayList<>(BENCHMARK_CITIES);
+            for (int i = 0; i < BENCHMARK_CITIES; i++) {
+                locations.add("City " + i);
+            }
+
+            int requestsBefore = server.getRequestCount();
+            long singleMillis = timeSyncAll(new MultiLocationSyncEngine(newTask(server),
+                    MultiLocationSyncEngine.DEFAULT_MAX_WORKERS), locations);
+            int singleRequests = server.getRequestCount() - requestsBefore;
+
+            requestsBefore = server.getRequestCount();
+            long batchMillis = timeSyncAll(new MultiLocationSyncEngine(newBatchTask(server),
+                    MultiLocationSyncEngine.DEFAULT_MAX_WORKERS), locations);
+            int batchRequests = server.getRequestCount() - requestsBefore;
+
+            Log.i(LOG_TAG, String.format("%d cities: %d requests in %d ms one by one, %d requests in %d ms grouped",
+                    BENCHMARK_CITIES, singleRequests, singleMillis, batchRequests, batchMillis));
+            assertEquals(BENCHMARK_CITIES, singleRequests);
+            assertEquals((BENCHMARK_CITIES + BatchForecastSyncTask.MAX_BATCH_SIZE - 1)
+                    / BatchForecastSyncTask.MAX_BATCH_SIZE, batchRequests);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static Map<String, ForecastSyncTask.Result> syncAll(BatchForecastSyncTask batchTask,
+                                                                List<String> locations) {
+        return new MultiLocationSyncEngine(batchTask, MultiLocationSyncEngine.DEFAULT_MAX_WORKERS).syncAll(locations);
+    }
+
+    private long timeSyncAll(MultiLocationSyncEngine engine, List<String> locations) {
+        deleteAllRecords();
+        mCache.clear();
+        long start = System.nanoTime();
+        Map<String, ForecastSyncTask.Result> results = engine.syncAll(locations);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        for (ForecastSyncTask.Result result : results.values()) {
+            assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        }
+        return elapsed;
+    }
+
+    /**
+     * The forecast stand-in, except that group requests get the given error status.
+     */
+    private static FakeWeatherServer.Handler groupAnswering(final int code) {
+        final FakeWeatherServer.Handler forecasts = FakeWeatherServer.forecastHandler(false);
+        return new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                if (request.path.contains("/group")) {
+                    return FakeWeatherServer.Response.status(code);
+                }
+                return forecasts.handle(request);
+            }
+        };
+    }
+
+    private ForecastSyncTask newTask(FakeWeatherServer server) {
+        return new ForecastSyncTask(mContext, server.getUrl(FORECAST_PATH), new HttpWeatherTransport(), mCache);
+    }
+
+    private BatchForecastSyncTask newBatchTask(FakeWeatherServer server) {
+        return new BatchForecastSyncTask(newTask(server), server.getUrl(GROUP_PATH), new HttpWeatherTransport(),
+                new CircuitBreaker.Clock() {
+                    @Override
+                    public long currentTimeMillis() {
+                        return mClock.get();
+                    }
+                });
+    }
+
+    private int countWeatherRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting), null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,165 @@
+package com.ant.sunshine.app.sync;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Syncs against a stand-in server whose forecast can be changed between syncs, checking that
+    only changed days are written, that rows keep their ids when updated, and that an identical
+    forecast doesn't notify anybody.
+ */
+public class TestDeltaUpsert extends AndroidTestCase {
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final String TEST_LOCATION = "94043";
+    // long enough for a notification posted on another thread to arrive
+    private static final long NOTIFICATION_WAIT_MILLIS = 500;
+
+    private final AtomicInteger mSeed = new AtomicInteger();
+    private FakeWeatherServer mServer;
+    private ForecastResponseCache mCache;
+    private ForecastSyncTask mTask;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-delta-responses"));
+        mCache.clear();
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                return FakeWeatherServer.Response.ok(ForecastPayloads.dailyForecast(
+                        request.queryParameter(SunshineSyncAdapter.QUERY_PARAM_DEFAULT),
+                        ForecastSyncTask.NUM_DAYS, mSeed.get()));
+            }
+        });
+        mServer.start();
+        mTask = new ForecastSyncTask(mContext, mServer.getUrl(FORECAST_PATH), new HttpWeatherTransport(), mCache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testIdenticalForecastWritesNothing() throws Exception {
+        ForecastSyncTask.Result first = mTask.sync(TEST_LOCATION);
+        assertEquals(ForecastSyncTask.NUM_DAYS, first.rowsWritten);
+        assertEquals(ForecastSyncTask.NUM_DAYS, first.newDays);
+        List<Long> idsBefore = weatherRowIds();
+
+        CountingObserver observer = CountingObserver.register(this, WeatherContract.WeatherEntry.CONTENT_URI);
+        try {
+            ForecastSyncTask.Result second = mTask.sync(TEST_LOCATION);
+            assertEquals(Utility.LOCATION_STATUS_OK, second.status);
+            assertFalse("The server sent no validators", second.notModified);
+            assertEquals(0, second.rowsWritten);
+            assertEquals(0, second.newDays);
+            assertEquals(0.0, second.maxTemperatureChange);
+
+            Thread.sleep(NOTIFICATION_WAIT_MILLIS);
+            assertEquals(0, observer.getCount());
+        } finally {
+            observer.unregister();
+        }
+        assertEquals(idsBefore, weatherRowIds());
+    }
+
+    public void testChangedForecastIsUpdatedInPlace() throws Exception {
+        mTask.sync(TEST_LOCATION);
+        List<Long> idsBefore = weatherRowIds();
+
+        mSeed.set(1);
+        CountingObserver observer = CountingObserver.register(this, WeatherContract.WeatherEntry.CONTENT_URI);
+        try {
+            ForecastSyncTask.Result result = mTask.sync(TEST_LOCATION);
+            assertEquals(ForecastSyncTask.NUM_DAYS, result.rowsWritten);
+            // the next seed moves every temperature up a degree
+            assertEquals(0, result.newDays);
+            assertEquals(1.0, result.maxTemperatureChange, 1e-9);
+
+            Thread.sleep(NOTIFICATION_WAIT_MILLIS);
+            assertEquals(1, observer.getCount());
+        } finally {
+            observer.unregister();
+        }
+        // updated, not replaced
+        assertEquals(idsBefore, weatherRowIds());
+    }
+
+    private List<Long> weatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TEST_LOCATION),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Counts the change notifications delivered for a uri and its descendants.
+     */
+    static final class CountingObserver extends ContentObserver {
+        private final AndroidTestCase mTestCase;
+        private final HandlerThread mThread;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        private CountingObserver(AndroidTestCase testCase, HandlerThread thread) {
+            super(new Handler(thread.getLooper()));
+            mTestCase = testCase;
+            mThread = thread;
+        }
+
+        static CountingObserver register(AndroidTestCase testCase, Uri uri) {
+            HandlerThread thread = new HandlerThread("CountingObserverThread");
+            thread.start();
+            CountingObserver observer = new CountingObserver(testCase, thread);
+            testCase.getContext().getContentResolver().registerContentObserver(uri, true, observer);
+            return observer;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mCount.incrementAndGet();
+        }
+
+        int getCount() {
+            return mCount.get();
+        }
+
+        void unregister() {
+            mTestCase.getContext().getContentResolver().unregisterContentObserver(this);
+            mThread.quit();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Syncs several locations against a stand-in server and counts the observers a sync wakes:
+    the forecast lists and day details of the other locations shouldn't hear of it, and a change
+    to a single day shouldn't wake the details of the other days.  The wake-ups go to logcat.
+ */
+public class TestFineGrainedNotifications extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestFineGrainedNotifications.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final String[] LOCATIONS = {"94043", "10001", "60601", "98101", "02108"};
+    // long enough for a notification posted on another thread to arrive
+    private static final long NOTIFICATION_WAIT_MILLIS = 500;
+
+    private final AtomicInteger mSeed = new AtomicInteger();
+    private FakeWeatherServer mServer;
+    private ForecastResponseCache mCache;
+    private ForecastSyncTask mTask;
+    private final List<TestDeltaUpsert.CountingObserver> mObservers = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-notification-responses"));
+        mCache.clear();
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                return FakeWeatherServer.Response.ok(ForecastPayloads.dailyForecast(
+                        request.queryParameter(SunshineSyncAdapter.QUERY_PARAM_DEFAULT),
+                        ForecastSyncTask.NUM_DAYS, mSeed.get()));
+            }
+        });
+        mServer.start();
+        mTask = new ForecastSyncTask(mContext, mServer.getUrl(FORECAST_PATH), new HttpWeatherTransport(), mCache);
+        for (String location : LOCATIONS) {
+            assertEquals(ForecastSyncTask.NUM_DAYS, mTask.sync(location).rowsWritten);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (TestDeltaUpsert.CountingObserver observer : mObservers) {
+            observer.unregister();
+        }
+        mServer.shutdown();
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testSyncWakesOnlyItsLocation() throws Exception {
+        TestDeltaUpsert.CountingObserver[] lists = registerLists();
+        List<Long> dates = storedDates(LOCATIONS[0]);
+        TestDeltaUpsert.CountingObserver firstDay = register(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATIONS[0], dates.get(0)));
+        TestDeltaUpsert.CountingObserver otherFirstDay = register(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATIONS[1], dates.get(0)));
+
+        mSeed.set(1);
+        assertEquals(ForecastSyncTask.NUM_DAYS, mTask.sync(LOCATIONS[0]).rowsWritten);
+        Thread.sleep(NOTIFICATION_WAIT_MILLIS);
+
+        Log.i(LOG_TAG, "wake-ups after syncing one of " + LOCATIONS.length + " locations: "
+                + countsOf(lists) + " forecast lists, " + firstDay.getCount() + " for a day of it, "
+                + otherFirstDay.getCount() + " for a day of another");
+        // every day changed, so the location is told once rather than once per day
+        assertEquals(1, lists[0].getCount());
+        assertEquals(1, firstDay.getCount());
+        for (int i = 1; i < lists.length; i++) {
+            assertEquals(0, lists[i].getCount());
+        }
+        assertEquals(0, otherFirstDay.getCount());
+    }
+
+    public void testChangedDayWakesOnlyItsDetail() throws Exception {
+        TestDeltaUpsert.CountingObserver[] lists = registerLists();
+        List<Long> dates = storedDates(LOCATIONS[0]);
+        TestDeltaUpsert.CountingObserver changedDay = register(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATIONS[0], dates.get(0)));
+        TestDeltaUpsert.CountingObserver otherDay = register(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATIONS[0], dates.get(1)));
+
+        Uri forecastUri = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATIONS[0]);
+        ContentValues day = storedDay(LOCATIONS[0], dates.get(0));
+        day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP) + 1);
+        assertEquals(1, mContext.getContentResolver().update(forecastUri, day, null, null));
+        Thread.sleep(NOTIFICATION_WAIT_MILLIS);
+
+        Log.i(LOG_TAG, "wake-ups after changing one day: " + countsOf(lists) + " forecast lists, "
+                + changedDay.getCount() + " for the day, " + otherDay.getCount() + " for another day");
+        assertEquals(1, lists[0].getCount());
+        assertEquals(1, changedDay.getCount());
+        assertEquals(0, otherDay.getCount());
+        for (int i = 1; i < lists.length; i++) {
+            assertEquals(0, lists[i].getCount());
+        }
+    }
+
+    // an observer on the forecast of every location, the way the forecast list registers
+    private TestDeltaUpsert.CountingObserver[] registerLists() {
+        TestDeltaUpsert.CountingObserver[] lists = new TestDeltaUpsert.CountingObserver[LOCATIONS.length];
+        for (int i = 0; i < LOCATIONS.length; i++) {
+            lists[i] = register(WeatherContract.WeatherEntry.buildWeatherLocation(LOCATIONS[i]));
+        }
+        return lists;
+    }
+
+    private TestDeltaUpsert.CountingObserver register(Uri uri) {
+        TestDeltaUpsert.CountingObserver observer = TestDeltaUpsert.CountingObserver.register(this, uri);
+        mObservers.add(observer);
+        return observer;
+    }
+
+    private static String countsOf(TestDeltaUpsert.CountingObserver[] observers) {
+        StringBuilder counts = new StringBuilder("[");
+        for (int i = 0; i < observers.length; i++) {
+            counts.append(i == 0 ? "" : ", ").append(observers[i].getCount());
+        }
+        return counts.append(']').toString();
+    }
+
+    private List<Long> storedDates(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        List<Long> dates = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                dates.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return dates;
+    }
+
+    // the stored day as a weather row without its location, for an update of the forecast
+    private ContentValues storedDay(String locationSetting, long date) {
+        String[] columns = {
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES
+        };
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date),
+                columns, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            ContentValues day = new ContentValues();
+            day.put(columns[0], cursor.getLong(0));
+            day.put(columns[1], cursor.getInt(1));
+            day.put(columns[2], cursor.getString(2));
+            for (int i = 3; i < columns.length; i++) {
+                day.put(columns[i], cursor.getDouble(i));
+            }
+            return day;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,133 @@
+package com.ant.sunshine.app.sync;
+
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.R;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Checks that the recently picked locations are kept most recent first, that a periodic sync
+    prefetches them within its budget, and that picking a prefetched location counts as a hit
+    while picking a new one counts as a miss.  The hit rate and the bytes the prefetch cost go
+    to logcat.
+ */
+public class TestForecastPrefetcher extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastPrefetcher.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        clearPreferences();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-prefetch-responses"));
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        clearPreferences();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testRecentLocationsMostRecentFirst() {
+        for (int i = 0; i < RecentLocations.MAX_SIZE + 2; i++) {
+            RecentLocations.add(mContext, "City " + i);
+        }
+        // picking one again moves it to the front instead of adding it twice
+        RecentLocations.add(mContext, "City 5");
+
+        List<String> recent = RecentLocations.get(mContext);
+        assertEquals(RecentLocations.MAX_SIZE, recent.size());
+        assertEquals("City 5", recent.get(0));
+        assertEquals("City 9", recent.get(1));
+        assertFalse(recent.contains("City 1"));
+    }
+
+    public void testSelectStaysWithinBudget() {
+        List<String> recent = Arrays.asList("Paris", "Home", "Oslo");
+        List<String> saved = Arrays.asList("Oslo", "Rome", "Lima");
+
+        assertEquals(Arrays.asList("Paris", "Oslo", "Rome", "Lima"),
+                ForecastPrefetcher.select("Home", recent, saved, 10, 100 * 1024, 1024));
+        // the location count runs out first
+        assertEquals(Arrays.asList("Paris", "Oslo"),
+                ForecastPrefetcher.select("Home", recent, saved, 2, 100 * 1024, 1024));
+        // then the bytes
+        assertEquals(Arrays.asList("Paris", "Oslo", "Rome"),
+                ForecastPrefetcher.select("Home", recent, saved, 10, 3 * 1024, 1024));
+        assertEquals(Collections.<String>emptyList(),
+                ForecastPrefetcher.select("Home", recent, saved, 10, 512, 1024));
+    }
+
+    public void testPrefetchedLocationIsHit() throws Exception {
+        String preferred = Utility.getPreferredLocation(mContext);
+        RecentLocations.add(mContext, "City 2");
+        RecentLocations.add(mContext, "City 1");
+        ForecastPrefetcher.setBudget(mContext, 1, ForecastPrefetcher.DEFAULT_MAX_BYTES);
+
+        List<String> locations = ForecastPrefetcher.getLocations(mContext);
+        assertEquals(Arrays.asList(preferred, "City 1"), locations);
+
+        SyncTelemetry telemetry = SyncTelemetry.getInstance(mContext);
+        long prefetchedBefore = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_LOCATIONS);
+        long bytesBefore = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_BYTES);
+        long hitsBefore = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_HITS);
+        long missesBefore = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_MISSES);
+
+        FakeWeatherServer server = FakeWeatherServer.forecasts();
+        server.start();
+        try {
+            Map<String, ForecastSyncTask.Result> results = new MultiLocationSyncEngine(new ForecastSyncTask(mContext,
+                    server.getUrl(FORECAST_PATH), new HttpWeatherTransport(), mCache), 1).syncAll(locations);
+            assertEquals(Utility.LOCATION_STATUS_OK, results.get("City 1").status);
+            ForecastPrefetcher.onSyncFinished(mContext, preferred, results);
+        } finally {
+            server.shutdown();
+        }
+
+        RecentLocations.onLocationPicked(mContext, "City 1");
+        RecentLocations.onLocationPicked(mContext, "City 2");
+        RecentLocations.awaitCountedPicks();
+        long prefetched = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_LOCATIONS) - prefetchedBefore;
+        long bytes = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_BYTES) - bytesBefore;
+        long hits = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_HITS) - hitsBefore;
+        long misses = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_MISSES) - missesBefore;
+        assertEquals(1, prefetched);
+        assertTrue(bytes > 0);
+        // City 2 was left out by the budget
+        assertEquals(1, hits);
+        assertEquals(1, misses);
+        assertEquals("City 2", RecentLocations.get(mContext).get(0));
+        Log.i(LOG_TAG, String.format("%d of %d picks served from the database, %d bytes prefetched",
+                hits, hits + misses, bytes));
+    }
+
+    private void clearPreferences() {
+        RecentLocations.clear(mContext);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_prefetch_max_locations_key))
+                .remove(mContext.getString(R.string.pref_prefetch_max_bytes_key))
+                .apply();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
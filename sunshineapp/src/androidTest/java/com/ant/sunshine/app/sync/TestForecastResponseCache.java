@@ -0,0 +1,120 @@
+package com.ant.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final String ETAG = "\"forecast-v1\"";
+
+    private FakeWeatherServer mServer;
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-forecast-responses"));
+        mCache.clear();
+
+        final String body = ForecastPayloads.dailyForecast("North Pole", ForecastSyncTask.NUM_DAYS);
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                if (ETAG.equals(request.header(ForecastResponseCache.HEADER_IF_NONE_MATCH))) {
+                    return FakeWeatherServer.Response.notModified();
+                }
+                return FakeWeatherServer.Response.ok(body).header(ForecastResponseCache.HEADER_ETAG, ETAG);
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testNotModifiedSkipsParseAndWrite() {
+        ForecastSyncTask task = new ForecastSyncTask(mContext, mServer.getUrl("/data/2.5/forecast/daily?"),
+                new HttpWeatherTransport(), mCache);
+
+        ForecastSyncTask.Result first = task.sync(TEST_LOCATION);
+        assertEquals(Utility.LOCATION_STATUS_OK, first.status);
+        assertFalse(first.notModified);
+        assertEquals(ForecastSyncTask.NUM_DAYS, first.rowsWritten);
+        assertEquals(1, mCache.getMissCount());
+        assertNull("First request must not be conditional",
+                mServer.getRequests().get(0).header(ForecastResponseCache.HEADER_IF_NONE_MATCH));
+
+        List<Long> idsBefore = weatherRowIds();
+        assertEquals(ForecastSyncTask.NUM_DAYS, idsBefore.size());
+
+        ForecastSyncTask.Result second = task.sync(TEST_LOCATION);
+        assertEquals(Utility.LOCATION_STATUS_OK, second.status);
+        assertTrue(second.notModified);
+        assertEquals(0, second.rowsWritten);
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(ETAG, mServer.getRequests().get(1).header(ForecastResponseCache.HEADER_IF_NONE_MATCH));
+
+        // ON CONFLICT REPLACE hands out new ids, so identical ids mean nothing was rewritten
+        assertEquals("Rows were rewritten on a 304", idsBefore, weatherRowIds());
+    }
+
+    public void testValidatorsIgnoredWithoutStoredRows() {
+        ForecastSyncTask task = new ForecastSyncTask(mContext, mServer.getUrl("/data/2.5/forecast/daily?"),
+                new HttpWeatherTransport(), mCache);
+        task.sync(TEST_LOCATION);
+
+        // the database was wiped behind the cache's back, a 304 would leave it empty
+        deleteAllRecords();
+        ForecastSyncTask.Result result = task.sync(TEST_LOCATION);
+
+        assertFalse(result.notModified);
+        assertEquals(ForecastSyncTask.NUM_DAYS, result.rowsWritten);
+        assertNull(mServer.getRequests().get(1).header(ForecastResponseCache.HEADER_IF_NONE_MATCH));
+    }
+
+    public void testKeyIgnoresAppId() {
+        Uri first = Uri.parse("http://example.com/daily?q=94043&APPID=one");
+        Uri second = Uri.parse("http://example.com/daily?q=94043&APPID=two");
+        assertEquals(ForecastResponseCache.keyFor(first), ForecastResponseCache.keyFor(second));
+        assertEquals("http://example.com/daily?q=94043", ForecastResponseCache.keyFor(first));
+
+        mCache.put(first, ETAG, null);
+        ForecastResponseCache.Entry entry = mCache.get(second);
+        assertNotNull(entry);
+        assertEquals(ETAG, entry.etag);
+        assertNull(entry.lastModified);
+    }
+
+    private List<Long> weatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID}, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        List<Long> ids = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
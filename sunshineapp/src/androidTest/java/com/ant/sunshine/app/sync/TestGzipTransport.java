@@ -0,0 +1,80 @@
+package com.ant.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+
+/*
+    Runs the sync against a stand-in server that can answer with either a gzip or an identity
+    body, checking that gzip is asked for, that both encodings are parsed to the same rows, and
+    that the compressed and uncompressed byte counters add up.
+ */
+public class TestGzipTransport extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestGzipTransport.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-gzip-responses"));
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testGzipBodyIsInflatedAndCounted() throws Exception {
+        ForecastSyncTask.Result result = syncAgainst(FakeWeatherServer.forecasts(true));
+
+        assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        assertEquals(ForecastSyncTask.NUM_DAYS, result.rowsWritten);
+        assertTrue("Nothing was counted", result.wireBytes > 0);
+        assertTrue("Compressed " + result.wireBytes + " not smaller than " + result.bodyBytes,
+                result.wireBytes < result.bodyBytes);
+    }
+
+    public void testIdentityBodyIsCountedOnce() throws Exception {
+        ForecastSyncTask.Result result = syncAgainst(FakeWeatherServer.forecasts(false));
+
+        assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        assertEquals(ForecastSyncTask.NUM_DAYS, result.rowsWritten);
+        assertTrue("Nothing was counted", result.bodyBytes > 0);
+        assertEquals(result.bodyBytes, result.wireBytes);
+    }
+
+    private ForecastSyncTask.Result syncAgainst(FakeWeatherServer server) throws Exception {
+        server.start();
+        try {
+            ForecastSyncTask task = new ForecastSyncTask(mContext, server.getUrl(FORECAST_PATH),
+                    new HttpWeatherTransport(), mCache);
+            ForecastSyncTask.Result result = task.sync("94043");
+
+            FakeWeatherServer.Request request = server.getRequests().get(0);
+            assertEquals(HttpWeatherTransport.ENCODING_GZIP,
+                    request.header(HttpWeatherTransport.HEADER_ACCEPT_ENCODING));
+            Log.i(LOG_TAG, String.format("%d bytes on the wire, %d bytes parsed",
+                    result.wireBytes, result.bodyBytes));
+            return result;
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,89 @@
+package com.ant.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+
+/*
+    Syncs the 3 hour forecast from a stand-in server: the slots are parsed straight into the
+    batch and stored under the location the daily sync added, and a location without a stored
+    daily forecast is refused instead of getting orphaned slots.
+ */
+public class TestHourlyForecastSync extends AndroidTestCase {
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final String HOURLY_PATH = "/data/2.5/forecast?";
+
+    private FakeWeatherServer mServer;
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-hourly-responses"));
+        mCache.clear();
+        mServer = FakeWeatherServer.forecasts();
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testHourlyForecastStored() {
+        assertEquals(Utility.LOCATION_STATUS_OK, new ForecastSyncTask(mContext, mServer.getUrl(FORECAST_PATH),
+                new HttpWeatherTransport(), mCache).sync("94043").status);
+
+        ForecastSyncTask.Result result = newTask().sync("94043");
+        assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        assertEquals(ForecastPayloads.HOURLY_SLOTS, result.rowsParsed);
+        assertEquals(ForecastPayloads.HOURLY_SLOTS, result.rowsWritten);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocation("94043"),
+                new String[]{WeatherContract.HourlyEntry.COLUMN_TIME, WeatherContract.HourlyEntry.COLUMN_TEMP,
+                        WeatherContract.HourlyEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        assertEquals(ForecastPayloads.HOURLY_SLOTS, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals((ForecastPayloads.HOURLY_START_SECONDS + i * ForecastPayloads.HOURLY_STEP_SECONDS) * 1000,
+                    cursor.getLong(0));
+            assertEquals(ForecastPayloads.hourlyTemperature(i, 0), cursor.getDouble(1), 0.01);
+            assertTrue(cursor.getInt(2) > 0);
+        }
+        cursor.close();
+
+        // the same slots again replace, rather than add to, the stored ones
+        assertEquals(ForecastPayloads.HOURLY_SLOTS, newTask().sync("94043").rowsWritten);
+        cursor = mContext.getContentResolver().query(WeatherContract.HourlyEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(ForecastPayloads.HOURLY_SLOTS, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testUnknownLocationRefused() {
+        ForecastSyncTask.Result result = newTask().sync("nowhere");
+        assertEquals(Utility.LOCATION_STATUS_INVALID, result.status);
+        assertEquals(0, result.rowsWritten);
+    }
+
+    private HourlyForecastSyncTask newTask() {
+        return new HourlyForecastSyncTask(mContext, mServer.getUrl(HOURLY_PATH), new HttpWeatherTransport(),
+                new SyncStages());
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
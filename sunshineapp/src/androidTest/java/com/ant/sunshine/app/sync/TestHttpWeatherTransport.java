@@ -0,0 +1,149 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestHttpWeatherTransport extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestHttpWeatherTransport.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final int LOAD_SYNCS = 200;
+
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-transport-responses"));
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testStalledServerTimesOut() throws Exception {
+        FakeWeatherServer server = new FakeWeatherServer(new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                try {
+                    Thread.sleep(10 * 1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        });
+        server.start();
+        try {
+            ForecastSyncTask task = new ForecastSyncTask(mContext, server.getUrl(FORECAST_PATH),
+                    new HttpWeatherTransport(1000, 500), mCache);
+
+            long start = System.currentTimeMillis();
+            ForecastSyncTask.Result result = task.sync("94043");
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, result.status);
+            assertTrue("Sync was pinned for " + elapsed + "ms", elapsed < 5000);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    // the parser closes the body it reads, so closing the response afterwards must be harmless
+    public void testCloseAfterParse() throws Exception {
+        FakeWeatherServer server = FakeWeatherServer.forecasts();
+        server.start();
+        try {
+            Uri uri = Uri.parse(server.getUrl(FORECAST_PATH)).buildUpon()
+                    .appendQueryParameter(SunshineSyncAdapter.QUERY_PARAM_DEFAULT, "94043")
+                    .build();
+            HttpWeatherTransport transport = new HttpWeatherTransport();
+            for (int i = 0; i < 2; i++) {
+                WeatherTransport.Response response = transport.get(uri, Collections.<String, String>emptyMap());
+                assertEquals(200, response.getCode());
+                final int[] days = new int[1];
+                new ForecastJsonParser().parse(response.getBody(), new ForecastJsonParser.Listener() {
+                    @Override
+                    public void onResponseCode(int code) {
+                    }
+
+                    @Override
+                    public void onCity(String cityName, double lat, double lon) {
+                    }
+
+                    @Override
+                    public void onDay(ForecastJsonParser.Day day) {
+                        days[0]++;
+                    }
+                });
+                response.close();
+                assertEquals(ForecastSyncTask.NUM_DAYS, days[0]);
+            }
+            // the drained body handed the socket back for the second request
+            assertEquals(1, server.getConnectionCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /*
+        Load test: sequential syncs through one transport against the synthetic forecast server.
+        Throughput and latency percentiles go to logcat; the assertion checks that keep-alive
+        connections are actually reused.
+     */
+    public void testSyncThroughputAndConnectionReuse() throws Exception {
+        FakeWeatherServer server = FakeWeatherServer.forecasts();
+        server.start();
+        try {
+            ForecastSyncTask task = new ForecastSyncTask(mContext, server.getUrl(FORECAST_PATH),
+                    new HttpWeatherTransport(), mCache);
+
+            long[] latencies = new long[LOAD_SYNCS];
+            long start = System.nanoTime();
+            for (int i = 0; i < LOAD_SYNCS; i++) {
+                long syncStart = System.nanoTime();
+                ForecastSyncTask.Result result = task.sync("City " + (i % 10));
+                latencies[i] = System.nanoTime() - syncStart;
+                assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            Log.i(LOG_TAG, String.format("%d syncs, %.1f syncs/s, p50 %d us, p95 %d us, p99 %d us, %d connections",
+                    LOAD_SYNCS, LOAD_SYNCS * 1e9 / elapsed,
+                    percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+                    server.getConnectionCount()));
+
+            assertEquals(LOAD_SYNCS, server.getRequestCount());
+            assertTrue("Connections were not reused: " + server.getConnectionCount(),
+                    server.getConnectionCount() < LOAD_SYNCS / 10);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static long percentile(long[] sortedNanos, int percentile) {
+        int index = Math.min(sortedNanos.length - 1, sortedNanos.length * percentile / 100);
+        return sortedNanos[index] / 1000;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,152 @@
+package com.ant.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class TestMultiLocationSyncEngine extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMultiLocationSyncEngine.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final String BROKEN_CITY = "Broken";
+    // roughly what a round trip to OpenWeatherMap costs on a good connection
+    private static final long SERVER_LATENCY_MILLIS = 20;
+
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-multi-location-responses"));
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testFailingLocationIsIsolated() throws Exception {
+        final FakeWeatherServer.Handler forecasts = FakeWeatherServer.forecastHandler(false);
+        FakeWeatherServer server = new FakeWeatherServer(new FakeWeatherServer.Handler() {
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                if (BROKEN_CITY.equals(request.queryParameter(SunshineSyncAdapter.QUERY_PARAM_DEFAULT))) {
+                    return FakeWeatherServer.Response.status(500);
+                }
+                return forecasts.handle(request);
+            }
+        });
+        server.start();
+        try {
+            List<String> locations = Arrays.asList("City 0", BROKEN_CITY, "City 1", "City 2");
+            Map<String, ForecastSyncTask.Result> results = newEngine(server, MultiLocationSyncEngine.DEFAULT_MAX_WORKERS)
+                    .syncAll(locations);
+
+            assertEquals(locations, new ArrayList<>(results.keySet()));
+            assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, results.get(BROKEN_CITY).status);
+            for (String location : Arrays.asList("City 0", "City 1", "City 2")) {
+                assertEquals(Utility.LOCATION_STATUS_OK, results.get(location).status);
+                assertEquals(ForecastSyncTask.NUM_DAYS, countWeatherRows(location));
+            }
+            assertEquals(0, countWeatherRows(BROKEN_CITY));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testSavedLocationsStartWithPreferredLocation() throws Exception {
+        FakeWeatherServer server = FakeWeatherServer.forecasts();
+        server.start();
+        try {
+            newEngine(server, 1).syncAll(Arrays.asList("City 0", "City 1"));
+        } finally {
+            server.shutdown();
+        }
+
+        List<String> saved = SavedLocations.get(mContext);
+        assertEquals(Utility.getPreferredLocation(mContext), saved.get(0));
+        assertTrue(saved.containsAll(Arrays.asList("City 0", "City 1")));
+        assertEquals(saved.size(), new HashSet<>(saved).size());
+    }
+
+    /*
+        Benchmark: 1, 10 and 100 locations against a local server that answers after a fixed
+        latency, once with a single worker and once with the default pool.  Wall-clock times go
+        to logcat; with 100 locations the pool has to beat the sequential pass.
+     */
+    public void testWallClockScaling() throws Exception {
+        FakeWeatherServer server = new FakeWeatherServer(FakeWeatherServer.withLatency(
+                FakeWeatherServer.forecastHandler(false), SERVER_LATENCY_MILLIS));
+        server.start();
+        try {
+            long sequential = 0;
+            long pooled = 0;
+            for (int count : new int[]{1, 10, 100}) {
+                List<String> locations = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    locations.add("City " + i);
+                }
+                sequential = timeSyncAll(server, 1, locations);
+                pooled = timeSyncAll(server, MultiLocationSyncEngine.DEFAULT_MAX_WORKERS, locations);
+                Log.i(LOG_TAG, String.format("%d locations: %d ms with 1 worker, %d ms with %d workers",
+                        count, sequential, pooled, MultiLocationSyncEngine.DEFAULT_MAX_WORKERS));
+            }
+            assertTrue("Pool took " + pooled + "ms, sequential " + sequential + "ms", pooled < sequential);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private long timeSyncAll(FakeWeatherServer server, int workers, List<String> locations) {
+        deleteAllRecords();
+        mCache.clear();
+        long start = System.nanoTime();
+        Map<String, ForecastSyncTask.Result> results = newEngine(server, workers).syncAll(locations);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        for (ForecastSyncTask.Result result : results.values()) {
+            assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        }
+        assertEquals(locations.size() * ForecastSyncTask.NUM_DAYS, countWeatherRows(null));
+        return elapsed;
+    }
+
+    private MultiLocationSyncEngine newEngine(FakeWeatherServer server, int workers) {
+        return new MultiLocationSyncEngine(new ForecastSyncTask(mContext, server.getUrl(FORECAST_PATH),
+                new HttpWeatherTransport(), mCache), workers);
+    }
+
+    private int countWeatherRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(locationSetting == null
+                        ? WeatherContract.WeatherEntry.CONTENT_URI
+                        : WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,174 @@
+package com.ant.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+import com.ant.sunshine.app.test.WeatherProvider;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+
+/*
+    Injects push message bundles the way MyGcmListenerService hands them over and checks that
+    valid forecast deltas land in the database without a fetch, that a burst of them is merged
+    into one write with one change notification per location, and that invalid ones, or ones
+    for locations that aren't stored, change nothing.
+ */
+public class TestPushedForecast extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestPushedForecast.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final long WINDOW_MILLIS = 200;
+    private static final long DAY_IN_SECONDS = 60 * 60 * 24;
+
+    private ForecastResponseCache mCache;
+    private PushedForecastApplier mApplier;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-push-responses"));
+        mCache.clear();
+        mApplier = new PushedForecastApplier(mContext, WINDOW_MILLIS);
+
+        // a push only updates what a sync stored before
+        FakeWeatherServer server = FakeWeatherServer.forecasts();
+        server.start();
+        try {
+            ForecastSyncTask task = new ForecastSyncTask(mContext, server.getUrl(FORECAST_PATH),
+                    new HttpWeatherTransport(), mCache);
+            assertEquals(Utility.LOCATION_STATUS_OK, task.sync("City 0").status);
+            assertEquals(Utility.LOCATION_STATUS_OK, task.sync("City 1").status);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testPushedDaysAreStored() throws Exception {
+        assertTrue(mApplier.offer(message(new JSONObject().put("City 0", days(day(2, 30), day(3, 31))))));
+        mApplier.awaitApplied();
+
+        assertEquals(30.0, storedHigh("City 0", 2));
+        assertEquals(31.0, storedHigh("City 0", 3));
+        // the days not pushed stay as they were
+        assertEquals(ForecastSyncTask.NUM_DAYS, countDays("City 0"));
+    }
+
+    public void testBurstIsCollapsed() throws Exception {
+        SyncTelemetry telemetry = SyncTelemetry.getInstance(mContext);
+        long appliedBefore = telemetry.getCount(SyncTelemetry.COUNTER_PUSHES_APPLIED);
+        long notificationsBefore = WeatherProvider.getNotificationCount();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mApplier.offer(message(new JSONObject()
+                    .put("City 0", days(day(1, 20 + i)))
+                    .put("City 1", days(day(4, 40 + i))))));
+        }
+        mApplier.awaitApplied();
+
+        assertEquals(1, telemetry.getCount(SyncTelemetry.COUNTER_PUSHES_APPLIED) - appliedBefore);
+        assertEquals(2, WeatherProvider.getNotificationCount() - notificationsBefore);
+        // the last push of a day wins
+        assertEquals(24.0, storedHigh("City 0", 1));
+        assertEquals(44.0, storedHigh("City 1", 4));
+    }
+
+    public void testInvalidMessagesAreRejected() throws Exception {
+        long notificationsBefore = WeatherProvider.getNotificationCount();
+        JSONObject missingValue = day(1, 20);
+        missingValue.remove(SunshineSyncAdapter.JSON_KEY_HUMIDITY);
+        JSONObject lowAboveHigh = day(1, 20).put(SunshineSyncAdapter.JSON_KEY_MIN, 25);
+
+        assertFalse(mApplier.offer(new Bundle()));
+        assertFalse(mApplier.offer(message("not json")));
+        assertFalse(mApplier.offer(message(new JSONObject().put("City 0", days(missingValue)))));
+        assertFalse(mApplier.offer(message(new JSONObject().put("City 0", days(lowAboveHigh)))));
+        assertFalse(mApplier.offer(message(new JSONObject().put("City 0", days(day(-3, 20))))));
+        assertFalse(mApplier.offer(message(new JSONObject().put("City 0", days(day(1, 20), day(40, 20))))));
+        mApplier.awaitApplied();
+
+        assertEquals(notificationsBefore, WeatherProvider.getNotificationCount());
+    }
+
+    public void testUnknownLocationIsSkipped() throws Exception {
+        assertTrue(mApplier.offer(message(new JSONObject()
+                .put("Atlantis", days(day(1, 20)))
+                .put("City 1", days(day(1, 21))))));
+        mApplier.awaitApplied();
+
+        assertEquals(0, countDays("Atlantis"));
+        assertEquals(21.0, storedHigh("City 1", 1));
+    }
+
+    private static Bundle message(Object forecast) {
+        Bundle data = new Bundle();
+        data.putString(PushedForecastApplier.EXTRA_FORECAST, forecast.toString());
+        return data;
+    }
+
+    private static JSONArray days(JSONObject... days) {
+        JSONArray array = new JSONArray();
+        for (JSONObject day : days) {
+            array.put(day);
+        }
+        return array;
+    }
+
+    private static JSONObject day(int dayFromToday, double high) throws JSONException {
+        return new JSONObject()
+                .put(SunshineSyncAdapter.JSON_KEY_DT, System.currentTimeMillis() / 1000 + dayFromToday * DAY_IN_SECONDS)
+                .put(SunshineSyncAdapter.JSON_KEY_ID, 800)
+                .put(SunshineSyncAdapter.JSON_KEY_MAIN, "Clear")
+                .put(SunshineSyncAdapter.JSON_KEY_MAX, high)
+                .put(SunshineSyncAdapter.JSON_KEY_MIN, high - 10)
+                .put(SunshineSyncAdapter.JSON_KEY_HUMIDITY, 50)
+                .put(SunshineSyncAdapter.JSON_KEY_PRESSURE, 1015)
+                .put(SunshineSyncAdapter.JSON_KEY_SPEED, 2.5)
+                .put(SunshineSyncAdapter.JSON_KEY_DEG, 90);
+    }
+
+    private double storedHigh(String locationSetting, int dayFromToday) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting,
+                        System.currentTimeMillis() + dayFromToday * DAY_IN_SECONDS * 1000),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countDays(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting), null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
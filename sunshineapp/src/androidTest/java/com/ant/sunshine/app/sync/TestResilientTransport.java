@@ -0,0 +1,219 @@
+package com.ant.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Syncs against a stand-in server that fails according to a script, checking that transient
+    failures are retried with growing, jittered delays, that a persistent outage opens the
+    circuit breaker so that no more requests are made, that the breaker lets a single trial
+    through once the open period is over, and that the open breaker shows in the location
+    status.  Time is simulated: nothing actually sleeps.
+ */
+public class TestResilientTransport extends AndroidTestCase {
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final String TEST_LOCATION = "94043";
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_DELAY_MILLIS = 1000;
+    private static final long MAX_DELAY_MILLIS = 30 * 1000;
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MILLIS = 5 * 60 * 1000;
+    private static final long MAX_OPEN_MILLIS = 60 * 60 * 1000;
+
+    private final AtomicLong mClock = new AtomicLong(1000000);
+    private final List<Long> mSleeps = Collections.synchronizedList(new ArrayList<Long>());
+    private ForecastResponseCache mCache;
+    private CircuitBreaker mBreaker;
+    private FakeWeatherServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-resilient-responses"));
+        mCache.clear();
+        mBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, MAX_OPEN_MILLIS, new CircuitBreaker.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return mClock.get();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        SunshineSyncAdapter.setLocationStatus(mContext, Utility.LOCATION_STATUS_UNKNOWN, 0);
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testServerErrorsAreRetriedWithBackoff() throws Exception {
+        ForecastSyncTask task = startServer(FakeWeatherServer.withFaults(
+                FakeWeatherServer.forecastHandler(false), 503, 500, 200));
+
+        ForecastSyncTask.Result result = task.sync(TEST_LOCATION);
+
+        assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        assertEquals(ForecastSyncTask.NUM_DAYS, result.rowsWritten);
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(2, mSleeps.size());
+        for (int retry = 1; retry <= mSleeps.size(); retry++) {
+            long delay = mSleeps.get(retry - 1);
+            assertTrue("Retry " + retry + " waited " + delay + "ms",
+                    delay >= 0 && delay <= BASE_DELAY_MILLIS << (retry - 1));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+    }
+
+    public void testDroppedConnectionIsRetried() throws Exception {
+        ForecastSyncTask task = startServer(FakeWeatherServer.withFaults(
+                FakeWeatherServer.forecastHandler(false), FakeWeatherServer.DROP, 200));
+
+        ForecastSyncTask.Result result = task.sync(TEST_LOCATION);
+
+        assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        assertTrue(mServer.getRequestCount() >= 2);
+    }
+
+    public void testClientErrorIsNotRetried() throws Exception {
+        ForecastSyncTask task = startServer(FakeWeatherServer.withFaults(
+                FakeWeatherServer.forecastHandler(false), 404));
+
+        ForecastSyncTask.Result result = task.sync(TEST_LOCATION);
+
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue(mSleeps.isEmpty());
+        assertFalse(Utility.LOCATION_STATUS_OK == result.status);
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+    }
+
+    public void testRetryAfterIsHonoured() throws Exception {
+        final FakeWeatherServer.Handler healthy = FakeWeatherServer.forecastHandler(false);
+        ForecastSyncTask task = startServer(new FakeWeatherServer.Handler() {
+            private boolean mLimited;
+
+            @Override
+            public FakeWeatherServer.Response handle(FakeWeatherServer.Request request) throws IOException {
+                if (!mLimited) {
+                    mLimited = true;
+                    return FakeWeatherServer.Response.status(RetryPolicy.HTTP_TOO_MANY_REQUESTS)
+                            .header("Retry-After", "7");
+                }
+                return healthy.handle(request);
+            }
+        });
+
+        assertEquals(Utility.LOCATION_STATUS_OK, task.sync(TEST_LOCATION).status);
+        assertEquals(Collections.singletonList(7000L), mSleeps);
+    }
+
+    public void testOutageOpensBreaker() throws Exception {
+        ForecastSyncTask task = startServer(FakeWeatherServer.withFaults(
+                FakeWeatherServer.forecastHandler(false), 503));
+
+        // every attempt counts, so the breaker opens during the second sync, whose last
+        // attempt is refused
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, task.sync(TEST_LOCATION).status);
+        assertEquals(MAX_ATTEMPTS, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, task.sync(TEST_LOCATION).status);
+        assertEquals(FAILURE_THRESHOLD, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertEquals(mClock.get() + OPEN_MILLIS, mBreaker.getRetryAt());
+
+        // manual refreshes while it is open don't reach the server
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, task.sync(TEST_LOCATION).status);
+        }
+        assertEquals(FAILURE_THRESHOLD, mServer.getRequestCount());
+        assertEquals(11, mBreaker.getRejectedCount());
+    }
+
+    public void testTrialAfterOpenPeriod() throws Exception {
+        // five failures open the breaker, the first trial fails as well, the second succeeds
+        ForecastSyncTask task = startServer(FakeWeatherServer.withFaults(
+                FakeWeatherServer.forecastHandler(false), 503, 503, 503, 503, 503, 503, 200));
+        task.sync(TEST_LOCATION);
+        task.sync(TEST_LOCATION);
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+
+        mClock.addAndGet(OPEN_MILLIS);
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, task.sync(TEST_LOCATION).status);
+        // a failed trial isn't retried, and doubles the wait
+        assertEquals(FAILURE_THRESHOLD + 1, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertEquals(mClock.get() + 2 * OPEN_MILLIS, mBreaker.getRetryAt());
+
+        mClock.addAndGet(2 * OPEN_MILLIS);
+        assertEquals(Utility.LOCATION_STATUS_OK, task.sync(TEST_LOCATION).status);
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertEquals(0, mBreaker.getRetryAt());
+    }
+
+    public void testOpenPeriodIsCapped() {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MILLIS, MAX_OPEN_MILLIS, new CircuitBreaker.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return mClock.get();
+            }
+        });
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        for (int i = 0; i < 10; i++) {
+            mClock.set(breaker.getRetryAt());
+            assertTrue(breaker.allowRequest());
+            // only one trial at a time
+            assertFalse(breaker.allowRequest());
+            breaker.onFailure();
+            assertTrue(breaker.getRetryAt() - mClock.get() <= MAX_OPEN_MILLIS);
+        }
+        assertEquals(MAX_OPEN_MILLIS, breaker.getRetryAt() - mClock.get());
+    }
+
+    public void testOpenBreakerShowsInLocationStatus() {
+        long now = System.currentTimeMillis();
+        SunshineSyncAdapter.setLocationStatus(mContext, Utility.LOCATION_STATUS_SERVER_DOWN, now + OPEN_MILLIS);
+        assertEquals(Utility.LOCATION_STATUS_SERVER_UNAVAILABLE, Utility.getLocationStatus(mContext));
+
+        // once the retry time has passed, the last real outcome shows again
+        SunshineSyncAdapter.setLocationStatus(mContext, Utility.LOCATION_STATUS_SERVER_DOWN, now - 1);
+        assertEquals(Utility.LOCATION_STATUS_SERVER_DOWN, Utility.getLocationStatus(mContext));
+        SunshineSyncAdapter.setLocationStatus(mContext, Utility.LOCATION_STATUS_OK, 0);
+        assertEquals(Utility.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+    }
+
+    private ForecastSyncTask startServer(FakeWeatherServer.Handler handler) throws IOException {
+        mServer = new FakeWeatherServer(handler);
+        mServer.start();
+        ResilientWeatherTransport transport = new ResilientWeatherTransport(new HttpWeatherTransport(),
+                new RetryPolicy(MAX_ATTEMPTS, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS, new Random(42)),
+                mBreaker, new ResilientWeatherTransport.Sleeper() {
+            @Override
+            public void sleep(long millis) {
+                mSleeps.add(millis);
+            }
+        });
+        return new ForecastSyncTask(mContext, mServer.getUrl(FORECAST_PATH), transport, mCache);
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,205 @@
+package com.ant.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Drives the sync coordinator the way a user flicking through places would, with a dispatcher
+    that runs the real sync task against a stand-in server, checking that a burst of location
+    changes ends in one fetch of the last location and that a sync still running for an older
+    location is cancelled and marked as superseded.
+ */
+public class TestSyncCoordinator extends AndroidTestCase {
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final long WINDOW_MILLIS = 300;
+    private static final long MAX_DELAY_MILLIS = 3000;
+    private static final long WAIT_MILLIS = 10000;
+
+    private ForecastResponseCache mCache;
+    private FakeWeatherServer mServer;
+    private ExecutorService mSyncThread;
+    private SyncingDispatcher mDispatcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-coordinator-responses"));
+        mCache.clear();
+        mSyncThread = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSyncThread.shutdownNow();
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testBurstOfLocationChangesFetchesLastLocation() throws Exception {
+        SyncCoordinator coordinator = startCoordinator(FakeWeatherServer.forecastHandler(false), 1);
+
+        // 20 location changes in a second
+        for (int i = 1; i <= 20; i++) {
+            coordinator.requestSync("City " + i);
+            Thread.sleep(50);
+        }
+
+        assertTrue("No sync was started", mDispatcher.await());
+        // anything else would have been dispatched by now
+        Thread.sleep(2 * WINDOW_MILLIS);
+        assertEquals(Collections.singletonList("City 20"), mDispatcher.getDispatched());
+        List<FakeWeatherServer.Request> requests = mServer.getRequests();
+        assertEquals(1, requests.size());
+        assertEquals("City 20", requests.get(0).queryParameter(SunshineSyncAdapter.QUERY_PARAM_DEFAULT));
+        assertEquals(Utility.LOCATION_STATUS_OK, mDispatcher.getLastResult().status);
+
+        assertEquals(20, coordinator.getRequestCount());
+        assertEquals(19, coordinator.getCoalescedCount());
+        assertEquals(0, coordinator.getCancelledCount());
+    }
+
+    public void testLocationChangeCancelsRunningSync() throws Exception {
+        SyncCoordinator coordinator = startCoordinator(
+                FakeWeatherServer.withLatency(FakeWeatherServer.forecastHandler(false), 2000), 2);
+
+        coordinator.requestSync("Old City");
+        mDispatcher.awaitStarted();
+        long oldGeneration = mDispatcher.getGenerations().get(0);
+        coordinator.requestSync("New City");
+        // the old sync is still waiting for its answer, but shouldn't show it any more
+        assertTrue(coordinator.isSuperseded(oldGeneration));
+
+        assertTrue("The new location wasn't synced", mDispatcher.await());
+        assertEquals(1, mDispatcher.getCancelCount());
+        assertEquals(1, coordinator.getCancelledCount());
+        assertEquals("New City", mDispatcher.getDispatched().get(1));
+        assertFalse(coordinator.isSuperseded(mDispatcher.getGenerations().get(1)));
+    }
+
+    public void testRequestForRunningLocationIsMerged() throws Exception {
+        SyncCoordinator coordinator = startCoordinator(
+                FakeWeatherServer.withLatency(FakeWeatherServer.forecastHandler(false), 1000), 1);
+
+        coordinator.requestSync("Same City");
+        mDispatcher.awaitStarted();
+        coordinator.requestSync("Same City");
+        assertTrue(mDispatcher.await());
+        Thread.sleep(2 * WINDOW_MILLIS);
+
+        assertEquals(1, mDispatcher.getDispatched().size());
+        assertEquals(1, coordinator.getCoalescedCount());
+        assertEquals(0, mDispatcher.getCancelCount());
+    }
+
+    private SyncCoordinator startCoordinator(FakeWeatherServer.Handler handler, int expectedSyncs)
+            throws Exception {
+        mServer = new FakeWeatherServer(handler);
+        mServer.start();
+        ForecastSyncTask task = new ForecastSyncTask(mContext, mServer.getUrl(FORECAST_PATH),
+                new HttpWeatherTransport(), mCache);
+        SyncCoordinator[] coordinator = new SyncCoordinator[1];
+        mDispatcher = new SyncingDispatcher(task, coordinator, expectedSyncs);
+        coordinator[0] = new SyncCoordinator(mDispatcher, WINDOW_MILLIS, MAX_DELAY_MILLIS);
+        return coordinator[0];
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Runs every dispatched sync on the test's sync thread, as the sync manager would, and
+     * cancels the running one by interrupting it.
+     */
+    private final class SyncingDispatcher implements SyncCoordinator.Dispatcher {
+        private final ForecastSyncTask mTask;
+        private final SyncCoordinator[] mCoordinator;
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+        private final CountDownLatch mFinished;
+        private final List<String> mDispatched = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Long> mGenerations = Collections.synchronizedList(new ArrayList<Long>());
+        private volatile Future<?> mRunning;
+        private volatile ForecastSyncTask.Result mLastResult;
+        private volatile int mCancelCount;
+
+        SyncingDispatcher(ForecastSyncTask task, SyncCoordinator[] coordinator, int expectedSyncs) {
+            mTask = task;
+            mCoordinator = coordinator;
+            mFinished = new CountDownLatch(expectedSyncs);
+        }
+
+        @Override
+        public void dispatch(final String locationSetting, final long generation) {
+            mDispatched.add(locationSetting);
+            mGenerations.add(generation);
+            mRunning = mSyncThread.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mStarted.countDown();
+                    try {
+                        mLastResult = mTask.sync(locationSetting);
+                    } finally {
+                        mCoordinator[0].onSyncFinished(generation);
+                        mFinished.countDown();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void cancel(long generation) {
+            mCancelCount++;
+            Future<?> running = mRunning;
+            if (running != null) {
+                running.cancel(true);
+            }
+        }
+
+        boolean await() throws InterruptedException {
+            return mFinished.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue("No sync was started", mStarted.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        List<String> getDispatched() {
+            synchronized (mDispatched) {
+                return new ArrayList<>(mDispatched);
+            }
+        }
+
+        List<Long> getGenerations() {
+            synchronized (mGenerations) {
+                return new ArrayList<>(mGenerations);
+            }
+        }
+
+        ForecastSyncTask.Result getLastResult() {
+            return mLastResult;
+        }
+
+        int getCancelCount() {
+            return mCancelCount;
+        }
+    }
+}
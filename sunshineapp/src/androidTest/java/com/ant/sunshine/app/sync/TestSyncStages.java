@@ -0,0 +1,171 @@
+package com.ant.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs syncs through the staged pipeline against a stand-in server with some latency,
+    checking that every stage reports its time, that the workers' writes all make it through
+    the single persist thread, that an interrupted sync waits for a write already under way,
+    and that a slow fan-out neither holds up the sync nor piles up behind itself.
+ */
+public class TestSyncStages extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncStages.class.getSimpleName();
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+    private static final long LATENCY_MILLIS = 50;
+    private static final long WAIT_MILLIS = 5000;
+
+    private ForecastResponseCache mCache;
+    private FakeWeatherServer mServer;
+    private SyncStages mStages;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mCache = new ForecastResponseCache(new File(mContext.getCacheDir(), "test-stages-responses"));
+        mCache.clear();
+        mServer = new FakeWeatherServer(FakeWeatherServer.withLatency(
+                FakeWeatherServer.forecastHandler(false), LATENCY_MILLIS));
+        mServer.start();
+        mStages = new SyncStages();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testStagesAreTimed() {
+        ForecastSyncTask.Result result = newTask().sync("94043");
+
+        assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        assertTrue("Fetch took " + result.fetchMillis + "ms", result.fetchMillis >= LATENCY_MILLIS);
+        assertTrue(result.parseMillis >= 0);
+        assertTrue(result.persistQueueMillis >= 0);
+        assertTrue(result.persistMillis >= 0);
+        Log.i(LOG_TAG, String.format("fetch %dms, parse %dms, persist %dms after waiting %dms",
+                result.fetchMillis, result.parseMillis, result.persistMillis, result.persistQueueMillis));
+    }
+
+    public void testWorkersShareThePersistThread() {
+        List<String> locations = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            locations.add("City " + i);
+        }
+
+        Map<String, ForecastSyncTask.Result> results = new MultiLocationSyncEngine(newTask(),
+                MultiLocationSyncEngine.DEFAULT_MAX_WORKERS).syncAll(locations);
+
+        long persistQueueMillis = 0;
+        for (String location : locations) {
+            ForecastSyncTask.Result result = results.get(location);
+            assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+            assertEquals(ForecastSyncTask.NUM_DAYS, result.rowsWritten);
+            persistQueueMillis += result.persistQueueMillis;
+        }
+        Log.i(LOG_TAG, locations.size() + " locations waited " + persistQueueMillis + "ms for the persist thread");
+    }
+
+    public void testInterruptWaitsForStartedWrite() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ForecastSyncTask.Result result = new ForecastSyncTask.Result();
+        final boolean[] interruptedAfter = new boolean[1];
+        Thread sync = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mStages.persist(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            started.countDown();
+                            release.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                            result.status = Utility.LOCATION_STATUS_OK;
+                            return null;
+                        }
+                    }, result);
+                } catch (JSONException e) {
+                    throw new RuntimeException(e);
+                }
+                interruptedAfter[0] = Thread.currentThread().isInterrupted();
+            }
+        });
+        sync.start();
+        assertTrue(started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        sync.interrupt();
+        sync.join(LATENCY_MILLIS);
+        assertTrue("Returned while the write was still running", sync.isAlive());
+
+        release.countDown();
+        sync.join(WAIT_MILLIS);
+        assertFalse(sync.isAlive());
+        assertEquals(Utility.LOCATION_STATUS_OK, result.status);
+        assertTrue(interruptedAfter[0]);
+    }
+
+    public void testSlowFanOutDoesNotBlock() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger fanOuts = new AtomicInteger();
+
+        mStages.fanOut(new Runnable() {
+            @Override
+            public void run() {
+                fanOuts.incrementAndGet();
+                try {
+                    // like waiting for the notification icon
+                    release.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        // the syncs go on while the first fan-out is stuck
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Utility.LOCATION_STATUS_OK, newTask().sync("94043").status);
+            mStages.fanOut(new Runnable() {
+                @Override
+                public void run() {
+                    fanOuts.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        release.countDown();
+        assertTrue("The last fan-out never ran", done.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        // the stuck one and the latest one ran, the two in between were replaced
+        assertEquals(2, fanOuts.get());
+        assertEquals(2, mStages.getFanOutsDropped());
+    }
+
+    private ForecastSyncTask newTask() {
+        return new ForecastSyncTask(mContext, mServer.getUrl(FORECAST_PATH), new HttpWeatherTransport(),
+                mCache, mStages);
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,130 @@
+package com.ant.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.core.Utility;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+    Checks the percentiles of the rolling stage histograms, that the oldest timings leave the
+    window first, that histograms and counters survive a save and load into a fresh instance
+    (as after a restart), and that the dump prints every stage.
+ */
+public class TestSyncTelemetry extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncTelemetry.class.getSimpleName();
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test-sync-telemetry");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testPercentiles() {
+        SyncTelemetry telemetry = new SyncTelemetry(mFile);
+        for (int millis = 100; millis >= 1; millis--) {
+            telemetry.recordTime(SyncTelemetry.STAGE_FETCH, millis);
+        }
+        SyncTelemetry.Histogram histogram = telemetry.getHistogram(SyncTelemetry.STAGE_FETCH);
+        assertEquals(50, histogram.percentile(0.50));
+        assertEquals(95, histogram.percentile(0.95));
+        assertEquals(99, histogram.percentile(0.99));
+        assertEquals(100, histogram.percentile(1.0));
+        assertEquals(0, telemetry.getHistogram(SyncTelemetry.STAGE_PARSE).percentile(0.5));
+    }
+
+    public void testWindowDropsOldestTimings() {
+        SyncTelemetry telemetry = new SyncTelemetry(mFile);
+        // a slow start, then a full window of fast syncs
+        for (int i = 0; i < SyncTelemetry.WINDOW; i++) {
+            telemetry.recordTime(SyncTelemetry.STAGE_SYNC, 10000);
+        }
+        for (int i = 0; i < SyncTelemetry.WINDOW; i++) {
+            telemetry.recordTime(SyncTelemetry.STAGE_SYNC, 10);
+        }
+        SyncTelemetry.Histogram histogram = telemetry.getHistogram(SyncTelemetry.STAGE_SYNC);
+        assertEquals(SyncTelemetry.WINDOW, histogram.size());
+        assertEquals(10, histogram.percentile(1.0));
+    }
+
+    public void testSurvivesRestart() {
+        SyncTelemetry telemetry = new SyncTelemetry(mFile);
+        for (int i = 0; i < SyncTelemetry.WINDOW + 10; i++) {
+            telemetry.recordTime(SyncTelemetry.STAGE_BULK_INSERT, i);
+        }
+        ForecastSyncTask.Result result = new ForecastSyncTask.Result();
+        result.status = Utility.LOCATION_STATUS_OK;
+        result.wireBytes = 1200;
+        result.bodyBytes = 5400;
+        result.rowsParsed = ForecastSyncTask.NUM_DAYS;
+        result.rowsWritten = 3;
+        telemetry.record(result);
+        telemetry.save();
+
+        SyncTelemetry restarted = new SyncTelemetry(mFile);
+        restarted.load();
+        assertEquals(1200, restarted.getCount(SyncTelemetry.COUNTER_WIRE_BYTES));
+        assertEquals(5400, restarted.getCount(SyncTelemetry.COUNTER_BODY_BYTES));
+        assertEquals(ForecastSyncTask.NUM_DAYS, restarted.getCount(SyncTelemetry.COUNTER_ROWS_PARSED));
+        assertEquals(3, restarted.getCount(SyncTelemetry.COUNTER_ROWS_WRITTEN));
+        SyncTelemetry.Histogram before = telemetry.getHistogram(SyncTelemetry.STAGE_BULK_INSERT);
+        SyncTelemetry.Histogram after = restarted.getHistogram(SyncTelemetry.STAGE_BULK_INSERT);
+        // the bulk insert of the recorded result went in last
+        assertEquals(before.size(), after.size());
+        for (double fraction : new double[]{0.01, 0.5, 0.95, 0.99, 1.0}) {
+            assertEquals(before.percentile(fraction), after.percentile(fraction));
+        }
+
+        // and recording carries on where it left off
+        restarted.recordTime(SyncTelemetry.STAGE_BULK_INSERT, 100000);
+        assertEquals(100000, restarted.getHistogram(SyncTelemetry.STAGE_BULK_INSERT).percentile(1.0));
+    }
+
+    public void testMissingOrBrokenFileStartsEmpty() throws Exception {
+        SyncTelemetry telemetry = new SyncTelemetry(mFile);
+        telemetry.load();
+        assertEquals(0, telemetry.getCount(SyncTelemetry.COUNTER_SYNCS));
+
+        PrintWriter garbage = new PrintWriter(mFile);
+        garbage.print("not telemetry");
+        garbage.close();
+        telemetry.load();
+        assertEquals(0, telemetry.getCount(SyncTelemetry.COUNTER_SYNCS));
+    }
+
+    public void testDumpPrintsEveryStage() {
+        SyncTelemetry telemetry = new SyncTelemetry(mFile);
+        telemetry.recordTime(SyncTelemetry.STAGE_FETCH, 120);
+        telemetry.increment(SyncTelemetry.COUNTER_SYNCS, 1);
+
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        telemetry.dump(writer);
+        writer.flush();
+        String dump = out.toString();
+        Log.i(LOG_TAG, dump);
+
+        assertTrue(dump.contains("p50"));
+        assertTrue(dump.contains("p95"));
+        assertTrue(dump.contains("p99"));
+        for (String stage : SyncTelemetry.STAGES) {
+            assertTrue("No line for " + stage, dump.contains(stage));
+        }
+        for (String counter : SyncTelemetry.COUNTERS) {
+            assertTrue("No line for " + counter, dump.contains(counter));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.ant.sunshine.app.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Writes 14, 1,000 and 100,000 weather rows the way bulkInsert used to, one ContentValues per
+    row through SQLiteDatabase.insert with its date normalized in place, and through the compiled
+    statement the provider binds from a ForecastBatch, each in one transaction.  Rows per second
+    go to logcat; the assertions only check that both paths stored every row.  Also checks that a
+    forecast handed to the provider through METHOD_REPLACE_FORECAST comes back out of a query.
+ */
+public class BulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = BulkInsertBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "bulk-insert-benchmark.db";
+    private static final int[] SIZES = {14, 1000, 100000};
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private WeatherDbHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new WeatherDbHelper(mContext, DATABASE_NAME, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testInsertRate() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long locationId = insertLocation(db, "94043");
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int rows : SIZES) {
+            ContentValues[] values = new ContentValues[rows];
+            ForecastBatch batch = new ForecastBatch(rows);
+            for (int i = 0; i < rows; i++) {
+                long date = today + i * DAY_IN_MILLIS;
+                values[i] = TestUtilities.createWeatherValues(locationId);
+                values[i].put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+                batch.add(date, 321, "Asteroids", 65, 75, 1.2, 1.3, 5.5, 1.1);
+            }
+
+            clearWeather(db);
+            long contentValuesStart = System.nanoTime();
+            assertEquals(rows, insertContentValues(db, values));
+            long contentValuesNanos = System.nanoTime() - contentValuesStart;
+            assertEquals(rows, DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+
+            clearWeather(db);
+            long compiledStart = System.nanoTime();
+            assertEquals(rows, WeatherProvider.insertForecast(db, locationId, batch));
+            long compiledNanos = System.nanoTime() - compiledStart;
+            assertEquals(rows, DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+
+            Log.i(LOG_TAG, String.format("%d rows: ContentValues %d rows/s, compiled statement %d rows/s",
+                    rows, rowsPerSecond(rows, contentValuesNanos), rowsPerSecond(rows, compiledNanos)));
+        }
+    }
+
+    public void testReplaceForecastThroughProvider() {
+        String locationSetting = TestUtilities.TEST_LOCATION;
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ForecastBatch batch = new ForecastBatch();
+        for (int i = 0; i < 14; i++) {
+            batch.add(today + i * DAY_IN_MILLIS, 321, "Asteroids", 65, 75 + i, 1.2, 1.3, 5.5, 1.1);
+        }
+        Bundle result = mContext.getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST, locationSetting, batch.toBundle());
+        assertNotNull(result);
+        assertEquals(14, result.getInt(WeatherContract.WeatherEntry.RESULT_ROWS_WRITTEN));
+
+        // the same forecast again changes nothing
+        result = mContext.getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST, locationSetting, batch.toBundle());
+        assertEquals(0, result.getInt(WeatherContract.WeatherEntry.RESULT_ROWS_WRITTEN));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting), null, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(14, cursor.getCount());
+            cursor.moveToLast();
+            assertEquals(88.0, cursor.getDouble(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)));
+        } finally {
+            cursor.close();
+        }
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // bulkInsert as it was: the date normalized into each row, then SQLiteDatabase.insert
+    private static int insertContentValues(SQLiteDatabase db, ContentValues[] values) {
+        int rowsInserted = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)));
+                if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    private static long insertLocation(SQLiteDatabase db, String locationSetting) {
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 37.3861);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -122.0839);
+        return db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+    }
+
+    private static void clearWeather(SQLiteDatabase db) {
+        db.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return rows * 1000000000L / Math.max(1, nanos);
+    }
+}
@@ -0,0 +1,193 @@
+package com.ant.sunshine.app.test;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/*
+    Checks that a batch applied to the provider commits in one transaction and tells each
+    changed uri once, after the commit: a location's update the way a sync used to write it,
+    a location insert, a bulkInsert and a delete, against the same update as one batch.  The
+    notification counts go to logcat.  Also checks that a failing batch leaves nothing behind
+    and tells nobody, and that the sync's METHOD_REPLACE_FORECAST with a new location tells
+    as few uris as the batch.
+ */
+public class TestApplyBatch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestApplyBatch.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testOneNotificationPerLocation() throws Exception {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Uri forecastUri = WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+        // as the sync wrote a location before: each call its own transaction and notification
+        long before = WeatherProvider.getNotificationCount();
+        Uri locationUri = mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationId = Long.parseLong(locationUri.getLastPathSegment());
+        // and a day gone by, for the delete to drop
+        ContentValues[] days = new ContentValues[DAYS + 1];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationId);
+            days[i].put(WeatherContract.WeatherEntry.COLUMN_DATE, today + (i - 1) * DAY_IN_MILLIS);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, days);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(today)});
+        long separate = WeatherProvider.getNotificationCount() - before;
+
+        deleteAllRecords();
+        before = WeatherProvider.getNotificationCount();
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, locationBatch(forecastUri, today, 75));
+        long batched = WeatherProvider.getNotificationCount() - before;
+        assertEquals(DAYS, countForecast(forecastUri));
+        assertEquals(1, (int) results[1].count);
+
+        // an update of a stored location only tells its forecast
+        before = WeatherProvider.getNotificationCount();
+        ArrayList<ContentProviderOperation> operations = locationBatch(forecastUri, today, 80);
+        operations.remove(0);
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        long updated = WeatherProvider.getNotificationCount() - before;
+
+        Log.i(LOG_TAG, String.format("notifications per location: %d as separate calls, %d as a batch"
+                + " with the location insert, %d as a batch without", separate, batched, updated));
+        assertEquals(3, separate);
+        assertEquals(2, batched);
+        assertEquals(1, updated);
+    }
+
+    public void testIdenticalBatchTellsNobody() throws Exception {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Uri forecastUri = WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                locationBatch(forecastUri, today, 75));
+
+        long before = WeatherProvider.getNotificationCount();
+        ArrayList<ContentProviderOperation> operations = locationBatch(forecastUri, today, 75);
+        operations.remove(0);
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        for (ContentProviderResult result : results) {
+            assertEquals(0, (int) result.count);
+        }
+        assertEquals(before, WeatherProvider.getNotificationCount());
+    }
+
+    public void testFailedBatchRollsBack() throws Exception {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Uri forecastUri = WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        ArrayList<ContentProviderOperation> operations = locationBatch(forecastUri, today, 75);
+        // a day of a location nobody stored
+        operations.add(ContentProviderOperation.newUpdate(WeatherContract.WeatherEntry.buildWeatherLocation("nowhere"))
+                .withValues(TestUtilities.createWeatherValues(1))
+                .build());
+
+        long before = WeatherProvider.getNotificationCount();
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("A day of an unknown location was written");
+        } catch (IllegalArgumentException expected) {
+            // the batch rolled back
+        }
+        assertEquals(before, WeatherProvider.getNotificationCount());
+        assertEquals(0, countForecast(forecastUri));
+        assertEquals(-1, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testReplaceForecastWithNewLocation() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Uri forecastUri = WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        ForecastBatch batch = new ForecastBatch();
+        for (int i = 0; i < DAYS; i++) {
+            batch.add(today + i * DAY_IN_MILLIS, 321, "Asteroids", 65, 75, 1.2, 1.3, 5.5, 1.1);
+        }
+        Bundle extras = batch.toBundle();
+        extras.putParcelable(WeatherContract.WeatherEntry.EXTRA_LOCATION, TestUtilities.createNorthPoleLocationValues());
+
+        long before = WeatherProvider.getNotificationCount();
+        Bundle result = mContext.getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION, extras);
+        assertNotNull(result);
+        assertEquals(DAYS, result.getInt(WeatherContract.WeatherEntry.RESULT_ROWS_WRITTEN));
+        // the location and its forecast
+        assertEquals(2, WeatherProvider.getNotificationCount() - before);
+        assertEquals(DAYS, countForecast(forecastUri));
+
+        // stored now, so the location row is left alone, and nothing changed
+        before = WeatherProvider.getNotificationCount();
+        result = mContext.getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION, extras);
+        assertEquals(0, result.getInt(WeatherContract.WeatherEntry.RESULT_ROWS_WRITTEN));
+        assertEquals(before, WeatherProvider.getNotificationCount());
+    }
+
+    public void testDescendantsAreToldThroughTheirAncestor() {
+        Uri forecast = WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri day = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                System.currentTimeMillis());
+        Set<Uri> changed = new LinkedHashSet<>(Arrays.asList(day, WeatherContract.LocationEntry.CONTENT_URI, forecast));
+        assertEquals(Arrays.asList(WeatherContract.LocationEntry.CONTENT_URI, forecast),
+                WeatherProvider.withoutDescendants(changed));
+    }
+
+    // the North Pole location, its days with the given high and dropping the days before today
+    private static ArrayList<ContentProviderOperation> locationBatch(Uri forecastUri, long today, double high) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues day = TestUtilities.createWeatherValues(0);
+            day.remove(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            day.put(WeatherContract.WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+            day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+            operations.add(ContentProviderOperation.newUpdate(forecastUri).withValues(day).build());
+        }
+        operations.add(ContentProviderOperation.newDelete(forecastUri)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(today)})
+                .build());
+        return operations;
+    }
+
+    private int countForecast(Uri forecastUri) {
+        Cursor cursor = mContext.getContentResolver().query(forecastUri, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
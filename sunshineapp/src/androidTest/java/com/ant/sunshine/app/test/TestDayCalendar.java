@@ -0,0 +1,116 @@
+package com.ant.sunshine.app.test;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.TimeZone;
+
+/*
+    Checks that the day calendar dates moments like Time.getJulianDay and Time.setJulianDay do,
+    hour by hour over two years in zones with and without daylight saving, inside and outside
+    its precomputed range, and times 1M normalizations against the Time based
+    WeatherContract.normalizeDate it replaced.  Timings and allocated bytes go to logcat.
+ */
+public class TestDayCalendar extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayCalendar.class.getSimpleName();
+
+    private static final String[] ZONES = {
+            "UTC", "America/Los_Angeles", "Europe/Bucharest", "Asia/Kolkata", "Australia/Lord_Howe",
+            "America/Sao_Paulo"
+    };
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+    private static final int CONVERSIONS = 1000000;
+
+    public void testMatchesTime() {
+        long now = System.currentTimeMillis();
+        for (String zoneId : ZONES) {
+            DayCalendar calendar = new DayCalendar(TimeZone.getTimeZone(zoneId), now);
+            Time time = new Time(zoneId);
+            long from = now - DayCalendar.DAYS_BEFORE * DayCalendar.DAY_IN_MILLIS;
+            long to = now + DayCalendar.DAYS_AFTER * DayCalendar.DAY_IN_MILLIS;
+            for (long millis = from; millis < to; millis += HOUR_IN_MILLIS) {
+                assertSameDay(zoneId, calendar, time, millis);
+            }
+        }
+    }
+
+    public void testOutsideRange() {
+        long now = System.currentTimeMillis();
+        long[] moments = {
+                now - 3 * 365 * DayCalendar.DAY_IN_MILLIS,
+                now + 3 * 365 * DayCalendar.DAY_IN_MILLIS,
+                1419033600000L,
+                0
+        };
+        for (String zoneId : ZONES) {
+            DayCalendar calendar = new DayCalendar(TimeZone.getTimeZone(zoneId), now);
+            Time time = new Time(zoneId);
+            for (long millis : moments) {
+                assertSameDay(zoneId, calendar, time, millis);
+            }
+        }
+    }
+
+    public void testOneCalendarPerZone() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Bucharest");
+        assertSame(DayCalendar.forZone(zone), DayCalendar.forZone(TimeZone.getTimeZone("Europe/Bucharest")));
+        assertEquals(TimeZone.getDefault().getID(), DayCalendar.getInstance().getZone().getID());
+        DayCalendar.onTimeZoneChanged();
+        assertEquals(TimeZone.getDefault().getID(), DayCalendar.getInstance().getZone().getID());
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testNormalizeBenchmark() {
+        DayCalendar calendar = DayCalendar.getInstance();
+        long start = System.currentTimeMillis() - 7 * DayCalendar.DAY_IN_MILLIS;
+        // a moment every 1.2s, so the million covers two weeks
+        long step = 14 * DayCalendar.DAY_IN_MILLIS / CONVERSIONS;
+        assertEquals(normalizeWithTime(start), calendar.normalize(start));
+
+        long checksum = 0;
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long timeStart = System.nanoTime();
+        for (int i = 0; i < CONVERSIONS; i++) {
+            checksum += normalizeWithTime(start + i * step);
+        }
+        long timeNanos = System.nanoTime() - timeStart;
+        Debug.stopAllocCounting();
+        long timeBytes = Debug.getThreadAllocSize();
+
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long calendarStart = System.nanoTime();
+        for (int i = 0; i < CONVERSIONS; i++) {
+            checksum -= calendar.normalize(start + i * step);
+        }
+        long calendarNanos = System.nanoTime() - calendarStart;
+        Debug.stopAllocCounting();
+        long calendarBytes = Debug.getThreadAllocSize();
+
+        assertEquals(0, checksum);
+        Log.i(LOG_TAG, String.format("%d normalizations: Time %d ms %d B, DayCalendar %d ms %d B",
+                CONVERSIONS, timeNanos / 1000000, timeBytes, calendarNanos / 1000000, calendarBytes));
+    }
+
+    private static void assertSameDay(String zoneId, DayCalendar calendar, Time time, long millis) {
+        time.set(millis);
+        int julianDay = Time.getJulianDay(millis, time.gmtoff);
+        long startOfDay = time.setJulianDay(julianDay);
+        String message = zoneId + " at " + millis;
+        assertEquals(message, julianDay, calendar.getJulianDay(millis));
+        assertEquals(message, startOfDay, calendar.getStartOfJulianDay(julianDay));
+        assertEquals(message, startOfDay, calendar.normalize(millis));
+    }
+
+    // WeatherContract.normalizeDate as it was
+    private static long normalizeWithTime(long startDate) {
+        Time time = new Time();
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+}
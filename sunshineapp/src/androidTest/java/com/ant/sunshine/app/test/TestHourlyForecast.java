@@ -0,0 +1,208 @@
+package com.ant.sunshine.app.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks the hourly forecast table through the provider: replacing a location's slots in one
+    call, reading them back from a start time, the (location, time) index serving those reads,
+    and a benchmark ingesting and querying 5 days of 8 slots for 100 locations.
+ */
+public class TestHourlyForecast extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestHourlyForecast.class.getSimpleName();
+
+    private static final int SLOTS = 5 * 8;
+    private static final int BENCHMARK_LOCATIONS = 100;
+    private static final long START_TIME = 1419120000000L; // December 21st, 2014
+    private static final long STEP = 3 * 60 * 60 * 1000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testReplaceHourlyForecast() {
+        insertLocation(TestUtilities.TEST_LOCATION);
+        insertLocation("other");
+        assertEquals(SLOTS, replaceHourly(TestUtilities.TEST_LOCATION, createBatch(START_TIME, 0)));
+        assertEquals(SLOTS, replaceHourly("other", createBatch(START_TIME, 0)));
+
+        // a day later: the first day's slots are gone, a new one came in
+        HourlyForecastBatch later = createBatch(START_TIME + 8 * STEP, 1);
+        assertEquals(SLOTS, replaceHourly(TestUtilities.TEST_LOCATION, later));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherContract.HourlyEntry.COLUMN_TIME, WeatherContract.HourlyEntry.COLUMN_TEMP},
+                null, null, null);
+        assertEquals(SLOTS, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(later.getTime(i), cursor.getLong(0));
+            assertEquals(later.getTemp(i), cursor.getDouble(1), 0.001);
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocation("other"), null, null, null, null);
+        assertEquals(SLOTS, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testQueryFromStartTime() {
+        insertLocation(TestUtilities.TEST_LOCATION);
+        replaceHourly(TestUtilities.TEST_LOCATION, createBatch(START_TIME, 0));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithStartTime(TestUtilities.TEST_LOCATION,
+                        START_TIME + 10 * STEP),
+                new String[]{WeatherContract.HourlyEntry.COLUMN_TIME}, null, null, null);
+        assertEquals(SLOTS - 10, cursor.getCount());
+        long previous = 0;
+        while (cursor.moveToNext()) {
+            assertTrue("Slots out of order", cursor.getLong(0) > previous);
+            previous = cursor.getLong(0);
+        }
+        cursor.close();
+    }
+
+    public void testBulkInsertContentValues() {
+        insertLocation(TestUtilities.TEST_LOCATION);
+        HourlyForecastBatch batch = createBatch(START_TIME, 0);
+        int inserted = mContext.getContentResolver().bulkInsert(
+                WeatherContract.HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION), toValues(batch));
+        assertEquals(SLOTS, inserted);
+    }
+
+    public void testReadUsesLocationTimeIndex() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT " + WeatherContract.HourlyEntry.COLUMN_TIME +
+                " FROM " + WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                WeatherContract.HourlyEntry.TABLE_NAME + "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = " +
+                WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? ORDER BY " +
+                WeatherContract.HourlyEntry.COLUMN_TIME, new String[]{TestUtilities.TEST_LOCATION, "0"});
+        boolean hourlyIndexed = false;
+        int detailIndex = plan.getColumnIndex("detail");
+        while (plan.moveToNext()) {
+            String detail = plan.getString(detailIndex);
+            Log.i(LOG_TAG, detail);
+            if (detail.contains(WeatherContract.HourlyEntry.TABLE_NAME) && detail.contains("INDEX")) {
+                hourlyIndexed = true;
+            }
+        }
+        plan.close();
+        db.close();
+        assertTrue("The hourly table is scanned", hourlyIndexed);
+    }
+
+    public void testIngestAndQueryBenchmark() {
+        String[] locations = new String[BENCHMARK_LOCATIONS];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            locations[i] = "City " + i;
+            insertLocation(locations[i]);
+        }
+        HourlyForecastBatch batch = createBatch(START_TIME, 0);
+
+        long start = System.nanoTime();
+        for (String location : locations) {
+            assertEquals(SLOTS, replaceHourly(location, batch));
+        }
+        long batchMicros = (System.nanoTime() - start) / 1000;
+
+        ContentValues[] values = toValues(batch);
+        start = System.nanoTime();
+        for (String location : locations) {
+            assertEquals(SLOTS, mContext.getContentResolver().bulkInsert(
+                    WeatherContract.HourlyEntry.buildHourlyLocation(location), values));
+        }
+        long contentValuesMicros = (System.nanoTime() - start) / 1000;
+
+        String[] projection = {
+                WeatherContract.HourlyEntry.COLUMN_TIME,
+                WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+                WeatherContract.HourlyEntry.COLUMN_TEMP
+        };
+        int rowsRead = 0;
+        double checksum = 0;
+        start = System.nanoTime();
+        for (String location : locations) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.HourlyEntry.buildHourlyLocationWithStartTime(location, START_TIME),
+                    projection, null, null, null);
+            while (cursor.moveToNext()) {
+                checksum += cursor.getLong(0) + cursor.getInt(1) + cursor.getDouble(2);
+                rowsRead++;
+            }
+            cursor.close();
+        }
+        long queryMicros = (System.nanoTime() - start) / 1000;
+
+        int rows = BENCHMARK_LOCATIONS * SLOTS;
+        assertEquals(rows, rowsRead);
+        Cursor all = mContext.getContentResolver().query(WeatherContract.HourlyEntry.CONTENT_URI,
+                new String[]{WeatherContract.HourlyEntry._ID}, null, null, null);
+        assertEquals(rows, all.getCount());
+        all.close();
+        Log.i(LOG_TAG, String.format("%d locations x %d slots: batch ingest %dms (%.1fus/row), "
+                        + "ContentValues ingest %dms (%.1fus/row), query %dms (%.1fus/row), checksum %.0f",
+                BENCHMARK_LOCATIONS, SLOTS, batchMicros / 1000, (double) batchMicros / rows,
+                contentValuesMicros / 1000, (double) contentValuesMicros / rows,
+                queryMicros / 1000, (double) queryMicros / rows, checksum));
+    }
+
+    private int replaceHourly(String locationSetting, HourlyForecastBatch batch) {
+        Bundle result = mContext.getContentResolver().call(WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.HourlyEntry.METHOD_REPLACE_HOURLY, locationSetting, batch.toBundle());
+        return result.getInt(WeatherContract.HourlyEntry.RESULT_ROWS_WRITTEN);
+    }
+
+    private void insertLocation(String locationSetting) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI, location);
+    }
+
+    private static HourlyForecastBatch createBatch(long startTime, int seed) {
+        HourlyForecastBatch batch = new HourlyForecastBatch();
+        for (int i = 0; i < SLOTS; i++) {
+            batch.add(startTime + i * STEP, 800 + seed, 10 + seed + i % 8, 60 + i % 30, 1010 + i % 8,
+                    2.5 + i % 5, 45 * (i % 8));
+        }
+        return batch;
+    }
+
+    private static ContentValues[] toValues(HourlyForecastBatch batch) {
+        ContentValues[] values = new ContentValues[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            values[i] = new ContentValues();
+            values[i].put(WeatherContract.HourlyEntry.COLUMN_TIME, batch.time[i]);
+            values[i].put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, batch.weatherId[i]);
+            values[i].put(WeatherContract.HourlyEntry.COLUMN_TEMP, batch.temp[i]);
+            values[i].put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, batch.humidity[i]);
+            values[i].put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, batch.pressure[i]);
+            values[i].put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, batch.windSpeed[i]);
+            values[i].put(WeatherContract.HourlyEntry.COLUMN_DEGREES, batch.degrees[i]);
+        }
+        return values;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
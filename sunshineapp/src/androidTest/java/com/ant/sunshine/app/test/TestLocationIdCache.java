@@ -0,0 +1,152 @@
+package com.ant.sunshine.app.test;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks that the location id cache fills itself from the location table on first use, follows
+    the inserts, updates and deletes going through the provider and stays within its size, and
+    times looking up the ids of 20 locations through the cache against querying the provider as
+    the sync used to.
+ */
+public class TestLocationIdCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationIdCache.class.getSimpleName();
+
+    private static final int BENCHMARK_LOCATIONS = 20;
+    private static final int BENCHMARK_PASSES = 50;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testInsertedLocationIsCached() {
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        LocationIdCache cache = LocationIdCache.getInstance();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        assertEquals(locationId, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(misses, cache.getMissCount());
+    }
+
+    public void testWarmsOnFirstUse() {
+        // behind the provider's back, as if they had been stored by an earlier process
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long[] ids = new long[3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, createLocationValues("City " + i));
+        }
+        db.close();
+        LocationIdCache cache = LocationIdCache.getInstance();
+        cache.clear();
+        long misses = cache.getMissCount();
+
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], LocationIdCache.getLocationId(mContext, "City " + i));
+        }
+        // the first lookup read them all
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(-1, LocationIdCache.getLocationId(mContext, "nowhere"));
+    }
+
+    public void testUpdateAndDeleteStayCoherent() {
+        long locationId = insertLocation(TestUtilities.TEST_LOCATION);
+        assertEquals(locationId, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "renamed");
+        assertEquals(1, mContext.getContentResolver().update(WeatherContract.LocationEntry.CONTENT_URI, renamed,
+                WeatherContract.LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)}));
+        assertEquals(-1, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+        assertEquals(locationId, LocationIdCache.getLocationId(mContext, "renamed"));
+
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry._ID + " = ?", new String[]{Long.toString(locationId)});
+        assertEquals(-1, LocationIdCache.getLocationId(mContext, "renamed"));
+    }
+
+    public void testSizeBounded() {
+        LocationIdCache cache = new LocationIdCache(4);
+        for (int i = 0; i < 6; i++) {
+            cache.put("City " + i, i);
+        }
+        // touching the oldest keeps it in
+        cache.get("City 2");
+        cache.put("City 6", 6);
+        assertEquals(4, cache.size());
+        assertNull(cache.get("City 0"));
+        assertNull(cache.get("City 3"));
+        assertEquals(Long.valueOf(2), cache.get("City 2"));
+    }
+
+    public void testLookupBenchmark() {
+        String[] locations = new String[BENCHMARK_LOCATIONS];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            locations[i] = "City " + i;
+            insertLocation(locations[i]);
+        }
+        LocationIdCache cache = LocationIdCache.getInstance();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        long start = System.nanoTime();
+        for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+            for (String location : locations) {
+                assertTrue(LocationIdCache.getLocationId(mContext, location) > 0);
+            }
+        }
+        long cachedMicros = (System.nanoTime() - start) / 1000;
+
+        // how the sync found the location before
+        start = System.nanoTime();
+        for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+            for (String location : locations) {
+                Cursor cursor = mContext.getContentResolver().query(WeatherContract.LocationEntry.CONTENT_URI,
+                        new String[]{WeatherContract.LocationEntry._ID},
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{location}, null);
+                assertTrue(cursor.moveToFirst());
+                cursor.close();
+            }
+        }
+        long queriedMicros = (System.nanoTime() - start) / 1000;
+
+        int lookups = BENCHMARK_LOCATIONS * BENCHMARK_PASSES;
+        assertEquals(hits + lookups, cache.getHitCount());
+        assertEquals(misses, cache.getMissCount());
+        Log.i(LOG_TAG, String.format("%d locations: %d queries avoided per sync, %.1fus per lookup cached, "
+                        + "%.1fus per provider query, %.2fms saved per sync",
+                BENCHMARK_LOCATIONS, (cache.getHitCount() - hits) / BENCHMARK_PASSES,
+                (double) cachedMicros / lookups, (double) queriedMicros / lookups,
+                (queriedMicros - cachedMicros) / 1000.0 / BENCHMARK_PASSES));
+    }
+
+    private long insertLocation(String locationSetting) {
+        return ContentUris.parseId(mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                createLocationValues(locationSetting)));
+    }
+
+    private static ContentValues createLocationValues(String locationSetting) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return location;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
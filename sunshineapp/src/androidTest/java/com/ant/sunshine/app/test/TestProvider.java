@@ -59,6 +59,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherContract.WeatherEntry.CONTENT_URI,
@@ -158,6 +163,12 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 WeatherContract.LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/weather/94074/hourly
+        type = mContext.getContentResolver().getType(
+                WeatherContract.HourlyEntry.buildHourlyLocation(testLocation));
+        assertEquals("Error: the HourlyEntry uri with location should return HourlyEntry.CONTENT_TYPE",
+                WeatherContract.HourlyEntry.CONTENT_TYPE, type);
     }
 
 
@@ -510,4 +521,76 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Bulk inserting on a weather/<location> uri replaces that location's forecast: days before
+        the first new one are dropped, while other locations are left alone.
+     */
+    public void testBulkInsertReplacesLocationForecast() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "other");
+        long otherRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, otherLocation));
+
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(otherRowId));
+
+        // the same ten days, shifted by three
+        ContentValues[] shifted = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues values : shifted) {
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) + 3 * 1000 * 60 * 60 * 24);
+        }
+        int insertCount = mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), shifted);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testBulkInsertReplacesLocationForecast. Error validating first day",
+                cursor, shifted[0]);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation("other"), null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A forecast bulk inserted again on its weather/<location> uri only writes the days that
+        differ from the stored ones.
+     */
+    public void testBulkInsertWritesOnlyChangedDays() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        Uri locationWeatherUri = WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, mContext.getContentResolver().bulkInsert(
+                locationWeatherUri, createBulkInsertWeatherValues(locationRowId)));
+        assertEquals(0, mContext.getContentResolver().bulkInsert(
+                locationWeatherUri, createBulkInsertWeatherValues(locationRowId)));
+
+        ContentValues[] changed = createBulkInsertWeatherValues(locationRowId);
+        changed[2].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+        changed[7].put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        assertEquals(2, mContext.getContentResolver().bulkInsert(locationWeatherUri, changed));
+
+        Cursor cursor = mContext.getContentResolver().query(locationWeatherUri,
+                null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            cursor.moveToPosition(i);
+            TestUtilities.validateCurrentRecord("testBulkInsertWritesOnlyChangedDays. Error validating day " + i,
+                    cursor, changed[i]);
+        }
+        cursor.close();
+    }
 }
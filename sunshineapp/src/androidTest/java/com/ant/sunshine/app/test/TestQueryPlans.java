@@ -0,0 +1,232 @@
+package com.ant.sunshine.app.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.sunshine.app.fragments.constants.ForecastConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Runs EXPLAIN QUERY PLAN on every query shape the provider uses and fails if one of them
+    scans a table or an index instead of searching it, or sorts what should come out of an index
+    in order.  Also checks that upgrading a version 3 database keeps its forecasts, and times the
+    forecast list query at 1k and 100k weather rows with and without the location/date index.
+    Timings go to logcat.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "query-plan-test.db";
+    private static final int DAYS = 14;
+    private static final int QUERIES = 200;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String WEATHER_BY_DATE = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String HOURLY_BY_TIME = WeatherContract.HourlyEntry.COLUMN_TIME + " ASC";
+
+    private WeatherDbHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new WeatherDbHelper(mContext, DATABASE_NAME, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testForecastListIsCovered() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        fill(db, 1000);
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(ForecastConstants.FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection, null, null, WEATHER_BY_DATE, null);
+        List<String> plan = explain(db, sql);
+        assertTrue("Forecast list reads the weather table: " + plan,
+                contains(plan, "COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+    }
+
+    public void testNoQueryScans() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        fill(db, 1000);
+        QueryShapes shapes = new QueryShapes();
+        for (int i = 0; i < shapes.names.size(); i++) {
+            String name = shapes.names.get(i);
+            List<String> plan = explain(db, shapes.sql.get(i));
+            for (String step : plan) {
+                assertFalse(name + " scans: " + plan, step.startsWith("SCAN"));
+                assertFalse(name + " sorts: " + plan, step.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    public void testUpgradeKeepsForecast() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        fill(db, 1000);
+        // back to how version 3 left it
+        db.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        db.setVersion(3);
+        mHelper.close();
+
+        mHelper = new WeatherDbHelper(mContext, DATABASE_NAME, true);
+        db = mHelper.getWritableDatabase();
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE}));
+        assertEquals(1000 / DAYS * DAYS, DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+    }
+
+    public void testForecastListTiming() {
+        for (int rows : new int[]{1000, 100000}) {
+            mHelper.close();
+            mContext.deleteDatabase(DATABASE_NAME);
+            mHelper = new WeatherDbHelper(mContext, DATABASE_NAME, true);
+            SQLiteDatabase db = mHelper.getWritableDatabase();
+            int locations = fill(db, rows);
+
+            long indexed = timeForecastList(db, locations);
+            db.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+            long unindexed = timeForecastList(db, locations);
+            Log.i(LOG_TAG, String.format("forecast list at %d rows: %dus with %s, %dus without",
+                    rows, indexed, WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE, unindexed));
+        }
+    }
+
+    // returns the average micros of a forecast list query of a random location
+    private static long timeForecastList(SQLiteDatabase db, int locations) {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(ForecastConstants.FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection, null, null, WEATHER_BY_DATE, null);
+        String today = Long.toString(WeatherContract.normalizeDate(System.currentTimeMillis()));
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            Cursor cursor = db.rawQuery(sql, new String[]{"City " + random.nextInt(locations), today});
+            try {
+                assertEquals(DAYS, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        }
+        return (System.nanoTime() - start) / 1000 / QUERIES;
+    }
+
+    /*
+        The statements the provider runs, with the selections and builders it uses.
+     */
+    private static class QueryShapes {
+        final List<String> names = new ArrayList<>();
+        final List<String> sql = new ArrayList<>();
+
+        QueryShapes() {
+            add("forecast list", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                    ForecastConstants.FORECAST_COLUMNS, WeatherProvider.sLocationSettingWithStartDateSelection,
+                    null, null, WEATHER_BY_DATE, null));
+            add("forecast of a location", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                    ForecastConstants.FORECAST_COLUMNS, WeatherProvider.sLocationSettingSelection,
+                    null, null, WEATHER_BY_DATE, null));
+            add("day of a location", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                    null, WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null));
+            add("hourly forecast", WeatherProvider.sHourlyByLocationSettingQueryBuilder.buildQuery(
+                    null, WeatherProvider.sLocationSettingWithStartTimeSelection, null, null, HOURLY_BY_TIME, null));
+            add("location id", WeatherProvider.sLocationIdQuery);
+            add("stored forecast", "SELECT * FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherProvider.sLocationKeyFromDaySelection);
+            add("changed day", WeatherProvider.sUpdateWeatherDay);
+            add("days before the forecast", WeatherProvider.sDeleteWeatherBeforeDay);
+            add("days of a location setting before a day", "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " IN (" + WeatherProvider.sLocationIdQuery
+                    + ") AND (" + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?)");
+            add("hourly of a location id", WeatherProvider.sDeleteHourlyOfLocation);
+            add("hourly of a location setting", "DELETE FROM " + WeatherContract.HourlyEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " IN (" + WeatherProvider.sLocationIdQuery + ")");
+        }
+
+        private void add(String name, String statement) {
+            names.add(name);
+            sql.add(statement);
+        }
+    }
+
+    private static List<String> explain(SQLiteDatabase db, String sql) {
+        String[] args = new String[countParameters(sql)];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = "1";
+        }
+        List<String> steps = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                steps.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return steps;
+    }
+
+    private static int countParameters(String sql) {
+        int count = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean contains(List<String> plan, String text) {
+        for (String step : plan) {
+            if (step.contains(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // stores the forecasts of as many locations as fit in the given number of weather rows
+    private static int fill(SQLiteDatabase db, int rows) {
+        int locations = rows / DAYS;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        db.beginTransaction();
+        SQLiteStatement weather = db.compileStatement("INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " ("
+                + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                + WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherContract.WeatherEntry.COLUMN_DEGREES
+                + ") VALUES (?, ?, 'Clear', 800, 10, 20, 50, 1015, 2.5, 90)");
+        try {
+            ContentValues location = new ContentValues();
+            for (int i = 0; i < locations; i++) {
+                location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "City " + i);
+                location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + i);
+                location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+                location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+                long locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+                for (int day = 0; day < DAYS; day++) {
+                    weather.bindLong(1, locationId);
+                    weather.bindLong(2, today + day * DAY_IN_MILLIS);
+                    weather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            weather.close();
+            db.endTransaction();
+        }
+        return locations;
+    }
+}
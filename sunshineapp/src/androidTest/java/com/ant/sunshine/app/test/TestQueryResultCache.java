@@ -0,0 +1,210 @@
+package com.ant.sunshine.app.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.ant.sunshine.app.fragments.constants.ForecastConstants;
+
+/*
+    Checks that the provider serves repeated forecast queries from its cache, that a write to a
+    location drops that location's results and no other's, and that the cache keeps to its
+    bounds.  Also times the forecast list query served from the cache against going to the
+    database every time; the timings, hit ratio and memory footprint go to logcat.
+ */
+public class TestQueryResultCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryResultCache.class.getSimpleName();
+
+    private static final String OTHER_LOCATION = "94043";
+    private static final int DAYS = 14;
+    private static final int QUERIES = 1000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testRepeatedQueryIsCached() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        insertForecast(TestUtilities.TEST_LOCATION, today);
+        Uri listUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, today);
+
+        QueryResultCache cache = QueryResultCache.getInstance();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        String first = dump(queryList(listUri));
+        String second = dump(queryList(listUri));
+        assertEquals(first, second);
+        assertEquals(hits + 1, cache.getHitCount());
+        assertEquals(misses + 1, cache.getMissCount());
+        assertTrue(cache.getMemoryBytes() > 0);
+    }
+
+    public void testWriteDropsOnlyItsLocation() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        insertForecast(TestUtilities.TEST_LOCATION, today);
+        insertForecast(OTHER_LOCATION, today);
+        Uri listUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, today);
+        Uri otherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(OTHER_LOCATION, today);
+        Uri todayUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, today);
+        queryList(listUri).close();
+        queryList(otherUri).close();
+        queryList(todayUri).close();
+
+        // a changed high for today
+        ContentValues day = TestUtilities.createWeatherValues(0);
+        day.remove(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        day.put(WeatherContract.WeatherEntry.COLUMN_DATE, today);
+        day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+        assertEquals(1, mContext.getContentResolver().update(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), day, null, null));
+
+        QueryResultCache cache = QueryResultCache.getInstance();
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+        Cursor cursor = queryList(todayUri);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(99.0, cursor.getDouble(cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)));
+        } finally {
+            cursor.close();
+        }
+        queryList(listUri).close();
+        assertEquals(misses + 2, cache.getMissCount());
+        queryList(otherUri).close();
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    public void testBulkInsertDropsItsLocation() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long locationId = insertForecast(TestUtilities.TEST_LOCATION, today);
+        Uri listUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, today);
+        assertEquals(DAYS, count(queryList(listUri)));
+
+        ContentValues day = TestUtilities.createWeatherValues(locationId);
+        day.put(WeatherContract.WeatherEntry.COLUMN_DATE, today + DAYS * DAY_IN_MILLIS);
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, new ContentValues[]{day});
+        assertEquals(DAYS + 1, count(queryList(listUri)));
+    }
+
+    public void testBounds() {
+        QueryResultCache cache = new QueryResultCache(2, QueryResultCache.MAX_BYTES);
+        cache.put("a", "1", snapshot(3), cache.getGeneration()).close();
+        cache.put("b", "1", snapshot(3), cache.getGeneration()).close();
+        cache.put("c", "2", snapshot(3), cache.getGeneration()).close();
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+
+        // not cached, but still handed back
+        Cursor large = cache.put("d", "2", snapshot(QueryResultCache.MAX_ROWS + 1), cache.getGeneration());
+        assertEquals(QueryResultCache.MAX_ROWS + 1, count(large));
+        assertEquals(2, cache.size());
+
+        // read before a write, put after it
+        long generation = cache.getGeneration();
+        cache.invalidate("2");
+        cache.put("e", "2", snapshot(3), generation).close();
+        assertNull(cache.get("e"));
+
+        long bytes = cache.getMemoryBytes();
+        cache.invalidate("1");
+        assertEquals(0, cache.size());
+        assertTrue(bytes > cache.getMemoryBytes());
+        assertEquals(0, cache.getMemoryBytes());
+        assertEquals(0.0, cache.getHitRatio());
+    }
+
+    public void testForecastListTiming() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        insertForecast(TestUtilities.TEST_LOCATION, today);
+        Uri listUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, today);
+        QueryResultCache cache = QueryResultCache.getInstance();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            cache.clear();
+            assertEquals(DAYS, count(queryList(listUri)));
+        }
+        long uncachedMicros = (System.nanoTime() - start) / 1000 / QUERIES;
+
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            assertEquals(DAYS, count(queryList(listUri)));
+        }
+        long cachedMicros = (System.nanoTime() - start) / 1000 / QUERIES;
+
+        Log.i(LOG_TAG, String.format("forecast list: %dus from the database, %dus from the cache;"
+                        + " hit ratio %.2f, %d entries, %d bytes", uncachedMicros, cachedMicros,
+                cache.getHitRatio(), cache.size(), cache.getMemoryBytes()));
+    }
+
+    private Cursor queryList(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, ForecastConstants.FORECAST_COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        return cursor;
+    }
+
+    // the location with a forecast of DAYS days from today, returning its row id
+    private long insertForecast(String locationSetting, long today) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri locationUri = mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI, location);
+        long locationId = Long.parseLong(locationUri.getLastPathSegment());
+        ContentValues[] days = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationId);
+            days[i].put(WeatherContract.WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, days);
+        return locationId;
+    }
+
+    private static Cursor snapshot(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "short_desc", "max"});
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{i, "Clear", 20.5});
+        }
+        return cursor;
+    }
+
+    private static String dump(Cursor cursor) {
+        try {
+            StringBuilder rows = new StringBuilder();
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    rows.append(cursor.getString(i)).append(',');
+                }
+                rows.append('\n');
+            }
+            return rows.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int count(Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
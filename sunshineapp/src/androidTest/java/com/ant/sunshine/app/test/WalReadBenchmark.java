@@ -0,0 +1,173 @@
+package com.ant.sunshine.app.test;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Issues forecast list queries, the one behind ForecastFragment's CursorLoader, while another
+    thread writes the forecasts of 100 locations the way a sync does, one transaction per
+    location, and compares the read latencies with the rollback journal against write-ahead
+    logging.  The percentiles go to logcat; the assertions only check that the databases are in
+    the expected mode and that the reads saw whole forecasts.
+ */
+public class WalReadBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = WalReadBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "wal-benchmark.db";
+    private static final int LOCATIONS = 100;
+    private static final int DAYS = 14;
+    private static final int PASSES = 3;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String LIST_QUERY = "SELECT " + WeatherContract.WeatherEntry.TABLE_NAME + "."
+            + WeatherContract.WeatherEntry._ID + ", " + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+            + WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+            + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+            + " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " + WeatherContract.LocationEntry.TABLE_NAME
+            + " ON " + WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY
+            + " = " + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID
+            + " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND "
+            + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ORDER BY " + WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testProviderDatabaseUsesWal() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        try {
+            assertEquals("wal", DatabaseUtils.stringForQuery(helper.getWritableDatabase(), "PRAGMA journal_mode", null));
+        } finally {
+            helper.close();
+        }
+        Bundle result = mContext.getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_CHECKPOINT, null, null);
+        assertNotNull(result);
+        assertTrue(result.getInt(WeatherContract.RESULT_FRAMES_CHECKPOINTED, -1) >= 0);
+    }
+
+    public void testReadLatencyDuringSync() throws Exception {
+        long[] rollback = measure(false);
+        mContext.deleteDatabase(DATABASE_NAME);
+        long[] wal = measure(true);
+        Log.i(LOG_TAG, String.format("list query during a %d-location sync: rollback journal p50 %dus p99 %dus max %dus"
+                        + " (%d reads), WAL p50 %dus p99 %dus max %dus (%d reads)",
+                LOCATIONS, rollback[0], rollback[1], rollback[2], rollback[3], wal[0], wal[1], wal[2], wal[3]));
+    }
+
+    // returns {p50, p99, max} in micros and the number of reads
+    private long[] measure(boolean writeAheadLogging) throws Exception {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, DATABASE_NAME, writeAheadLogging);
+        try {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            // the rollback journal is whichever mode the platform defaults to
+            assertEquals(writeAheadLogging,
+                    "wal".equalsIgnoreCase(DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null)));
+            final long[] locationIds = new long[LOCATIONS];
+            for (int i = 0; i < LOCATIONS; i++) {
+                ContentValues location = new ContentValues();
+                location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "City " + i);
+                location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + i);
+                location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+                location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+                locationIds[i] = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+            }
+            final long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+            writeForecasts(db, locationIds, today, 0);
+
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final Throwable[] writerFailure = new Throwable[1];
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int pass = 1; pass <= PASSES; pass++) {
+                            writeForecasts(db, locationIds, today, pass);
+                        }
+                    } catch (Throwable t) {
+                        writerFailure[0] = t;
+                    } finally {
+                        writing.set(false);
+                    }
+                }
+            }, "WalReadBenchmark writer");
+
+            long[] latencies = new long[1024];
+            int reads = 0;
+            writer.start();
+            while (writing.get()) {
+                String[] args = {"City " + (reads % LOCATIONS), Long.toString(today)};
+                long start = System.nanoTime();
+                Cursor cursor = db.rawQuery(LIST_QUERY, args);
+                int rows;
+                try {
+                    rows = cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                long micros = (System.nanoTime() - start) / 1000;
+                // every location is replaced within a transaction, so a read sees all of its days
+                assertEquals(DAYS, rows);
+                if (reads == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, reads * 2);
+                }
+                latencies[reads++] = micros;
+            }
+            writer.join();
+            assertNull(writerFailure[0]);
+            assertTrue(reads > 0);
+
+            Arrays.sort(latencies, 0, reads);
+            return new long[]{latencies[reads / 2], latencies[Math.min(reads - 1, reads * 99 / 100)],
+                    latencies[reads - 1], reads};
+        } finally {
+            helper.close();
+        }
+    }
+
+    // a sync as the provider's bulkInsert does it: each location's days replaced in a transaction
+    private static void writeForecasts(SQLiteDatabase db, long[] locationIds, long today, int pass) {
+        ContentValues values = new ContentValues();
+        for (long locationId : locationIds) {
+            db.beginTransactionNonExclusive();
+            try {
+                db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)});
+                for (int day = 0; day < DAYS; day++) {
+                    values.clear();
+                    values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_DATE, today + day * DAY_IN_MILLIS);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + pass);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65 + pass);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+                    values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+                    values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+                    db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+}
@@ -52,6 +52,7 @@ import com.ant.sunshine.app.fragments.ForecastFragment;
 import com.ant.sunshine.app.R;
 import com.ant.sunshine.app.fragments.MapLocationFragment;
 import com.ant.sunshine.app.gcm.RegistrationIntentService;
+import com.ant.sunshine.app.sync.RecentLocations;
 import com.ant.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -430,6 +431,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             }
             // Get the Place object from the buffer.
             final Place place = places.get(0);
+            RecentLocations.onLocationPicked(MainActivity.this, place.getAddress().toString());
             saveLocationToPrefs(place);
             reloadLocationIfChanged(place.getAddress().toString());
             clearSearchView();
@@ -480,8 +482,10 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             locString = null;
         }
         if (locString != null && !locString.isEmpty()) {
-            reloadLocation();
+            RecentLocations.onLocationPicked(this, locString);
+            // save first, the sync picks up the preferred location when it is requested
             saveStringLocationToPrefs(locString);
+            reloadLocation();
             Fragment fragment = ForecastFragment.newInstance(!mTwoPane, locString);
             setForecastFragment((ForecastFragment) fragment);
         }
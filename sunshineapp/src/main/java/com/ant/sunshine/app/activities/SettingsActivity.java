@@ -25,6 +25,7 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
+import com.ant.core.SyncStatusStore;
 import com.ant.core.Utility;
 import com.ant.sunshine.app.R;
 import com.ant.sunshine.app.test.WeatherContract;
@@ -39,7 +40,8 @@ import com.ant.sunshine.app.sync.SunshineSyncAdapter;
  * API Guide</a> for more information on developing a Settings UI.
  */
 public class SettingsActivity extends PreferenceActivity
-        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
+        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener,
+        SyncStatusStore.Observer {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -59,6 +61,7 @@ public class SettingsActivity extends PreferenceActivity
     protected void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.registerOnSharedPreferenceChangeListener(this);
+        SyncStatusStore.getInstance(this).addObserver(this);
         super.onResume();
     }
 
@@ -67,6 +70,7 @@ public class SettingsActivity extends PreferenceActivity
     protected void onPause() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.unregisterOnSharedPreferenceChangeListener(this);
+        SyncStatusStore.getInstance(this).removeObserver(this);
         super.onPause();
     }
 
@@ -139,16 +143,19 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-        } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
-            // our location status has changed.  Update the summary accordingly
-            Preference locationPreference = findPreference(getString(R.string.pref_location_key));
-            bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
         }
     }
 
+    @Override
+    public void onSyncStatusChanged(@Utility.LocationStatus int status) {
+        // our location status has changed.  Update the summary accordingly
+        Preference locationPreference = findPreference(getString(R.string.pref_location_key));
+        bindPreferenceSummaryToValue(locationPreference);
+    }
+
     private void reloadLocation() {
         // we've changed the location
         // first clear locationStatus
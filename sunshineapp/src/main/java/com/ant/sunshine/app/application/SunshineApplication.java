@@ -1,6 +1,13 @@
 package com.ant.sunshine.app.application;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import com.ant.core.SyncStatusStore;
+import com.ant.sunshine.app.test.DayCalendar;
 
 /**
  * Created by andrei on 4/14/16.
@@ -13,6 +20,15 @@ public class SunshineApplication extends Application {
     public void onCreate() {
         super.onCreate();
         SunshineApplication.instance = this;
+        // starts reading the saved sync status in the background, before the UI asks for it
+        SyncStatusStore.getInstance(this);
+        // the day boundaries used to date the forecast follow the zone of the device
+        registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                DayCalendar.onTimeZoneChanged();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
     }
 
     public static SunshineApplication getInstance() {
@@ -48,6 +48,7 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.ant.core.SyncStatusStore;
 import com.ant.core.Utility;
 import com.ant.sunshine.app.ForecastAdapter;
 import com.ant.sunshine.app.R;
@@ -58,7 +59,7 @@ import com.ant.sunshine.app.sync.SunshineSyncAdapter;
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SyncStatusStore.Observer {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     public static final String ASC = " ASC";
     public static final String USE_TODAY_LAYOUT = "USE_TODAY_LAYOUT";
@@ -112,14 +113,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     @Override
     public void onResume() {
         super.onResume();
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getCurrentActivity());
-        sp.registerOnSharedPreferenceChangeListener(this);
+        SyncStatusStore.getInstance(getCurrentActivity()).addObserver(this);
     }
 
     @Override
     public void onPause() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getCurrentActivity());
-        sp.unregisterOnSharedPreferenceChangeListener(this);
+        SyncStatusStore.getInstance(getCurrentActivity()).removeObserver(this);
         super.onPause();
     }
 
@@ -456,6 +455,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                     case Utility.LOCATION_STATUS_SERVER_DOWN:
                         message = R.string.empty_forecast_list_server_down;
                         break;
+                    case Utility.LOCATION_STATUS_SERVER_UNAVAILABLE:
+                        message = R.string.empty_forecast_list_server_unavailable;
+                        break;
                     case Utility.LOCATION_STATUS_SERVER_INVALID:
                         message = R.string.empty_forecast_list_server_error;
                         break;
@@ -473,10 +475,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(getString(R.string.pref_location_status_key))) {
-            updateEmptyView();
-        }
+    public void onSyncStatusChanged(@Utility.LocationStatus int status) {
+        updateEmptyView();
     }
 
     private void saveStringLocationToPrefs(String placeString) {
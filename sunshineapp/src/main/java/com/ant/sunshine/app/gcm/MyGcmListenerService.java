@@ -29,6 +29,7 @@ import android.widget.Toast;
 
 import com.ant.sunshine.app.activities.MainActivity;
 import com.ant.sunshine.app.R;
+import com.ant.sunshine.app.sync.PushedForecastApplier;
 import com.google.android.gms.gcm.GcmListenerService;
 
 import org.json.JSONException;
@@ -62,17 +63,21 @@ public class MyGcmListenerService extends GcmListenerService {
             }
             // Not a bad idea to check that the message is coming from your server.
             if ((senderId).equals(from)) {
+                // a pushed forecast goes straight into the database, without a sync
+                PushedForecastApplier.getInstance(this).offer(data);
                 // Process message and then post a notification of the received message.
-                try {
-                    JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
-                    String weather = jsonObject.getString(EXTRA_WEATHER);
-                    String location = jsonObject.getString(EXTRA_LOCATION);
-                    String alert =
-                            String.format(getString(R.string.gcm_weather_alert), weather, location);
-                    sendNotification(alert);
-                } catch (JSONException e) {
-                    // JSON parsing failed, so we just let this message go, since GCM is not one
-                    // of our critical features.
+                if (data.containsKey(EXTRA_DATA)) {
+                    try {
+                        JSONObject jsonObject = new JSONObject(data.getString(EXTRA_DATA));
+                        String weather = jsonObject.getString(EXTRA_WEATHER);
+                        String location = jsonObject.getString(EXTRA_LOCATION);
+                        String alert =
+                                String.format(getString(R.string.gcm_weather_alert), weather, location);
+                        sendNotification(alert);
+                    } catch (JSONException e) {
+                        // JSON parsing failed, so we just let this message go, since GCM is not one
+                        // of our critical features.
+                    }
                 }
             }
             Log.i(TAG, "Received: " + data.toString());
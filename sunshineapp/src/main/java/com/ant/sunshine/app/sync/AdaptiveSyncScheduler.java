@@ -0,0 +1,154 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.R;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Picks the periodic sync interval from how much the forecast moved in the last sync.
+ * <p/>
+ * Every sync in which nothing changed stretches the interval by half, a sync in which the
+ * forecast churned (many days rewritten, or temperatures moving by several degrees) halves it,
+ * and anything in between leaves it alone, always within {@link #MIN_INTERVAL} and
+ * {@link #MAX_INTERVAL}.  Because each step starts from the previous interval, a run of stable
+ * syncs keeps stretching it while a single churning one pulls it back quickly.
+ * <p/>
+ * The chosen interval and the reason for it are kept in the default shared preferences, see
+ * {@link #getInterval(Context)} and {@link #getReason(Context)}.
+ */
+public class AdaptiveSyncScheduler {
+
+    private static final String LOG_TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    // in seconds, like SunshineSyncAdapter.SYNC_INTERVAL
+    public static final int MIN_INTERVAL = 60 * 60;
+    public static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // at least this share of the days rewritten counts as churn
+    static final double CHURN_CHANGED_FRACTION = 0.5;
+    // so does a high or low moving by this many degrees
+    static final double CHURN_TEMPERATURE_CHANGE = 2.0;
+    static final double STRETCH_FACTOR = 1.5;
+    static final double TIGHTEN_FACTOR = 0.5;
+
+    /**
+     * What changed in one sync pass, summed over all the locations synced.
+     */
+    static final class Observation {
+        final int daysChanged;
+        final int daysTotal;
+        final double maxTemperatureChange;
+        final boolean failed;
+
+        Observation(int daysChanged, int daysTotal, double maxTemperatureChange, boolean failed) {
+            this.daysChanged = daysChanged;
+            this.daysTotal = daysTotal;
+            this.maxTemperatureChange = maxTemperatureChange;
+            this.failed = failed;
+        }
+
+        static Observation of(Collection<ForecastSyncTask.Result> results) {
+            int daysChanged = 0;
+            int daysTotal = 0;
+            double maxTemperatureChange = 0;
+            boolean failed = true;
+            for (ForecastSyncTask.Result result : results) {
+                if (result.status != Utility.LOCATION_STATUS_OK) {
+                    continue;
+                }
+                failed = false;
+                // days that merely came into range are not a sign of a changing forecast
+                daysChanged += Math.max(0, result.rowsWritten - result.newDays);
+                daysTotal += ForecastSyncTask.NUM_DAYS;
+                maxTemperatureChange = Math.max(maxTemperatureChange, result.maxTemperatureChange);
+            }
+            return new Observation(daysChanged, daysTotal, maxTemperatureChange, failed);
+        }
+    }
+
+    /**
+     * The interval to use next, and why.
+     */
+    static final class Decision {
+        final int interval;
+        final String reason;
+
+        Decision(int interval, String reason) {
+            this.interval = interval;
+            this.reason = reason;
+        }
+    }
+
+    private AdaptiveSyncScheduler() {
+    }
+
+    static Decision decide(int currentInterval, Observation observation) {
+        if (observation.failed) {
+            return new Decision(currentInterval, "sync failed, interval kept");
+        }
+        double changedFraction = observation.daysTotal > 0
+                ? (double) observation.daysChanged / observation.daysTotal : 0;
+        if (observation.daysChanged == 0) {
+            return bounded(currentInterval * STRETCH_FACTOR, "forecast unchanged, stretched");
+        }
+        if (changedFraction >= CHURN_CHANGED_FRACTION
+                || observation.maxTemperatureChange >= CHURN_TEMPERATURE_CHANGE) {
+            return bounded(currentInterval * TIGHTEN_FACTOR, String.format(Locale.US,
+                    "%d of %d days changed, up to %.1f degrees, tightened",
+                    observation.daysChanged, observation.daysTotal, observation.maxTemperatureChange));
+        }
+        return new Decision(currentInterval, String.format(Locale.US,
+                "%d of %d days changed, up to %.1f degrees, interval kept",
+                observation.daysChanged, observation.daysTotal, observation.maxTemperatureChange));
+    }
+
+    private static Decision bounded(double interval, String reason) {
+        if (interval >= MAX_INTERVAL) {
+            return new Decision(MAX_INTERVAL, reason + " to the maximum");
+        }
+        if (interval <= MIN_INTERVAL) {
+            return new Decision(MIN_INTERVAL, reason + " to the minimum");
+        }
+        return new Decision((int) interval, reason);
+    }
+
+    /**
+     * Feeds the results of a sync pass to the policy, and re-arms the periodic sync if the
+     * interval changed.
+     */
+    static void onSyncFinished(Context context, Collection<ForecastSyncTask.Result> results) {
+        int current = getInterval(context);
+        Decision decision = decide(current, Observation.of(results));
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_sync_interval_key), decision.interval)
+                .putString(context.getString(R.string.pref_sync_interval_reason_key), decision.reason)
+                .apply();
+        Log.d(LOG_TAG, "Sync interval " + decision.interval + "s: " + decision.reason);
+        if (decision.interval != current) {
+            SunshineSyncAdapter.configurePeriodicSync(context, decision.interval, decision.interval / 3);
+        }
+    }
+
+    /**
+     * @return the periodic sync interval in use, in seconds
+     */
+    public static int getInterval(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(context.getString(R.string.pref_sync_interval_key), SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * @return why the current interval was chosen, or null before the first sync
+     */
+    public static String getReason(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_sync_interval_reason_key), null);
+    }
+}
@@ -0,0 +1,239 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches the forecasts of several locations with a single group request, so a sync of many
+ * locations costs one round trip and one radio wake-up instead of one per city.  The group
+ * response is split back into one forecast per location, each stored through
+ * {@link ForecastSyncTask#storeWeatherData} like a single fetch would be.  The validators of a
+ * group response are kept under the group's uri in the task's {@link ForecastResponseCache} and
+ * replayed while every location of the group still has its forecast, so an unchanged group
+ * costs a 304 and nothing else.
+ * <p/>
+ * OpenWeatherMap has no such endpoint: its /group call takes numeric city ids and answers the
+ * current weather, not a daily forecast.  The sync only groups locations when
+ * {@code BuildConfig.GROUP_FORECAST_URL} names a server that does, e.g. a proxy in front of the
+ * daily endpoint, which takes the location settings as repeated id parameters.
+ * <p/>
+ * Whenever the group call can't be used, {@link #sync} says so, and {@link MultiLocationSyncEngine}
+ * fetches the locations one by one, concurrently, instead.  An
+ * endpoint that answers 404 or 400 is given up on for the life of the process; after any other
+ * failure the group call is left alone for {@link #GROUP_RETRY_MILLIS}, twice as long every time
+ * the retry fails too, up to {@link #MAX_GROUP_RETRY_MILLIS}.
+ */
+class BatchForecastSyncTask {
+
+    private static final String LOG_TAG = BatchForecastSyncTask.class.getSimpleName();
+
+    // the group endpoints accept at most this many ids per call
+    static final int MAX_BATCH_SIZE = 20;
+
+    static final long GROUP_RETRY_MILLIS = 15 * 60 * 1000;
+    static final long MAX_GROUP_RETRY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final ForecastSyncTask mTask;
+    private final String mGroupUrl;
+    private final WeatherTransport mTransport;
+    // opens on the first failed group call, so that later syncs don't probe it before every
+    // fallback while it keeps failing
+    private final CircuitBreaker mGroupBreaker;
+    // set once the server has told us there is no group endpoint, so later syncs skip the probe
+    private volatile boolean mGroupUnsupported;
+
+    BatchForecastSyncTask(ForecastSyncTask task, String groupUrl, WeatherTransport transport) {
+        this(task, groupUrl, transport, CircuitBreaker.SYSTEM_CLOCK);
+    }
+
+    BatchForecastSyncTask(ForecastSyncTask task, String groupUrl, WeatherTransport transport,
+                          CircuitBreaker.Clock clock) {
+        mTask = task;
+        mGroupUrl = groupUrl;
+        mTransport = transport;
+        mGroupBreaker = new CircuitBreaker(1, GROUP_RETRY_MILLIS, MAX_GROUP_RETRY_MILLIS, clock);
+    }
+
+    /**
+     * Syncs up to {@link #MAX_BATCH_SIZE} locations with one group call.
+     *
+     * @return the result of every location, in the order they were given, or null if the group
+     * call can't be used and nothing was stored, for the caller to fetch the locations one by one
+     */
+    Map<String, ForecastSyncTask.Result> sync(List<String> locationSettings) {
+        if (locationSettings.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " locations per batch, got "
+                    + locationSettings.size());
+        }
+        if (locationSettings.size() > 1 && !mGroupUnsupported && mGroupBreaker.allowRequest()) {
+            return syncGroup(locationSettings);
+        }
+        return null;
+    }
+
+    /**
+     * @return the task that fetches a single location
+     */
+    ForecastSyncTask getTask() {
+        return mTask;
+    }
+
+    boolean isGroupUnsupported() {
+        return mGroupUnsupported;
+    }
+
+    /**
+     * @return true while the group call is left alone after a failure
+     */
+    boolean isGroupBackedOff() {
+        return mGroupBreaker.getState() == CircuitBreaker.State.OPEN;
+    }
+
+    Uri getGroupUri(List<String> locationSettings) {
+        Uri.Builder builder = Uri.parse(mGroupUrl).buildUpon();
+        // one parameter per location: location settings such as "London,uk" contain commas
+        for (String locationSetting : locationSettings) {
+            builder.appendQueryParameter(SunshineSyncAdapter.ID, locationSetting);
+        }
+        return builder
+                .appendQueryParameter(SunshineSyncAdapter.MODE, ForecastSyncTask.FORMAT)
+                .appendQueryParameter(SunshineSyncAdapter.UNITS, ForecastSyncTask.UNITS)
+                .appendQueryParameter(SunshineSyncAdapter.CNT, Integer.toString(ForecastSyncTask.NUM_DAYS))
+                .appendQueryParameter(SunshineSyncAdapter.APPID, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    private boolean hasStoredForecasts(List<String> locationSettings) {
+        for (String locationSetting : locationSettings) {
+            if (!mTask.hasStoredForecast(locationSetting)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes the group call {@link #mGroupBreaker} let through, and reports its outcome.
+     *
+     * @return the results, or null if the group call failed and nothing was stored
+     */
+    private Map<String, ForecastSyncTask.Result> syncGroup(List<String> locationSettings) {
+        WeatherTransport.Response response = null;
+        boolean reported = false;
+        try {
+            Uri groupUri = getGroupUri(locationSettings);
+            ForecastResponseCache responseCache = mTask.getResponseCache();
+            ForecastResponseCache.Entry cached = hasStoredForecasts(locationSettings)
+                    ? responseCache.get(groupUri) : null;
+            long fetchStart = System.nanoTime();
+            response = mTransport.get(groupUri, ForecastSyncTask.conditionalHeaders(cached));
+            long fetchMillis = ForecastSyncTask.millisSince(fetchStart);
+            int code = response.getCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mGroupBreaker.onSuccess();
+                reported = true;
+                responseCache.recordHit();
+                Log.d(LOG_TAG, "Forecasts not modified for " + locationSettings);
+                Map<String, ForecastSyncTask.Result> results = new LinkedHashMap<>();
+                for (String locationSetting : locationSettings) {
+                    ForecastSyncTask.Result result = new ForecastSyncTask.Result();
+                    result.notModified = true;
+                    result.status = Utility.LOCATION_STATUS_OK;
+                    result.fetchMillis = fetchMillis;
+                    results.put(locationSetting, result);
+                }
+                return results;
+            }
+            responseCache.recordMiss();
+            if (code != HttpURLConnection.HTTP_OK) {
+                if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_BAD_REQUEST) {
+                    mGroupUnsupported = true;
+                }
+                mGroupBreaker.onFailure();
+                reported = true;
+                Log.w(LOG_TAG, "Group fetch answered HTTP " + code + ", fetching one by one");
+                return null;
+            }
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                throw new IOException("Empty group response");
+            }
+
+            // parse everything before storing anything, so that a broken response falls back
+            // to single fetches with nothing written yet
+            long parseStart = System.nanoTime();
+            final List<ForecastRowCollector> collectors = new ArrayList<>(locationSettings.size());
+            int count = new ForecastJsonParser().parseGroup(inputStream, new ForecastJsonParser.GroupListener() {
+                @Override
+                public ForecastJsonParser.Listener onForecast(int index) {
+                    ForecastRowCollector collector = ForecastSyncTask.newRowCollector();
+                    collectors.add(collector);
+                    return collector;
+                }
+            });
+            if (count != locationSettings.size()) {
+                throw new JSONException("Asked for " + locationSettings.size() + " forecasts, got " + count);
+            }
+            mGroupBreaker.onSuccess();
+            reported = true;
+
+            long parseMillis = ForecastSyncTask.millisSince(parseStart);
+
+            long wireBytes = response.getWireBytes() / count;
+            long bodyBytes = response.getBodyBytes() / count;
+            Map<String, ForecastSyncTask.Result> results = new LinkedHashMap<>();
+            boolean allStored = true;
+            for (int i = 0; i < count; i++) {
+                ForecastSyncTask.Result result = new ForecastSyncTask.Result();
+                result.wireBytes = wireBytes;
+                result.bodyBytes = bodyBytes;
+                // the whole group's, like the bytes
+                result.fetchMillis = fetchMillis;
+                result.parseMillis = parseMillis;
+                try {
+                    mTask.persist(collectors.get(i), locationSettings.get(i), result);
+                } catch (JSONException e) {
+                    Log.e(LOG_TAG, e.getMessage(), e);
+                    result.status = Utility.LOCATION_STATUS_SERVER_INVALID;
+                }
+                results.put(locationSettings.get(i), result);
+                allStored &= result.status == Utility.LOCATION_STATUS_OK;
+            }
+            if (allStored) {
+                responseCache.put(groupUri,
+                        response.getHeader(ForecastResponseCache.HEADER_ETAG),
+                        response.getHeader(ForecastResponseCache.HEADER_LAST_MODIFIED));
+            }
+            return results;
+        } catch (IOException | JSONException e) {
+            mGroupBreaker.onFailure();
+            reported = true;
+            Log.w(LOG_TAG, "Group fetch failed, fetching one by one", e);
+            return null;
+        } finally {
+            if (!reported) {
+                mGroupBreaker.onAbandoned();
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
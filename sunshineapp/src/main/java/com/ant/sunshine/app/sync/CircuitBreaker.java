@@ -0,0 +1,150 @@
+package com.ant.sunshine.app.sync;
+
+import android.util.Log;
+
+/**
+ * Stops the sync from calling a backend that is known to be down.
+ * <p/>
+ * Every attempt counts, retries included.  After {@link #getFailureThreshold()} consecutive
+ * failed attempts the breaker opens and every request is refused until the open period is
+ * over.  Then a single trial request is let through (half open): if it succeeds the breaker
+ * closes again, if it fails the breaker opens for twice as long as before, up to the maximum.
+ * A success at any time resets the count.
+ * <p/>
+ * All methods are safe to call from the sync workers concurrently.
+ */
+class CircuitBreaker {
+
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_MILLIS = 5 * 60 * 1000;
+    static final long DEFAULT_MAX_OPEN_MILLIS = 60 * 60 * 1000;
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final long mMaxOpenMillis;
+    private final Clock mClock;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mCurrentOpenMillis;
+    private long mOpenUntil;
+    // a trial request is out while half open, everybody else keeps waiting
+    private boolean mTrialInFlight;
+    private int mRejected;
+
+    CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, DEFAULT_MAX_OPEN_MILLIS, SYSTEM_CLOCK);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis, Clock clock) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+        mMaxOpenMillis = maxOpenMillis;
+        mClock = clock;
+        mCurrentOpenMillis = openMillis;
+    }
+
+    /**
+     * @return true if a request may go out now; the caller must then report its outcome with
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onAbandoned()}
+     */
+    synchronized boolean allowRequest() {
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (mClock.currentTimeMillis() < mOpenUntil) {
+                    mRejected++;
+                    return false;
+                }
+                mState = State.HALF_OPEN;
+                Log.d(LOG_TAG, "Half open, letting a trial request through");
+                // fall through to let this caller be the trial
+            case HALF_OPEN:
+            default:
+                if (mTrialInFlight) {
+                    mRejected++;
+                    return false;
+                }
+                mTrialInFlight = true;
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (mState != State.CLOSED) {
+            Log.d(LOG_TAG, "Closed after a successful request");
+        }
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mCurrentOpenMillis = mOpenMillis;
+        mOpenUntil = 0;
+        mTrialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN) {
+            // the backend is still down, wait longer this time
+            mCurrentOpenMillis = Math.min(mMaxOpenMillis, mCurrentOpenMillis * 2);
+            open();
+        } else if (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold) {
+            open();
+        }
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Reports a request that was given up on before it had an outcome, e.g. because the sync
+     * was cancelled.  If it was the trial, the next caller gets to make one.
+     */
+    synchronized void onAbandoned() {
+        mTrialInFlight = false;
+    }
+
+    private void open() {
+        mState = State.OPEN;
+        mOpenUntil = mClock.currentTimeMillis() + mCurrentOpenMillis;
+        Log.d(LOG_TAG, "Open for " + mCurrentOpenMillis + "ms after " + mConsecutiveFailures + " failures");
+    }
+
+    synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return when the next request will be let through, in milliseconds since the epoch, or 0
+     * if requests aren't being refused
+     */
+    synchronized long getRetryAt() {
+        return mState == State.OPEN ? mOpenUntil : 0;
+    }
+
+    /**
+     * @return the number of requests refused since the breaker was created
+     */
+    synchronized int getRejectedCount() {
+        return mRejected;
+    }
+
+    int getFailureThreshold() {
+        return mFailureThreshold;
+    }
+}
@@ -0,0 +1,150 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.ant.sunshine.app.test.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Forecast days pushed by the server for one or more locations, ready to be written with
+ * {@link WeatherContract.WeatherEntry#METHOD_APPLY_FORECAST_DELTA}.
+ * <p/>
+ * The message is a JSON object with the days of each location setting, named like in the
+ * forecast responses:
+ * <pre>
+ * {"94043": [{"dt": 1419120000, "id": 800, "main": "Clear", "max": 15.2, "min": 5.1,
+ *             "humidity": 60, "pressure": 1010, "speed": 3.5, "deg": 10}]}
+ * </pre>
+ * Every day has to carry every value, since it may be a day there is no row for yet, and the
+ * values have to make sense; one bad day rejects the whole message.
+ */
+final class ForecastDelta {
+
+    static final int MAX_LOCATIONS = 20;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // the days of each location by normalized date, so a newer push of a day replaces the older
+    private final Map<String, Map<Long, ContentValues>> mDays = new LinkedHashMap<>();
+
+    private ForecastDelta() {
+    }
+
+    /**
+     * @param now the current time, days from yesterday to {@link ForecastSyncTask#NUM_DAYS}
+     *            days ahead of it are accepted
+     * @throws JSONException if the message is malformed or any of its days is invalid
+     */
+    static ForecastDelta parse(String json, long now) throws JSONException {
+        JSONObject locations = new JSONObject(json);
+        if (locations.length() == 0 || locations.length() > MAX_LOCATIONS) {
+            throw new JSONException("Expected 1 to " + MAX_LOCATIONS + " locations, got " + locations.length());
+        }
+        long today = WeatherContract.normalizeDate(now);
+        long firstDate = today - DAY_IN_MILLIS;
+        long lastDate = today + ForecastSyncTask.NUM_DAYS * DAY_IN_MILLIS;
+        ForecastDelta delta = new ForecastDelta();
+        Iterator<String> keys = locations.keys();
+        while (keys.hasNext()) {
+            String locationSetting = keys.next();
+            if (locationSetting.isEmpty()) {
+                throw new JSONException("Empty location setting");
+            }
+            JSONArray days = locations.getJSONArray(locationSetting);
+            if (days.length() == 0 || days.length() > ForecastSyncTask.NUM_DAYS) {
+                throw new JSONException("Expected 1 to " + ForecastSyncTask.NUM_DAYS + " days for "
+                        + locationSetting + ", got " + days.length());
+            }
+            Map<Long, ContentValues> byDate = new LinkedHashMap<>();
+            for (int i = 0; i < days.length(); i++) {
+                ContentValues day = parseDay(days.getJSONObject(i), firstDate, lastDate);
+                byDate.put(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE), day);
+            }
+            delta.mDays.put(locationSetting, byDate);
+        }
+        return delta;
+    }
+
+    private static ContentValues parseDay(JSONObject day, long firstDate, long lastDate) throws JSONException {
+        long date = WeatherContract.normalizeDate(day.getLong(SunshineSyncAdapter.JSON_KEY_DT) * 1000);
+        if (date < firstDate || date > lastDate) {
+            throw new JSONException("Day " + date + " out of the forecast range");
+        }
+        int weatherId = day.getInt(SunshineSyncAdapter.JSON_KEY_ID);
+        String description = day.getString(SunshineSyncAdapter.JSON_KEY_MAIN);
+        double high = day.getDouble(SunshineSyncAdapter.JSON_KEY_MAX);
+        double low = day.getDouble(SunshineSyncAdapter.JSON_KEY_MIN);
+        double humidity = day.getDouble(SunshineSyncAdapter.JSON_KEY_HUMIDITY);
+        double pressure = day.getDouble(SunshineSyncAdapter.JSON_KEY_PRESSURE);
+        double windSpeed = day.getDouble(SunshineSyncAdapter.JSON_KEY_SPEED);
+        double degrees = day.getDouble(SunshineSyncAdapter.JSON_KEY_DEG);
+        // the weather condition codes run from 200 (thunderstorm) to 962 (hurricane)
+        if (weatherId < 200 || weatherId >= 1000) {
+            throw new JSONException("Unknown weather id " + weatherId);
+        }
+        if (low > high || high > 100 || low < -100) {
+            throw new JSONException("Temperatures out of range: " + low + " to " + high);
+        }
+        if (humidity < 0 || humidity > 100 || pressure <= 0 || windSpeed < 0 || degrees < 0 || degrees > 360) {
+            throw new JSONException("Values out of range on day " + date);
+        }
+
+        ContentValues values = new ContentValues(9);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, degrees);
+        return values;
+    }
+
+    /**
+     * Adds the days of a later push, which replace the ones of the same date.
+     */
+    void merge(ForecastDelta newer) {
+        for (Map.Entry<String, Map<Long, ContentValues>> entry : newer.mDays.entrySet()) {
+            Map<Long, ContentValues> byDate = mDays.get(entry.getKey());
+            if (byDate == null) {
+                mDays.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+            } else {
+                byDate.putAll(entry.getValue());
+            }
+        }
+    }
+
+    int getLocationCount() {
+        return mDays.size();
+    }
+
+    int getDayCount() {
+        int days = 0;
+        for (Map<Long, ContentValues> byDate : mDays.values()) {
+            days += byDate.size();
+        }
+        return days;
+    }
+
+    /**
+     * @return the extras for {@link WeatherContract.WeatherEntry#METHOD_APPLY_FORECAST_DELTA}
+     */
+    Bundle toExtras() {
+        Bundle extras = new Bundle();
+        for (Map.Entry<String, Map<Long, ContentValues>> entry : mDays.entrySet()) {
+            Collection<ContentValues> days = entry.getValue().values();
+            extras.putParcelableArray(entry.getKey(), days.toArray(new ContentValues[days.size()]));
+        }
+        return extras;
+    }
+}
@@ -0,0 +1,304 @@
+package com.ant.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streaming reader for the OpenWeatherMap daily forecast response.
+ * <p/>
+ * Instead of buffering the whole body into a String and building a {@link org.json.JSONObject}
+ * tree, the "city" section and every element of the "list" array are handed to a
+ * {@link Listener} as soon as they have been read, so the memory used while parsing no longer
+ * grows with the size of the response.
+ */
+public class ForecastJsonParser {
+
+    /**
+     * Receives the parts of the forecast as they are read from the stream.
+     */
+    public interface Listener {
+        /**
+         * Called with the value of the "cod" field, if the response carries one.
+         */
+        void onResponseCode(int code);
+
+        /**
+         * Called once the "city" section has been read.
+         */
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * Called for every element of the "list" array.  The {@link Day} instance is reused
+         * between calls, so listeners must copy out whatever they want to keep.
+         */
+        void onDay(Day day);
+    }
+
+    /**
+     * One day of forecast, as read from the "list" array.
+     */
+    public static final class Day {
+        // position of the day inside the "list" array, the first one is always today
+        public int index;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double high;
+        public double low;
+        public String description;
+        public int weatherId;
+
+        void reset(int index) {
+            this.index = index;
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            high = 0;
+            low = 0;
+            description = null;
+            weatherId = 0;
+        }
+    }
+
+    // the fields every day must carry, one bit each; a day missing one is rejected rather than
+    // stored with a zero in its place
+    private static final String[] DAY_FIELDS = {
+            SunshineSyncAdapter.JSON_KEY_PRESSURE,
+            SunshineSyncAdapter.JSON_KEY_HUMIDITY,
+            SunshineSyncAdapter.JSON_KEY_SPEED,
+            SunshineSyncAdapter.JSON_KEY_DEG,
+            SunshineSyncAdapter.JSON_KEY_TEMP + "." + SunshineSyncAdapter.JSON_KEY_MAX,
+            SunshineSyncAdapter.JSON_KEY_TEMP + "." + SunshineSyncAdapter.JSON_KEY_MIN,
+            SunshineSyncAdapter.JSON_KEY_WEATHER + "." + SunshineSyncAdapter.JSON_KEY_ID
+    };
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_SPEED = 1 << 2;
+    private static final int FIELD_DEG = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_WEATHER_ID = 1 << 6;
+
+    private final Day mDay = new Day();
+
+    /**
+     * Reads a complete forecast response from the given stream.  The stream is closed when this
+     * method returns.
+     *
+     * @throws IOException   if the stream could not be read (including an empty stream)
+     * @throws JSONException if the response is not the JSON we expect, or a field is missing
+     */
+    public void parse(InputStream inputStream, Listener listener) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            readForecast(reader, listener);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // same contract as the JSONObject based parsing: a body we can't understand is
+            // reported as invalid JSON, not as a network error
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Supplies a {@link Listener} for every forecast of a group response.
+     */
+    public interface GroupListener {
+        /**
+         * @param index position of the forecast inside the group's "list" array
+         * @return the listener for that forecast
+         */
+        Listener onForecast(int index);
+    }
+
+    /**
+     * Reads a group response, whose "list" array holds one complete daily forecast per
+     * requested location, streaming each of them to the listener the group hands out.  The
+     * stream is closed when this method returns.
+     *
+     * @return the number of forecasts read
+     * @throws IOException   if the stream could not be read (including an empty stream)
+     * @throws JSONException if the response is not the JSON we expect, or a field is missing
+     */
+    public int parseGroup(InputStream inputStream, GroupListener groupListener) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        int count = 0;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (SunshineSyncAdapter.JSON_KEY_LIST.equals(reader.nextName())) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readForecast(reader, groupListener.onForecast(count++));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private void readForecast(JsonReader reader, Listener listener) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (SunshineSyncAdapter.JSON_KEY_COD.equals(name)) {
+                listener.onResponseCode(reader.nextInt());
+            } else if (SunshineSyncAdapter.JSON_QUERY_CITY.equals(name)) {
+                readCity(reader, listener);
+            } else if (SunshineSyncAdapter.JSON_KEY_LIST.equals(name)) {
+                readDays(reader, listener);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readCity(JsonReader reader, Listener listener) throws IOException {
+        String cityName = null;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (SunshineSyncAdapter.JSON_KEY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (SunshineSyncAdapter.JSON_KEY_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (SunshineSyncAdapter.JSON_KEY_LAT.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (SunshineSyncAdapter.JSON_KEY_LON.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null) {
+            throw new IllegalStateException("No city name in forecast");
+        }
+        if (Double.isNaN(lat) || Double.isNaN(lon)) {
+            throw new IllegalStateException("No coordinates for " + cityName);
+        }
+        listener.onCity(cityName, lat, lon);
+    }
+
+    private void readDays(JsonReader reader, Listener listener) throws IOException {
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Day day = mDay;
+            day.reset(index++);
+            int fields = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (SunshineSyncAdapter.JSON_KEY_PRESSURE.equals(name)) {
+                    day.pressure = reader.nextDouble();
+                    fields |= FIELD_PRESSURE;
+                } else if (SunshineSyncAdapter.JSON_KEY_HUMIDITY.equals(name)) {
+                    day.humidity = (int) reader.nextDouble();
+                    fields |= FIELD_HUMIDITY;
+                } else if (SunshineSyncAdapter.JSON_KEY_SPEED.equals(name)) {
+                    day.windSpeed = reader.nextDouble();
+                    fields |= FIELD_SPEED;
+                } else if (SunshineSyncAdapter.JSON_KEY_DEG.equals(name)) {
+                    day.windDirection = reader.nextDouble();
+                    fields |= FIELD_DEG;
+                } else if (SunshineSyncAdapter.JSON_KEY_TEMP.equals(name)) {
+                    fields |= readTemperature(reader, day);
+                } else if (SunshineSyncAdapter.JSON_KEY_WEATHER.equals(name)) {
+                    fields |= readWeather(reader, day);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (day.description == null) {
+                throw new IllegalStateException("No weather description for day " + day.index);
+            }
+            for (int i = 0; i < DAY_FIELDS.length; i++) {
+                if ((fields & (1 << i)) == 0) {
+                    throw new IllegalStateException("No " + DAY_FIELDS[i] + " for day " + day.index);
+                }
+            }
+            listener.onDay(day);
+        }
+        reader.endArray();
+    }
+
+    // returns the FIELD_ bits of the values read
+    private int readTemperature(JsonReader reader, Day day) throws IOException {
+        int fields = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (SunshineSyncAdapter.JSON_KEY_MAX.equals(name)) {
+                day.high = reader.nextDouble();
+                fields |= FIELD_MAX;
+            } else if (SunshineSyncAdapter.JSON_KEY_MIN.equals(name)) {
+                day.low = reader.nextDouble();
+                fields |= FIELD_MIN;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    // Description is in a child array called "weather", which is 1 element long.
+    // That element also contains a weather code.
+    private int readWeather(JsonReader reader, Day day) throws IOException {
+        int fields = 0;
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (SunshineSyncAdapter.JSON_KEY_MAIN.equals(name)) {
+                    day.description = reader.nextString();
+                } else if (SunshineSyncAdapter.JSON_KEY_ID.equals(name)) {
+                    day.weatherId = reader.nextInt();
+                    fields |= FIELD_WEATHER_ID;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        return fields;
+    }
+}
@@ -0,0 +1,127 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.ant.sunshine.app.R;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks which locations besides the preferred one the periodic sync refreshes, so that switching
+ * to them is served from the database.
+ * <p/>
+ * The {@link RecentLocations} come first, most recent first, then the other saved locations,
+ * newest first.  A pass prefetches at most {@link #getMaxLocations(Context) so many} of them,
+ * and no more than fit in {@link #getMaxBytes(Context) the byte budget} at what a prefetched
+ * forecast cost on average so far.  Both limits are kept in the default shared preferences.
+ */
+final class ForecastPrefetcher {
+
+    private static final String LOG_TAG = ForecastPrefetcher.class.getSimpleName();
+
+    static final int DEFAULT_MAX_LOCATIONS = 5;
+    static final long DEFAULT_MAX_BYTES = 64 * 1024;
+    // what a forecast is assumed to cost until one has been prefetched
+    static final long DEFAULT_LOCATION_BYTES = 4 * 1024;
+
+    private ForecastPrefetcher() {
+    }
+
+    /**
+     * @param preferred       the preferred location, synced whatever the budget
+     * @param recent          the recently picked locations, most recent first
+     * @param saved           the other saved locations, in the order to prefetch them
+     * @param bytesPerLocation what prefetching one location is expected to cost
+     * @return the locations to prefetch, without the preferred one
+     */
+    static List<String> select(String preferred, List<String> recent, List<String> saved,
+                               int maxLocations, long maxBytes, long bytesPerLocation) {
+        long affordable = maxBytes / Math.max(1, bytesPerLocation);
+        int limit = (int) Math.min(maxLocations, affordable);
+        Set<String> candidates = new LinkedHashSet<>(recent);
+        candidates.addAll(saved);
+        candidates.remove(preferred);
+        List<String> selected = new ArrayList<>(Math.max(0, Math.min(limit, candidates.size())));
+        for (String location : candidates) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            selected.add(location);
+        }
+        return selected;
+    }
+
+    /**
+     * @return the locations for a periodic sync: the preferred one, then the ones to prefetch
+     */
+    static List<String> getLocations(Context context) {
+        List<String> saved = SavedLocations.get(context);
+        // the preferred location first, then the location table oldest first
+        String preferred = saved.remove(0);
+        List<String> newestFirst = new ArrayList<>(saved.size());
+        for (int i = saved.size() - 1; i >= 0; i--) {
+            newestFirst.add(saved.get(i));
+        }
+        List<String> locations = new ArrayList<>();
+        locations.add(preferred);
+        locations.addAll(select(preferred, RecentLocations.get(context), newestFirst,
+                getMaxLocations(context), getMaxBytes(context), getBytesPerLocation(context)));
+        return locations;
+    }
+
+    /**
+     * Counts what the prefetched locations of a periodic sync cost.
+     */
+    static void onSyncFinished(Context context, String preferred, Map<String, ForecastSyncTask.Result> results) {
+        int prefetched = 0;
+        long bytes = 0;
+        for (Map.Entry<String, ForecastSyncTask.Result> entry : results.entrySet()) {
+            if (!entry.getKey().equals(preferred)) {
+                prefetched++;
+                bytes += entry.getValue().wireBytes;
+            }
+        }
+        SyncTelemetry telemetry = SyncTelemetry.getInstance(context);
+        telemetry.increment(SyncTelemetry.COUNTER_PREFETCH_LOCATIONS, prefetched);
+        telemetry.increment(SyncTelemetry.COUNTER_PREFETCH_BYTES, bytes);
+        long hits = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_HITS);
+        long picks = hits + telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_MISSES);
+        Log.d(LOG_TAG, "Prefetched " + prefetched + " locations for " + bytes + " bytes, "
+                + hits + " of " + picks + " picked locations were already stored");
+    }
+
+    static int getMaxLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(context.getString(R.string.pref_prefetch_max_locations_key), DEFAULT_MAX_LOCATIONS);
+    }
+
+    static long getMaxBytes(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getLong(context.getString(R.string.pref_prefetch_max_bytes_key), DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Sets the prefetch budget of every periodic sync from now on.
+     */
+    static void setBudget(Context context, int maxLocations, long maxBytes) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_prefetch_max_locations_key), maxLocations)
+                .putLong(context.getString(R.string.pref_prefetch_max_bytes_key), maxBytes)
+                .apply();
+    }
+
+    private static long getBytesPerLocation(Context context) {
+        SyncTelemetry telemetry = SyncTelemetry.getInstance(context);
+        long locations = telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_LOCATIONS);
+        // a run of 304s makes prefetching cheap, and the budget stretches accordingly
+        return locations > 0
+                ? telemetry.getCount(SyncTelemetry.COUNTER_PREFETCH_BYTES) / locations : DEFAULT_LOCATION_BYTES;
+    }
+}
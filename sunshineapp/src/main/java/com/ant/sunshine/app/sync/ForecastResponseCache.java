@@ -0,0 +1,213 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of the validators ({@code ETag} / {@code Last-Modified}) returned with every
+ * forecast response.  Replaying them as a conditional GET lets the server answer
+ * {@code 304 Not Modified}, in which case the sync skips the parse and database stages entirely.
+ * <p/>
+ * Entries are keyed by the request {@link Uri} without the APPID, so rotating the API key doesn't
+ * throw the cache away.  The body itself is not kept: the parsed rows already live in the weather
+ * database.
+ */
+public class ForecastResponseCache {
+
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+    private static final String DIRECTORY_NAME = "forecast-responses";
+    private static final String ENTRY_SUFFIX = ".validators";
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    /**
+     * Validators stored for one request.
+     */
+    public static final class Entry {
+        public final String etag;
+        public final String lastModified;
+
+        public Entry(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public ForecastResponseCache(File directory) {
+        mDirectory = directory;
+    }
+
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastResponseCache(
+                    new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the stored validators for the request, or null if there are none
+     */
+    public synchronized Entry get(Uri uri) {
+        File file = fileFor(uri);
+        if (!file.exists()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading cache entry for " + keyFor(uri), e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+        String etag = properties.getProperty(HEADER_ETAG);
+        String lastModified = properties.getProperty(HEADER_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        return new Entry(etag, lastModified);
+    }
+
+    /**
+     * Stores the validators of a response.  A response that carries neither header removes any
+     * previous entry, since it can't be revalidated anyway.
+     */
+    public synchronized void put(Uri uri, String etag, String lastModified) {
+        if (etag == null && lastModified == null) {
+            remove(uri);
+            return;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create " + mDirectory);
+            return;
+        }
+        Properties properties = new Properties();
+        if (etag != null) {
+            properties.setProperty(HEADER_ETAG, etag);
+        }
+        if (lastModified != null) {
+            properties.setProperty(HEADER_LAST_MODIFIED, lastModified);
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(fileFor(uri));
+            properties.store(out, keyFor(uri));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing cache entry for " + keyFor(uri), e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    public synchronized void remove(Uri uri) {
+        File file = fileFor(uri);
+        if (file.exists() && !file.delete()) {
+            Log.e(LOG_TAG, "Unable to delete " + file);
+        }
+    }
+
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mHitCount.set(0);
+        mMissCount.set(0);
+    }
+
+    /**
+     * Records a response that was answered with {@code 304 Not Modified}.
+     */
+    public void recordHit() {
+        mHitCount.incrementAndGet();
+    }
+
+    /**
+     * Records a response that had to be downloaded in full.
+     */
+    public void recordMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return the request uri with the APPID query parameter stripped
+     */
+    static String keyFor(Uri uri) {
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (SunshineSyncAdapter.APPID.equals(name)) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+
+    private File fileFor(Uri uri) {
+        return new File(mDirectory, hash(keyFor(uri)) + ENTRY_SUFFIX);
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // every Android device ships MD5 and UTF-8, but fall back to something usable anyway
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing cache entry", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.ant.sunshine.app.sync;
+
+import com.ant.sunshine.app.test.DayCalendar;
+import com.ant.sunshine.app.test.ForecastBatch;
+
+import java.net.HttpURLConnection;
+
+/**
+ * {@link ForecastJsonParser.Listener} that turns the streamed forecast into a {@link ForecastBatch}
+ * ready for the provider.  Only the parsed values are kept, never the raw response.
+ */
+class ForecastRowCollector implements ForecastJsonParser.Listener {
+
+    private final DayCalendar mCalendar;
+    private final int mJulianStartDay;
+    private final ForecastBatch mBatch = new ForecastBatch();
+
+    private int mResponseCode = HttpURLConnection.HTTP_OK;
+    private String mCityName;
+    private double mCityLatitude;
+    private double mCityLongitude;
+
+    /**
+     * @param calendar       converts julian days to millis
+     * @param julianStartDay the julian day of the first element of the "list" array
+     */
+    ForecastRowCollector(DayCalendar calendar, int julianStartDay) {
+        mCalendar = calendar;
+        mJulianStartDay = julianStartDay;
+    }
+
+    @Override
+    public void onResponseCode(int code) {
+        mResponseCode = code;
+    }
+
+    @Override
+    public void onCity(String cityName, double lat, double lon) {
+        mCityName = cityName;
+        mCityLatitude = lat;
+        mCityLongitude = lon;
+    }
+
+    @Override
+    public void onDay(ForecastJsonParser.Day day) {
+        mBatch.add(mCalendar.getStartOfJulianDay(mJulianStartDay + day.index), day.weatherId, day.description,
+                day.low, day.high, day.humidity, day.pressure, day.windSpeed, day.windDirection);
+    }
+
+    int getResponseCode() {
+        return mResponseCode;
+    }
+
+    boolean hasCity() {
+        return mCityName != null;
+    }
+
+    String getCityName() {
+        return mCityName;
+    }
+
+    double getCityLatitude() {
+        return mCityLatitude;
+    }
+
+    double getCityLongitude() {
+        return mCityLongitude;
+    }
+
+    int getRowCount() {
+        return mBatch.size();
+    }
+
+    /**
+     * @return the days parsed so far, dated in the default time zone
+     */
+    ForecastBatch getBatch() {
+        return mBatch;
+    }
+}
@@ -0,0 +1,347 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.BuildConfig;
+import com.ant.sunshine.app.test.DayCalendar;
+import com.ant.sunshine.app.test.ForecastBatch;
+import com.ant.sunshine.app.test.LocationIdCache;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches, parses and stores the forecast of a single location.  This is the part of the sync
+ * that talks to OpenWeatherMap and the weather database; the fan-out to widgets, Muzei, the
+ * notification and the wearable stays in {@link SunshineSyncAdapter}.
+ */
+class ForecastSyncTask {
+
+    private static final String LOG_TAG = ForecastSyncTask.class.getSimpleName();
+
+    static final String FORMAT = "json";
+    static final String UNITS = "metric";
+    static final int NUM_DAYS = 14;
+
+    private static final String[] STORED_FORECAST_PROJECTION = new String[]{
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID
+    };
+
+    /**
+     * Outcome of syncing one location.
+     */
+    static final class Result {
+        @Utility.LocationStatus
+        int status = Utility.LOCATION_STATUS_UNKNOWN;
+        // the server answered 304, nothing was parsed or written
+        boolean notModified;
+        // forecast days that were new or differed from the stored ones
+        int rowsWritten;
+        // days we had no forecast for yet, e.g. the one that came into range since the last sync
+        int newDays;
+        // largest change of a day's high or low against the stored forecast, in degrees
+        double maxTemperatureChange;
+        // response body size on the wire and after decompression
+        long wireBytes;
+        long bodyBytes;
+        // time spent in each stage, in milliseconds: waiting for the response headers, reading
+        // and parsing the body, waiting for the persist thread and writing to the database
+        long fetchMillis;
+        long parseMillis;
+        long persistQueueMillis;
+        long persistMillis;
+        // parts of persisting: finding the location, and the call that adds it if
+        // needed, writes the days and drops the days gone by
+        long addLocationMillis;
+        long bulkInsertMillis;
+        // forecast days in the response
+        int rowsParsed;
+    }
+
+    private final Context mContext;
+    private final String mBaseUrl;
+    private final WeatherTransport mTransport;
+    private final ForecastResponseCache mResponseCache;
+    private final SyncStages mStages;
+
+    ForecastSyncTask(Context context, String baseUrl, WeatherTransport transport,
+                     ForecastResponseCache responseCache) {
+        this(context, baseUrl, transport, responseCache, SyncStages.getInstance());
+    }
+
+    ForecastSyncTask(Context context, String baseUrl, WeatherTransport transport,
+                     ForecastResponseCache responseCache, SyncStages stages) {
+        mContext = context;
+        mBaseUrl = baseUrl;
+        mTransport = transport;
+        mResponseCache = responseCache;
+        mStages = stages;
+    }
+
+    Result sync(String locationSetting) {
+        Result result = new Result();
+        Uri builtUri = getUriFromParams(locationSetting, FORMAT, UNITS, NUM_DAYS);
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        WeatherTransport.Response response = null;
+
+        try {
+            // Only revalidate when we still have the rows the validators describe, otherwise a
+            // 304 would leave the user looking at an empty list.
+            ForecastResponseCache.Entry cached = hasStoredForecast(locationSetting)
+                    ? mResponseCache.get(builtUri) : null;
+            long fetchStart = System.nanoTime();
+            response = mTransport.get(builtUri, conditionalHeaders(cached));
+            result.fetchMillis = millisSince(fetchStart);
+
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mResponseCache.recordHit();
+                Log.d(LOG_TAG, "Forecast not modified for " + locationSetting);
+                result.notModified = true;
+                result.status = Utility.LOCATION_STATUS_OK;
+                return result;
+            }
+            mResponseCache.recordMiss();
+
+            // OWM reports errors such as an unknown city in the body, so read it either way
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                throw new IOException("Empty response, HTTP " + response.getCode());
+            }
+            processInputStream(locationSetting, inputStream, result);
+
+            if (result.status == Utility.LOCATION_STATUS_OK) {
+                mResponseCache.put(builtUri,
+                        response.getHeader(ForecastResponseCache.HEADER_ETAG),
+                        response.getHeader(ForecastResponseCache.HEADER_LAST_MODIFIED));
+            }
+        } catch (ResilientWeatherTransport.CircuitOpenException e) {
+            Log.d(LOG_TAG, "Not syncing " + locationSetting + ": " + e.getMessage());
+            result.status = Utility.LOCATION_STATUS_SERVER_DOWN;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = Utility.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = Utility.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (response != null) {
+                result.wireBytes = response.getWireBytes();
+                result.bodyBytes = response.getBodyBytes();
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+        return result;
+    }
+
+    Uri getUriFromParams(String locationQuery, String format, String units, int numDays) {
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(SunshineSyncAdapter.QUERY_PARAM_DEFAULT, locationQuery)
+                .appendQueryParameter(SunshineSyncAdapter.MODE, format)
+                .appendQueryParameter(SunshineSyncAdapter.UNITS, units)
+                .appendQueryParameter(SunshineSyncAdapter.CNT, Integer.toString(numDays))
+                .appendQueryParameter(SunshineSyncAdapter.APPID, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * @return the conditional GET headers replaying the cached validators, none without them
+     */
+    static Map<String, String> conditionalHeaders(ForecastResponseCache.Entry cached) {
+        if (cached == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> headers = new HashMap<>(2);
+        if (cached.etag != null) {
+            headers.put(ForecastResponseCache.HEADER_IF_NONE_MATCH, cached.etag);
+        }
+        if (cached.lastModified != null) {
+            headers.put(ForecastResponseCache.HEADER_IF_MODIFIED_SINCE, cached.lastModified);
+        }
+        return headers;
+    }
+
+    ForecastResponseCache getResponseCache() {
+        return mResponseCache;
+    }
+
+    /**
+     * @return true if the location has a forecast from today on stored, the rows a 304 leaves
+     * in place
+     */
+    boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, System.currentTimeMillis()),
+                STORED_FORECAST_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Parses the forecast while it is being downloaded.  An empty stream surfaces as an
+     * {@link java.io.EOFException} from the parser, which is reported as the server being down.
+     */
+    private void processInputStream(String locationSetting, InputStream inputStream, Result result)
+            throws IOException, JSONException {
+        long parseStart = System.nanoTime();
+        ForecastRowCollector collector = newRowCollector();
+        new ForecastJsonParser().parse(inputStream, collector);
+        result.parseMillis = millisSince(parseStart);
+        persist(collector, locationSetting, result);
+    }
+
+    /**
+     * @return the milliseconds passed since the given {@link System#nanoTime()}
+     */
+    static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Stores a parsed forecast on the persist stage, see {@link SyncStages}.
+     */
+    void persist(final ForecastRowCollector collector, final String locationSetting,
+                 final Result result) throws JSONException {
+        mStages.persist(new Callable<Void>() {
+            @Override
+            public Void call() throws JSONException {
+                storeWeatherData(collector, locationSetting, result);
+                return null;
+            }
+        }, result);
+    }
+
+    /**
+     * @return a collector that dates the streamed days starting from today
+     */
+    static ForecastRowCollector newRowCollector() {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        DayCalendar calendar = DayCalendar.getInstance();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = calendar.getJulianDay(System.currentTimeMillis());
+
+        return new ForecastRowCollector(calendar, julianStartDay);
+    }
+
+    /**
+     * Take the rows streamed out of the forecast response and store them, together with the
+     * location they belong to, in the database.
+     */
+    void storeWeatherData(ForecastRowCollector collector, String locationSetting,
+                                  Result result) throws JSONException {
+        // do we have an error?
+        switch (collector.getResponseCode()) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                result.status = Utility.LOCATION_STATUS_INVALID;
+                return;
+            default:
+                result.status = Utility.LOCATION_STATUS_SERVER_DOWN;
+                return;
+        }
+
+        if (!collector.hasCity()) {
+            throw new JSONException("No value for " + SunshineSyncAdapter.JSON_QUERY_CITY);
+        }
+
+        long addLocationStart = System.nanoTime();
+        ContentValues location = null;
+        if (LocationIdCache.getLocationId(mContext, locationSetting) == -1) {
+            location = newLocationValues(locationSetting, collector.getCityName(),
+                    collector.getCityLatitude(), collector.getCityLongitude());
+        }
+        result.addLocationMillis = millisSince(addLocationStart);
+
+        // Insert the new weather information into the database
+        ForecastBatch batch = collector.getBatch();
+        result.rowsParsed = batch.size();
+
+        // the location, its days and dropping its days before today, so we don't build up an
+        // endless history, go in as one call: one transaction and one notification, with the
+        // days bound from the batch's arrays.  Only the days that changed are written.
+        int rowsWritten = 0;
+        long bulkInsertStart = System.nanoTime();
+        if (batch.size() > 0) {
+            Bundle extras = batch.toBundle();
+            if (location != null) {
+                extras.putParcelable(WeatherContract.WeatherEntry.EXTRA_LOCATION, location);
+            }
+            Bundle written = mContext.getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST, locationSetting, extras);
+            if (written != null) {
+                rowsWritten = written.getInt(WeatherContract.WeatherEntry.RESULT_ROWS_WRITTEN);
+                result.newDays = written.getInt(WeatherContract.WeatherEntry.RESULT_NEW_DAYS);
+                result.maxTemperatureChange =
+                        written.getDouble(WeatherContract.WeatherEntry.RESULT_MAX_TEMPERATURE_CHANGE);
+            }
+        }
+        result.bulkInsertMillis = millisSince(bulkInsertStart);
+        Log.d(LOG_TAG, "Sync Complete. " + rowsWritten + " of " + batch.size() + " rows written");
+        result.rowsWritten = rowsWritten;
+        result.status = Utility.LOCATION_STATUS_OK;
+    }
+
+    /**
+     * Helper method to build the row of a new location in the weather database.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName        A human-readable city name, e.g "Mountain View"
+     * @param lat             the latitude of the city
+     * @param lon             the longitude of the city
+     * @return the row, to go in with the location's forecast
+     */
+    static ContentValues newLocationValues(String locationSetting, String cityName,
+                                           double lat, double lon) {
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        // The provider inserts it in the transaction that writes the days.
+        return locationValues;
+    }
+}
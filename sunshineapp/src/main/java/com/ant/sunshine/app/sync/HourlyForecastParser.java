@@ -0,0 +1,139 @@
+package com.ant.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.ant.sunshine.app.test.HourlyForecastBatch;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Streaming reader for the OpenWeatherMap 3 hour forecast response.
+ * <p/>
+ * Like {@link ForecastJsonParser}, but every slot of the "list" array goes straight into an
+ * {@link HourlyForecastBatch} as primitives: nothing is kept per slot besides what the
+ * {@link JsonReader} needs, and the descriptions are skipped, as they follow from the weather id.
+ */
+class HourlyForecastParser {
+
+    /**
+     * Reads a complete response from the given stream into the batch, after clearing it.  The
+     * stream is closed when this method returns.
+     *
+     * @return the value of the "cod" field, {@link HttpURLConnection#HTTP_OK} if there is none
+     * @throws IOException   if the stream could not be read (including an empty stream)
+     * @throws JSONException if the response is not the JSON we expect
+     */
+    int parse(InputStream inputStream, HourlyForecastBatch batch) throws IOException, JSONException {
+        batch.clear();
+        int code = HttpURLConnection.HTTP_OK;
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (SunshineSyncAdapter.JSON_KEY_COD.equals(name)) {
+                    code = reader.nextInt();
+                } else if (SunshineSyncAdapter.JSON_KEY_LIST.equals(name)) {
+                    readSlots(reader, batch);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+        return code;
+    }
+
+    private void readSlots(JsonReader reader, HourlyForecastBatch batch) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            long time = 0;
+            int weatherId = 0;
+            double temp = 0;
+            double humidity = 0;
+            double pressure = 0;
+            double windSpeed = 0;
+            double degrees = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (SunshineSyncAdapter.JSON_KEY_DT.equals(name)) {
+                    time = reader.nextLong() * 1000;
+                } else if (SunshineSyncAdapter.JSON_KEY_MAIN.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String mainName = reader.nextName();
+                        if (SunshineSyncAdapter.JSON_KEY_TEMP.equals(mainName)) {
+                            temp = reader.nextDouble();
+                        } else if (SunshineSyncAdapter.JSON_KEY_HUMIDITY.equals(mainName)) {
+                            humidity = reader.nextDouble();
+                        } else if (SunshineSyncAdapter.JSON_KEY_PRESSURE.equals(mainName)) {
+                            pressure = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (SunshineSyncAdapter.JSON_KEY_WIND.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String windName = reader.nextName();
+                        if (SunshineSyncAdapter.JSON_KEY_SPEED.equals(windName)) {
+                            windSpeed = reader.nextDouble();
+                        } else if (SunshineSyncAdapter.JSON_KEY_DEG.equals(windName)) {
+                            degrees = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (SunshineSyncAdapter.JSON_KEY_WEATHER.equals(name)) {
+                    weatherId = readWeatherId(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (time == 0) {
+                throw new IllegalStateException("No time for slot " + batch.size());
+            }
+            batch.add(time, weatherId, temp, humidity, pressure, windSpeed, degrees);
+        }
+        reader.endArray();
+    }
+
+    // the id of the first element of "weather", the others are skipped
+    private int readWeatherId(JsonReader reader) throws IOException {
+        int weatherId = 0;
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (SunshineSyncAdapter.JSON_KEY_ID.equals(reader.nextName())) {
+                    weatherId = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        return weatherId;
+    }
+}
@@ -0,0 +1,132 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.BuildConfig;
+import com.ant.sunshine.app.test.HourlyForecastBatch;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches the 3 hour forecast of a location and replaces the stored one.
+ * <p/>
+ * The response is parsed into an {@link HourlyForecastBatch} that is reused for every sync and
+ * handed to the provider in one call, see {@link WeatherContract.HourlyEntry#METHOD_REPLACE_HOURLY}.
+ * The location has to be stored already, which the daily sync takes care of.
+ */
+class HourlyForecastSyncTask {
+
+    private static final String LOG_TAG = HourlyForecastSyncTask.class.getSimpleName();
+
+    // 5 days in 3 hour steps
+    static final int NUM_SLOTS = HourlyForecastBatch.DEFAULT_CAPACITY;
+
+    private final Context mContext;
+    private final String mBaseUrl;
+    private final WeatherTransport mTransport;
+    private final SyncStages mStages;
+    private final HourlyForecastParser mParser = new HourlyForecastParser();
+    private final HourlyForecastBatch mBatch = new HourlyForecastBatch(NUM_SLOTS);
+
+    HourlyForecastSyncTask(Context context, String baseUrl, WeatherTransport transport) {
+        this(context, baseUrl, transport, SyncStages.getInstance());
+    }
+
+    HourlyForecastSyncTask(Context context, String baseUrl, WeatherTransport transport, SyncStages stages) {
+        mContext = context;
+        mBaseUrl = baseUrl;
+        mTransport = transport;
+        mStages = stages;
+    }
+
+    /**
+     * Syncs one location.  Calls are serialized, as they share the batch.
+     */
+    synchronized ForecastSyncTask.Result sync(final String locationSetting) {
+        ForecastSyncTask.Result result = new ForecastSyncTask.Result();
+        WeatherTransport.Response response = null;
+        try {
+            long fetchStart = System.nanoTime();
+            response = mTransport.get(getUri(locationSetting), Collections.<String, String>emptyMap());
+            result.fetchMillis = ForecastSyncTask.millisSince(fetchStart);
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                throw new IOException("Empty response, HTTP " + response.getCode());
+            }
+            long parseStart = System.nanoTime();
+            int code = mParser.parse(inputStream, mBatch);
+            result.parseMillis = ForecastSyncTask.millisSince(parseStart);
+            result.rowsParsed = mBatch.size();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                result.status = Utility.LOCATION_STATUS_INVALID;
+                return result;
+            } else if (code != HttpURLConnection.HTTP_OK) {
+                result.status = Utility.LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+            persist(locationSetting, result);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            result.status = Utility.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = Utility.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (response != null) {
+                result.wireBytes = response.getWireBytes();
+                result.bodyBytes = response.getBodyBytes();
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+        return result;
+    }
+
+    Uri getUri(String locationQuery) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(SunshineSyncAdapter.QUERY_PARAM_DEFAULT, locationQuery)
+                .appendQueryParameter(SunshineSyncAdapter.MODE, ForecastSyncTask.FORMAT)
+                .appendQueryParameter(SunshineSyncAdapter.UNITS, ForecastSyncTask.UNITS)
+                .appendQueryParameter(SunshineSyncAdapter.CNT, Integer.toString(NUM_SLOTS))
+                .appendQueryParameter(SunshineSyncAdapter.APPID, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    private void persist(final String locationSetting, final ForecastSyncTask.Result result) throws JSONException {
+        mStages.persist(new Callable<Void>() {
+            @Override
+            public Void call() {
+                long bulkInsertStart = System.nanoTime();
+                try {
+                    Bundle written = mContext.getContentResolver().call(
+                            WeatherContract.HourlyEntry.CONTENT_URI,
+                            WeatherContract.HourlyEntry.METHOD_REPLACE_HOURLY, locationSetting, mBatch.toBundle());
+                    result.rowsWritten = written != null
+                            ? written.getInt(WeatherContract.HourlyEntry.RESULT_ROWS_WRITTEN) : 0;
+                    result.status = Utility.LOCATION_STATUS_OK;
+                } catch (IllegalArgumentException e) {
+                    // the daily forecast of this location was never stored
+                    Log.w(LOG_TAG, "No hourly forecast stored for " + locationSetting + ": " + e.getMessage());
+                    result.status = Utility.LOCATION_STATUS_INVALID;
+                }
+                result.bulkInsertMillis = ForecastSyncTask.millisSince(bulkInsertStart);
+                return null;
+            }
+        }, result);
+    }
+}
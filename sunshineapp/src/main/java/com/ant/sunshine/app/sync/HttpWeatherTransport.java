@@ -0,0 +1,152 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link WeatherTransport} on top of {@link HttpURLConnection}.
+ * <p/>
+ * Every request gets bounded connect and read timeouts, so a stalled socket can't pin the sync
+ * thread.  Connections are never disconnected: closing the body, or the response, drains what
+ * is left of the body, which hands the socket back to the platform keep-alive pool for the next
+ * request.  The parsers close the body themselves, so the drain happens there.
+ * <p/>
+ * gzip is negotiated explicitly rather than left to the platform, which would hide the
+ * compressed size; the body is inflated on the fly as the parser reads it, and the bytes on
+ * both sides of the decoder are counted.
+ */
+public class HttpWeatherTransport implements WeatherTransport {
+
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String ENCODING_GZIP = "gzip";
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+    // bodies bigger than this are not worth draining just to keep the socket
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    public HttpWeatherTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public HttpWeatherTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Response get(Uri uri, Map<String, String> requestHeaders) throws IOException {
+        URL url = new URL(uri.toString());
+
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        urlConnection.setRequestMethod(SunshineSyncAdapter.GET);
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        urlConnection.connect();
+        return new HttpResponse(urlConnection, urlConnection.getResponseCode());
+    }
+
+    private static final class HttpResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private InputStream mBody;
+        private ByteCountingInputStream mWireCounter;
+        private ByteCountingInputStream mBodyCounter;
+
+        HttpResponse(HttpURLConnection connection, int code) {
+            mConnection = connection;
+            mCode = code;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream raw = mCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream() : mConnection.getInputStream();
+                if (raw == null) {
+                    return null;
+                }
+                mWireCounter = new ByteCountingInputStream(raw);
+                InputStream decoded = ENCODING_GZIP.equalsIgnoreCase(mConnection.getContentEncoding())
+                        ? new GZIPInputStream(mWireCounter) : mWireCounter;
+                mBodyCounter = new ByteCountingInputStream(decoded);
+                mBody = new DrainingInputStream(mBodyCounter);
+            }
+            return mBody;
+        }
+
+        @Override
+        public long getWireBytes() {
+            return mWireCounter != null ? mWireCounter.getCount() : 0;
+        }
+
+        @Override
+        public long getBodyBytes() {
+            return mBodyCounter != null ? mBodyCounter.getCount() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            InputStream body = getBody();
+            if (body != null) {
+                // nothing left to do if the consumer closed it already
+                body.close();
+            }
+        }
+    }
+
+    /**
+     * The body as handed out: closing it drains what is left, up to {@link #MAX_DRAIN_BYTES},
+     * before closing the connection's stream.  Closing it again does nothing.
+     */
+    private static final class DrainingInputStream extends FilterInputStream {
+        private boolean mClosed;
+
+        DrainingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1) {
+                    drained += read;
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.ant.sunshine.app.sync;
+
+import android.util.Log;
+
+import com.ant.core.Utility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Refreshes several locations in one sync pass.  Locations, or groups of them when a
+ * {@link BatchForecastSyncTask} is given, are fetched on a small, bounded pool so that the round
+ * trips overlap, while each location is still written in its own transaction.  The locations of
+ * a group that can't be fetched in one call go back on the pool one by one.  A location that
+ * fails, even with an unexpected exception, only fails its own result (or its group's).
+ */
+class MultiLocationSyncEngine {
+
+    private static final String LOG_TAG = MultiLocationSyncEngine.class.getSimpleName();
+
+    // stays below the transport's idle connection pool so that every worker keeps its socket
+    static final int DEFAULT_MAX_WORKERS = 4;
+
+    private final ForecastSyncTask mTask;
+    private final BatchForecastSyncTask mBatchTask;
+    private final int mMaxWorkers;
+
+    MultiLocationSyncEngine(ForecastSyncTask task, int maxWorkers) {
+        this(task, null, maxWorkers);
+    }
+
+    /**
+     * An engine that fetches the locations in groups of {@link BatchForecastSyncTask#MAX_BATCH_SIZE}
+     * instead of one by one.
+     */
+    MultiLocationSyncEngine(BatchForecastSyncTask batchTask, int maxWorkers) {
+        this(batchTask.getTask(), batchTask, maxWorkers);
+    }
+
+    private MultiLocationSyncEngine(ForecastSyncTask task, BatchForecastSyncTask batchTask, int maxWorkers) {
+        if (maxWorkers < 1) {
+            throw new IllegalArgumentException("maxWorkers must be at least 1, was " + maxWorkers);
+        }
+        mTask = task;
+        mBatchTask = batchTask;
+        mMaxWorkers = maxWorkers;
+    }
+
+    /**
+     * Syncs all the given locations and waits for them to finish.
+     *
+     * @return the result of every location, in the order they were given
+     */
+    Map<String, ForecastSyncTask.Result> syncAll(List<String> locationSettings) {
+        Map<String, ForecastSyncTask.Result> results = new HashMap<>();
+        if (locationSettings.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mMaxWorkers, locationSettings.size()));
+        try {
+            List<String> singles = mBatchTask != null
+                    ? syncGroups(executor, locationSettings, results) : locationSettings;
+            syncEach(executor, singles, results);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted while syncing " + locationSettings.size() + " locations");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, ForecastSyncTask.Result> ordered = new LinkedHashMap<>();
+        for (String locationSetting : locationSettings) {
+            ForecastSyncTask.Result result = results.get(locationSetting);
+            if (result != null) {
+                ordered.put(locationSetting, result);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Fetches the locations in groups, adding the results of the groups fetched in one call.
+     *
+     * @return the locations left to fetch one by one
+     */
+    private List<String> syncGroups(ExecutorService executor, List<String> locationSettings,
+                                    Map<String, ForecastSyncTask.Result> results) throws InterruptedException {
+        List<List<String>> groups = new ArrayList<>();
+        for (int i = 0; i < locationSettings.size(); i += BatchForecastSyncTask.MAX_BATCH_SIZE) {
+            groups.add(locationSettings.subList(i,
+                    Math.min(locationSettings.size(), i + BatchForecastSyncTask.MAX_BATCH_SIZE)));
+        }
+
+        List<Callable<Map<String, ForecastSyncTask.Result>>> syncs = new ArrayList<>(groups.size());
+        for (final List<String> group : groups) {
+            syncs.add(new Callable<Map<String, ForecastSyncTask.Result>>() {
+                @Override
+                public Map<String, ForecastSyncTask.Result> call() {
+                    return mBatchTask.sync(group);
+                }
+            });
+        }
+        List<String> singles = new ArrayList<>();
+        List<Future<Map<String, ForecastSyncTask.Result>>> futures = executor.invokeAll(syncs);
+        for (int i = 0; i < futures.size(); i++) {
+            Map<String, ForecastSyncTask.Result> groupResults = getResults(groups.get(i), futures.get(i));
+            if (groupResults != null) {
+                results.putAll(groupResults);
+            } else {
+                singles.addAll(groups.get(i));
+            }
+        }
+        return singles;
+    }
+
+    private void syncEach(ExecutorService executor, List<String> locationSettings,
+                          Map<String, ForecastSyncTask.Result> results) throws InterruptedException {
+        List<Callable<Map<String, ForecastSyncTask.Result>>> syncs = new ArrayList<>(locationSettings.size());
+        for (final String locationSetting : locationSettings) {
+            syncs.add(new Callable<Map<String, ForecastSyncTask.Result>>() {
+                @Override
+                public Map<String, ForecastSyncTask.Result> call() {
+                    return Collections.singletonMap(locationSetting, mTask.sync(locationSetting));
+                }
+            });
+        }
+        List<Future<Map<String, ForecastSyncTask.Result>>> futures = executor.invokeAll(syncs);
+        for (int i = 0; i < futures.size(); i++) {
+            results.putAll(getResults(Collections.singletonList(locationSettings.get(i)), futures.get(i)));
+        }
+    }
+
+    private static Map<String, ForecastSyncTask.Result> getResults(List<String> group,
+                                                                  Future<Map<String, ForecastSyncTask.Result>> future)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // e.g. a constraint violation while writing; the other locations carry on
+            Log.e(LOG_TAG, "Sync of " + group + " failed", e.getCause());
+            Map<String, ForecastSyncTask.Result> results = new LinkedHashMap<>();
+            for (String locationSetting : group) {
+                ForecastSyncTask.Result result = new ForecastSyncTask.Result();
+                result.status = Utility.LOCATION_STATUS_SERVER_DOWN;
+                results.put(locationSetting, result);
+            }
+            return results;
+        }
+    }
+}
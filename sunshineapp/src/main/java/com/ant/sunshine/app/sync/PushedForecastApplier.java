@@ -0,0 +1,128 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the forecasts carried by push messages straight into the database, so a pushed update
+ * costs no request to OpenWeatherMap.
+ * <p/>
+ * A message carries a {@link ForecastDelta} under {@link #EXTRA_FORECAST}.  The first valid one
+ * opens a window of {@link #COLLAPSE_WINDOW_MILLIS}; whatever arrives during it is merged in, and
+ * at the end the merged days are written in one transaction, followed by the usual fan-out to the
+ * widgets, Muzei, the notification and the wearable if the preferred location changed.  A burst
+ * of pushes therefore costs one write and one fan-out.  If the process dies inside the window the
+ * days are lost, and the next periodic sync fetches them instead.
+ */
+public final class PushedForecastApplier {
+
+    private static final String LOG_TAG = PushedForecastApplier.class.getSimpleName();
+
+    // key of the forecast delta in the data of a push message
+    public static final String EXTRA_FORECAST = "forecast";
+
+    static final long COLLAPSE_WINDOW_MILLIS = 2000;
+
+    private static PushedForecastApplier sInstance;
+
+    private final Context mContext;
+    private final long mWindowMillis;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    // what arrived since the window opened, null while it is closed
+    private ForecastDelta mPending;
+
+    PushedForecastApplier(Context context, long windowMillis) {
+        mContext = context.getApplicationContext();
+        mWindowMillis = windowMillis;
+    }
+
+    public static synchronized PushedForecastApplier getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PushedForecastApplier(context, COLLAPSE_WINDOW_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues the forecast of a push message, if it has one.
+     *
+     * @return false if the message carries no forecast or an invalid one
+     */
+    public boolean offer(Bundle data) {
+        String json = data.getString(EXTRA_FORECAST);
+        if (json == null) {
+            return false;
+        }
+        SyncTelemetry telemetry = SyncTelemetry.getInstance(mContext);
+        telemetry.increment(SyncTelemetry.COUNTER_PUSHES, 1);
+        ForecastDelta delta;
+        try {
+            delta = ForecastDelta.parse(json, System.currentTimeMillis());
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Rejected pushed forecast: " + e.getMessage());
+            telemetry.increment(SyncTelemetry.COUNTER_PUSHES_REJECTED, 1);
+            return false;
+        }
+        synchronized (this) {
+            if (mPending == null) {
+                mPending = delta;
+                mExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        apply();
+                    }
+                }, mWindowMillis, TimeUnit.MILLISECONDS);
+            } else {
+                mPending.merge(delta);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the forecasts offered so far have been written.
+     */
+    void awaitApplied() throws Exception {
+        // scheduled after the pending write with the same delay, so it runs after it
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, mWindowMillis, TimeUnit.MILLISECONDS).get();
+    }
+
+    private void apply() {
+        ForecastDelta delta;
+        synchronized (this) {
+            delta = mPending;
+            mPending = null;
+        }
+        long start = System.nanoTime();
+        Bundle result = mContext.getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_APPLY_FORECAST_DELTA, null, delta.toExtras());
+        int rowsWritten = result != null ? result.getInt(WeatherContract.WeatherEntry.RESULT_ROWS_WRITTEN) : 0;
+        ArrayList<String> changed = result != null
+                ? result.getStringArrayList(WeatherContract.WeatherEntry.RESULT_LOCATIONS_CHANGED) : null;
+
+        SyncTelemetry telemetry = SyncTelemetry.getInstance(mContext);
+        telemetry.increment(SyncTelemetry.COUNTER_PUSHES_APPLIED, 1);
+        telemetry.increment(SyncTelemetry.COUNTER_ROWS_WRITTEN, rowsWritten);
+        Log.d(LOG_TAG, "Applied " + delta.getDayCount() + " pushed days of " + delta.getLocationCount()
+                + " locations, " + rowsWritten + " rows written in " + ForecastSyncTask.millisSince(start) + "ms");
+        if (changed != null && changed.contains(Utility.getPreferredLocation(mContext))) {
+            SunshineSyncAdapter.fanOut(mContext);
+        }
+        telemetry.save();
+    }
+}
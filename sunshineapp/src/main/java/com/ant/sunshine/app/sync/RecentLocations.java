@@ -0,0 +1,138 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.ant.sunshine.app.R;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The locations the user picked last, from the search box or the map, most recent first.  The
+ * periodic sync prefetches their forecasts, see {@link ForecastPrefetcher}, so that going back
+ * to one of them shows the stored forecast straight away instead of waiting for a fetch.
+ * <p/>
+ * Every pick also counts whether the forecast of the location was already stored, which is the
+ * hit rate of the prefetch, in the {@link SyncTelemetry} counters.  That takes a query and, the
+ * first time, reading the telemetry file, so it happens on a background thread; picks come from
+ * the main thread.
+ */
+public final class RecentLocations {
+
+    private static final String LOG_TAG = RecentLocations.class.getSimpleName();
+
+    static final int MAX_SIZE = 8;
+    // location settings are free text but never span lines
+    private static final String SEPARATOR = "\n";
+
+    private static final String[] WEATHER_ID_PROJECTION = new String[]{
+            WeatherContract.WeatherEntry._ID
+    };
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "RecentLocations");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private RecentLocations() {
+    }
+
+    /**
+     * Moves the location to the front of the recent ones, and counts in the background whether
+     * its forecast was already stored.  Call it before the location is synced; the check is
+     * queued ahead of the sync's fetch, so it sees the forecast as it was before the pick.
+     */
+    public static void onLocationPicked(Context context, final String locationSetting) {
+        if (TextUtils.isEmpty(locationSetting)) {
+            return;
+        }
+        add(context, locationSetting);
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                countPick(appContext, locationSetting);
+            }
+        });
+    }
+
+    /**
+     * Waits until the picks so far are counted.
+     */
+    static void awaitCountedPicks() throws InterruptedException, ExecutionException {
+        sExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    private static void countPick(Context context, String locationSetting) {
+        boolean stored = hasStoredForecast(context, locationSetting);
+        SyncTelemetry.getInstance(context).increment(stored
+                ? SyncTelemetry.COUNTER_PREFETCH_HITS : SyncTelemetry.COUNTER_PREFETCH_MISSES, 1);
+        Log.d(LOG_TAG, "Picked " + locationSetting + ", forecast " + (stored ? "already stored" : "not stored"));
+    }
+
+    static synchronized void add(Context context, String locationSetting) {
+        List<String> locations = get(context);
+        locations.remove(locationSetting);
+        locations.add(0, locationSetting);
+        if (locations.size() > MAX_SIZE) {
+            locations.subList(MAX_SIZE, locations.size()).clear();
+        }
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(context.getString(R.string.pref_recent_locations_key), TextUtils.join(SEPARATOR, locations))
+                .apply();
+    }
+
+    /**
+     * @return the recent locations, most recent first
+     */
+    static synchronized List<String> get(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String joined = prefs.getString(context.getString(R.string.pref_recent_locations_key), null);
+        if (TextUtils.isEmpty(joined)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(joined.split(SEPARATOR)));
+    }
+
+    static synchronized void clear(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .remove(context.getString(R.string.pref_recent_locations_key))
+                .apply();
+    }
+
+    /**
+     * @return whether there is a forecast from today on for the location
+     */
+    static boolean hasStoredForecast(Context context, String locationSetting) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, System.currentTimeMillis()),
+                WEATHER_ID_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+}
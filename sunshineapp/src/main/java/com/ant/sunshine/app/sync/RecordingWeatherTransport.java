@@ -0,0 +1,199 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes every request on to another transport and saves what came back as a
+ * {@link ResponseRecording} in a directory, for {@link ReplayWeatherTransport} to serve later.
+ * <p/>
+ * The body is copied as the caller reads it, so the sync streams and parses exactly as it would
+ * without recording; whatever it leaves unread is read when the response is closed.
+ */
+class RecordingWeatherTransport implements WeatherTransport {
+
+    private static final String LOG_TAG = RecordingWeatherTransport.class.getSimpleName();
+
+    private final WeatherTransport mDelegate;
+    private final File mDirectory;
+    private final AtomicInteger mSequence;
+
+    RecordingWeatherTransport(WeatherTransport delegate, File directory) {
+        mDelegate = delegate;
+        mDirectory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(LOG_TAG, "Can't create " + directory);
+        }
+        // carry on after what is already there, so that recordings of several runs keep their order
+        mSequence = new AtomicInteger(ResponseRecording.readAll(directory).size());
+    }
+
+    @Override
+    public Response get(Uri uri, Map<String, String> requestHeaders) throws IOException {
+        long start = System.nanoTime();
+        Response response = mDelegate.get(uri, requestHeaders);
+        return new RecordingResponse(response, ResponseRecording.keyFor(uri), ForecastSyncTask.millisSince(start));
+    }
+
+    /**
+     * @return the number of responses recorded into the directory so far, earlier runs included
+     */
+    int getRecordedCount() {
+        return mSequence.get();
+    }
+
+    private final class RecordingResponse implements Response {
+        private final Response mResponse;
+        private final String mKey;
+        private final long mFetchMillis;
+        private TeeInputStream mBody;
+        private boolean mHasBody;
+
+        RecordingResponse(Response response, String key, long fetchMillis) {
+            mResponse = response;
+            mKey = key;
+            mFetchMillis = fetchMillis;
+        }
+
+        @Override
+        public int getCode() {
+            return mResponse.getCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mResponse.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (!mHasBody) {
+                mHasBody = true;
+                InputStream body = mResponse.getBody();
+                mBody = body != null ? new TeeInputStream(body) : null;
+            }
+            return mBody;
+        }
+
+        @Override
+        public long getWireBytes() {
+            return mResponse.getWireBytes();
+        }
+
+        @Override
+        public long getBodyBytes() {
+            return mResponse.getBodyBytes();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                TeeInputStream body = (TeeInputStream) getBody();
+                // a parser that read to the end has closed the body already
+                if (body != null && !body.isClosed()) {
+                    byte[] buffer = new byte[4096];
+                    //noinspection StatementWithEmptyBody
+                    while (body.read(buffer) != -1) {
+                        // the rest of the body, which the caller didn't need, goes in the recording too
+                    }
+                }
+                save();
+            } finally {
+                mResponse.close();
+            }
+        }
+
+        private void save() {
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (String name : ResponseRecording.RECORDED_HEADERS) {
+                String value = mResponse.getHeader(name);
+                if (value != null) {
+                    headers.put(name, value);
+                }
+            }
+            ResponseRecording recording = new ResponseRecording(mKey, mResponse.getCode(), headers, mFetchMillis,
+                    mResponse.getWireBytes(), mBody != null ? mBody.getCopy() : null);
+            File file = new File(mDirectory, String.format(Locale.US, "%06d%s",
+                    mSequence.getAndIncrement(), ResponseRecording.FILE_SUFFIX));
+            try {
+                recording.writeTo(file);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Couldn't record " + mKey, e);
+            }
+        }
+    }
+
+    /**
+     * Keeps a copy of everything read through it.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream mCopy = new ByteArrayOutputStream(16 * 1024);
+        private boolean mClosed;
+
+        TeeInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCopy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCopy.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // read rather than skip, the skipped bytes belong in the copy
+            byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+            long skipped = 0;
+            while (skipped < byteCount) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mClosed = true;
+            super.close();
+        }
+
+        boolean isClosed() {
+            return mClosed;
+        }
+
+        byte[] getCopy() {
+            return mCopy.toByteArray();
+        }
+    }
+}
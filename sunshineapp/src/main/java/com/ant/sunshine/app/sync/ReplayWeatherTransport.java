@@ -0,0 +1,142 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves {@link ResponseRecording}s instead of going to the network, so a sync can be run over
+ * and over on exactly the same input.
+ * <p/>
+ * Requests are matched on their path and query without the APPID.  The recordings of a request
+ * are served in the order they were made, starting over after the last one, and the request
+ * headers are ignored: a recorded 304 is replayed as a 304 whatever the sync asks.  In real time
+ * every response waits for as long as the recorded one took to arrive, otherwise replaying only
+ * costs what the app itself does with the response.
+ */
+class ReplayWeatherTransport implements WeatherTransport {
+
+    private final Map<String, List<ResponseRecording>> mRecordings = new HashMap<>();
+    private final Map<String, Integer> mPositions = new HashMap<>();
+    private final boolean mRealTime;
+    private final AtomicInteger mReplayedCount = new AtomicInteger();
+    private final AtomicInteger mMissedCount = new AtomicInteger();
+
+    ReplayWeatherTransport(List<ResponseRecording> recordings, boolean realTime) {
+        for (ResponseRecording recording : recordings) {
+            List<ResponseRecording> forKey = mRecordings.get(recording.key);
+            if (forKey == null) {
+                forKey = new ArrayList<>();
+                mRecordings.put(recording.key, forKey);
+            }
+            forKey.add(recording);
+        }
+        mRealTime = realTime;
+    }
+
+    /**
+     * @return a transport replaying everything recorded into the directory
+     */
+    static ReplayWeatherTransport fromDirectory(File directory, boolean realTime) {
+        return new ReplayWeatherTransport(ResponseRecording.readAll(directory), realTime);
+    }
+
+    @Override
+    public Response get(Uri uri, Map<String, String> requestHeaders) throws IOException {
+        String key = ResponseRecording.keyFor(uri);
+        ResponseRecording recording;
+        synchronized (this) {
+            List<ResponseRecording> forKey = mRecordings.get(key);
+            if (forKey == null) {
+                mMissedCount.incrementAndGet();
+                throw new FileNotFoundException("Nothing recorded for " + key);
+            }
+            Integer position = mPositions.get(key);
+            int next = position != null ? position : 0;
+            recording = forKey.get(next);
+            mPositions.put(key, (next + 1) % forKey.size());
+        }
+        if (mRealTime && recording.fetchMillis > 0) {
+            try {
+                Thread.sleep(recording.fetchMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Replay of " + key + " interrupted");
+            }
+        }
+        mReplayedCount.incrementAndGet();
+        return new ReplayResponse(recording);
+    }
+
+    /**
+     * @return the number of distinct requests there are recordings for
+     */
+    synchronized int getRequestCount() {
+        return mRecordings.size();
+    }
+
+    int getReplayedCount() {
+        return mReplayedCount.get();
+    }
+
+    /**
+     * @return the number of requests nothing was recorded for
+     */
+    int getMissedCount() {
+        return mMissedCount.get();
+    }
+
+    private static final class ReplayResponse implements Response {
+        private final ResponseRecording mRecording;
+        private ByteCountingInputStream mBody;
+
+        ReplayResponse(ResponseRecording recording) {
+            mRecording = recording;
+        }
+
+        @Override
+        public int getCode() {
+            return mRecording.code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mRecording.headers.get(name);
+        }
+
+        @Override
+        public InputStream getBody() {
+            if (mBody == null && mRecording.body != null) {
+                mBody = new ByteCountingInputStream(new ByteArrayInputStream(mRecording.body));
+            }
+            return mBody;
+        }
+
+        @Override
+        public long getWireBytes() {
+            return mRecording.wireBytes;
+        }
+
+        @Override
+        public long getBodyBytes() {
+            return mBody != null ? mBody.getCount() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBody != null) {
+                mBody.close();
+            }
+        }
+    }
+}
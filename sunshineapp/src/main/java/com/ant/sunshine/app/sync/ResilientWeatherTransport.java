@@ -0,0 +1,133 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+
+/**
+ * Retries failed requests to the weather backend according to a {@link RetryPolicy}, and
+ * refuses to make them at all while its {@link CircuitBreaker} is open.
+ * <p/>
+ * Connection errors and 5xx/429 answers are failures; any other answer, 4xx included, is
+ * handed back as it is since asking again wouldn't change it.  When the last attempt still
+ * gets a server error that response is returned, so the caller sees the same thing it would
+ * have without retries.
+ */
+class ResilientWeatherTransport implements WeatherTransport {
+
+    private static final String LOG_TAG = ResilientWeatherTransport.class.getSimpleName();
+
+    static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    static final Sleeper THREAD_SLEEPER = new Sleeper() {
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    static final class CircuitOpenException extends IOException {
+        final long retryAt;
+
+        CircuitOpenException(long retryAt) {
+            super("Weather server marked down until " + retryAt);
+            this.retryAt = retryAt;
+        }
+    }
+
+    private final WeatherTransport mDelegate;
+    private final RetryPolicy mPolicy;
+    private final CircuitBreaker mBreaker;
+    private final Sleeper mSleeper;
+
+    ResilientWeatherTransport(WeatherTransport delegate) {
+        this(delegate, new RetryPolicy(), new CircuitBreaker(), THREAD_SLEEPER);
+    }
+
+    ResilientWeatherTransport(WeatherTransport delegate, RetryPolicy policy, CircuitBreaker breaker,
+                              Sleeper sleeper) {
+        mDelegate = delegate;
+        mPolicy = policy;
+        mBreaker = breaker;
+        mSleeper = sleeper;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return mBreaker;
+    }
+
+    @Override
+    public Response get(Uri uri, Map<String, String> requestHeaders) throws IOException {
+        int attempt = 1;
+        while (true) {
+            if (!mBreaker.allowRequest()) {
+                throw new CircuitOpenException(mBreaker.getRetryAt());
+            }
+            boolean lastAttempt = attempt >= mPolicy.getMaxAttempts();
+            long retryAfterSec = -1;
+            Response response;
+            try {
+                response = mDelegate.get(uri, requestHeaders);
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+                    // the sync was cancelled, which says nothing about the server
+                    mBreaker.onAbandoned();
+                    throw e;
+                }
+                mBreaker.onFailure();
+                if (lastAttempt) {
+                    throw e;
+                }
+                Log.d(LOG_TAG, "Attempt " + attempt + " failed: " + e.getMessage());
+                response = null;
+            }
+            if (response != null) {
+                if (!RetryPolicy.isServerFailure(response.getCode())) {
+                    mBreaker.onSuccess();
+                    return response;
+                }
+                mBreaker.onFailure();
+                if (lastAttempt) {
+                    return response;
+                }
+                Log.d(LOG_TAG, "Attempt " + attempt + " answered HTTP " + response.getCode());
+                retryAfterSec = parseRetryAfter(response.getHeader(HEADER_RETRY_AFTER));
+                response.close();
+            }
+
+            long delay = mPolicy.getDelayMillis(attempt, retryAfterSec);
+            try {
+                mSleeper.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while backing off");
+            }
+            attempt++;
+        }
+    }
+
+    /**
+     * @return the delay in seconds, or -1 if there is none or it is an HTTP date
+     */
+    private static long parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
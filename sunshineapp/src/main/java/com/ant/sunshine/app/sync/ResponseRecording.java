@@ -0,0 +1,151 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One OpenWeatherMap response as {@link RecordingWeatherTransport} saw it: status, the headers
+ * the sync looks at, how long the headers took to arrive, the bytes on the wire and the decoded
+ * body.  {@link ReplayWeatherTransport} serves it back.
+ * <p/>
+ * Every recording is a file of its own, named after the order it was made in, so a corpus can be
+ * pulled off a device, trimmed by hand and pushed to another one.
+ */
+final class ResponseRecording {
+
+    private static final String LOG_TAG = ResponseRecording.class.getSimpleName();
+
+    // under the app's files directory: creating one of them in a debug build turns on recording
+    // or replaying, e.g. adb shell run-as com.ant.sunshine.app mkdir files/owm-record
+    static final String RECORD_DIRECTORY = "owm-record";
+    static final String REPLAY_DIRECTORY = "owm-replay";
+
+    static final String FILE_SUFFIX = ".owm";
+    private static final int FILE_VERSION = 1;
+
+    // all the sync reads from a response
+    static final String[] RECORDED_HEADERS = {
+            ForecastResponseCache.HEADER_ETAG,
+            ForecastResponseCache.HEADER_LAST_MODIFIED,
+            ResilientWeatherTransport.HEADER_RETRY_AFTER
+    };
+
+    final String key;
+    final int code;
+    final Map<String, String> headers;
+    final long fetchMillis;
+    final long wireBytes;
+    // null when the response had none
+    final byte[] body;
+
+    ResponseRecording(String key, int code, Map<String, String> headers, long fetchMillis,
+                      long wireBytes, byte[] body) {
+        this.key = key;
+        this.code = code;
+        this.headers = headers;
+        this.fetchMillis = fetchMillis;
+        this.wireBytes = wireBytes;
+        this.body = body;
+    }
+
+    /**
+     * @return what recordings of the given request are filed under: its path and query without
+     * the APPID, so that a corpus replays against any host and API key
+     */
+    static String keyFor(Uri uri) {
+        Uri stripped = Uri.parse(ForecastResponseCache.keyFor(uri));
+        String query = stripped.getEncodedQuery();
+        return query != null ? stripped.getEncodedPath() + "?" + query : stripped.getEncodedPath();
+    }
+
+    void writeTo(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(key);
+            out.writeInt(code);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+            out.writeLong(fetchMillis);
+            out.writeLong(wireBytes);
+            out.writeInt(body != null ? body.length : -1);
+            if (body != null) {
+                out.write(body);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static ResponseRecording readFrom(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_VERSION) {
+                throw new IOException("Unknown recording version in " + file);
+            }
+            String key = in.readUTF();
+            int code = in.readInt();
+            int headerCount = in.readInt();
+            Map<String, String> headers = new LinkedHashMap<>(headerCount);
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            long fetchMillis = in.readLong();
+            long wireBytes = in.readLong();
+            int bodyLength = in.readInt();
+            byte[] body = null;
+            if (bodyLength >= 0) {
+                body = new byte[bodyLength];
+                in.readFully(body);
+            }
+            return new ResponseRecording(key, code, headers, fetchMillis, wireBytes, body);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads every recording in the directory, in the order they were made.  Files that can't be
+     * read are skipped.
+     */
+    static List<ResponseRecording> readAll(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(FILE_SUFFIX);
+            }
+        });
+        List<ResponseRecording> recordings = new ArrayList<>();
+        if (files == null) {
+            return recordings;
+        }
+        // the names are zero padded sequence numbers
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                recordings.add(readFrom(file));
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Skipping recording " + file, e);
+            }
+        }
+        return recordings;
+    }
+}
@@ -0,0 +1,69 @@
+package com.ant.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * How often and how long to wait before fetching again after a failed request: capped
+ * exponential backoff with full jitter, so that devices which failed at the same moment don't
+ * all come back at the same moment.
+ */
+class RetryPolicy {
+
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000;
+
+    // OWM answers this when the key goes over its rate limit
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, new Random());
+    }
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @return the number of attempts in total, the first one included
+     */
+    int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param retry         1 for the first retry, 2 for the second and so on
+     * @param retryAfterSec the server's Retry-After in seconds, or -1 if it didn't send one
+     * @return how long to wait before the given retry, in milliseconds
+     */
+    long getDelayMillis(int retry, long retryAfterSec) {
+        if (retryAfterSec >= 0) {
+            return Math.min(mMaxDelayMillis, retryAfterSec * 1000);
+        }
+        // base * 2^(retry - 1), without overflowing for silly retry counts
+        long ceiling = mBaseDelayMillis << Math.min(retry - 1, 30);
+        if (ceiling <= 0 || ceiling > mMaxDelayMillis) {
+            ceiling = mMaxDelayMillis;
+        }
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * ceiling);
+        }
+    }
+
+    /**
+     * @return true if a response with this code says the backend is in trouble, rather than
+     * the request being wrong
+     */
+    static boolean isServerFailure(int code) {
+        return code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS;
+    }
+}
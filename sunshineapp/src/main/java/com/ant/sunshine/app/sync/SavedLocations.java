@@ -0,0 +1,45 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.ant.core.Utility;
+import com.ant.sunshine.app.test.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Every location setting the user has looked at, which is exactly what the location table holds,
+ * with the preferred location first.  The periodic sync keeps the ones {@link ForecastPrefetcher}
+ * picks from them fresh.
+ */
+final class SavedLocations {
+
+    private static final String[] LOCATION_SETTING_PROJECTION = new String[]{
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private SavedLocations() {
+    }
+
+    static List<String> get(Context context) {
+        Set<String> locations = new LinkedHashSet<>();
+        locations.add(Utility.getPreferredLocation(context));
+
+        Cursor cursor = context.getContentResolver().query(WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_SETTING_PROJECTION, null, null, WeatherContract.LocationEntry._ID + " ASC");
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    locations.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new ArrayList<>(locations);
+    }
+}
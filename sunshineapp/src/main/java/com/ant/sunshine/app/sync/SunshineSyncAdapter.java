@@ -8,8 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -23,13 +21,11 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
+import com.ant.core.SyncStatusStore;
 import com.ant.core.Utility;
 import com.ant.core.WatchConfigurationPreferences;
 import com.ant.core.WatchfaceSyncCommons;
@@ -37,7 +33,9 @@ import com.bumptech.glide.Glide;
 import com.ant.sunshine.app.BuildConfig;
 import com.ant.sunshine.app.activities.MainActivity;
 import com.ant.sunshine.app.R;
+import com.ant.sunshine.app.test.LocationIdCache;
 import com.ant.sunshine.app.test.WeatherContract;
+import com.ant.sunshine.app.test.WeatherProvider;
 import com.ant.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -48,22 +46,18 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     public static final String HTTP_API_OPENWEATHERMAP_ORG_DATA_2_5_FORECAST_DAILY = "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    public static final String HTTP_API_OPENWEATHERMAP_ORG_DATA_2_5_FORECAST = "http://api.openweathermap.org/data/2.5/forecast?";
     public static final String QUERY_PARAM_DEFAULT = "q";
+    public static final String ID = "id";
     public static final String MODE = "mode";
     public static final String UNITS = "units";
     public static final String CNT = "cnt";
@@ -87,44 +81,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final String JSON_KEY_MAIN = "main";
     public static final String JSON_KEY_ID = "id";
     public static final String JSON_KEY_COD = "cod";
+    public static final String JSON_KEY_DT = "dt";
+    public static final String JSON_KEY_WIND = "wind";
     public static final String GET = "GET";
     private static GoogleApiClient googleApiClient;
+    // shared so that consecutive syncs reuse the same keep-alive connections, and so that the
+    // circuit breaker remembers an outage across syncs, manual refreshes included
+    private static ResilientWeatherTransport sTransport;
+    private static ForecastSyncTask sTask;
+    // kept for the life of the process, so that it remembers whether the group call works; null
+    // unless a group endpoint is configured
+    private static BatchForecastSyncTask sBatchTask;
+    // behind a breaker of its own, so a failing hourly endpoint doesn't mark the daily one down
+    private static HourlyForecastSyncTask sHourlyTask;
+    private static final AtomicInteger sFanOutsSkipped = new AtomicInteger();
 
 
-    // Now we have a String representing the complete forecast in JSON Format.
-    // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-    // into an Object hierarchy for us.
-
-    // These are the names of the JSON objects that need to be extracted.
-
-    // Location information
-    private final String OWM_CITY = JSON_QUERY_CITY;
-    private final String OWM_CITY_NAME = JSON_KEY_NAME;
-    final String OWM_COORD = JSON_KEY_COORD;
-
-    // Location coordinate
-    private final String OWM_LATITUDE = JSON_KEY_LAT;
-    private final String OWM_LONGITUDE = JSON_KEY_LON;
-
-    // Weather information.  Each day's forecast info is an element of the "list" array.
-    private final String OWM_LIST = JSON_KEY_LIST;
-
-    private final String OWM_PRESSURE = JSON_KEY_PRESSURE;
-    private final String OWM_HUMIDITY = JSON_KEY_HUMIDITY;
-    private final String OWM_WINDSPEED = JSON_KEY_SPEED;
-    private final String OWM_WIND_DIRECTION = JSON_KEY_DEG;
-
-    // All temperatures are children of the "temp" object.
-    private final String OWM_TEMPERATURE = JSON_KEY_TEMP;
-    private final String OWM_MAX = JSON_KEY_MAX;
-    private final String OWM_MIN = JSON_KEY_MIN;
-
-    private final String OWM_WEATHER = JSON_KEY_WEATHER;
-    private final String OWM_DESCRIPTION = JSON_KEY_MAIN;
-    private final String OWM_WEATHER_ID = JSON_KEY_ID;
-
-    private final String OWM_MESSAGE_CODE = JSON_KEY_COD;
-
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
@@ -160,7 +132,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         startGoogleApiClient(context);
     }
 
-    private PutDataMapRequest updateDataMapRequest(double high, double low, int weatherId) {
+    private static PutDataMapRequest updateDataMapRequest(double high, double low, int weatherId) {
         PutDataMapRequest putDataMapReq = PutDataMapRequest.create(WatchConfigurationPreferences.PATH);
         WatchConfigurationPreferences configurationPreferences = new WatchConfigurationPreferences.Builder()
                 .addLowTemperature(low)
@@ -177,11 +149,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
 
-    private void processWeatherData(double high, double low, int weatherId) {
+    private static void processWeatherData(Context context, double high, double low, int weatherId) {
         PutDataMapRequest putDataMapReq = updateDataMapRequest(high, low, weatherId);
         PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
         if (googleApiClient == null) {
-            initGoogleApiClient(getContext());
+            // no sync adapter in this process yet, e.g. for a pushed forecast
+            googleApiClient = new GoogleApiClient.Builder(context)
+                    .addApi(Wearable.API)
+                    .build();
+            googleApiClient.connect();
         }
         Wearable.DataApi.putDataItem(googleApiClient, putDataReq).setResultCallback(new ResultCallbacks<DataApi.DataItemResult>() {
             @Override
@@ -203,271 +179,204 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         //String locationQuery = Utility.getPreferredLocation(getContext());
         //LatLng latLng = Utility.getLocation();
         String locQuery = Utility.getPreferredLocation(getContext());
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
+        // set when the sync was asked for through the SyncCoordinator
+        long generation = extras.getLong(SyncCoordinator.EXTRA_GENERATION, 0);
+        SyncTelemetry telemetry = SyncTelemetry.getInstance(getContext());
+        long syncStart = System.nanoTime();
+        long notificationsBefore = WeatherProvider.getNotificationCount();
+        long locationHitsBefore = LocationIdCache.getInstance().getHitCount();
+        long locationMissesBefore = LocationIdCache.getInstance().getMissCount();
         try {
-            //String locationQuery = getLocationQuery(latLng);
-            Uri builtUri = getUriFromParams(locQuery, format, units, numDays);
-            // Read the input stream into a String
-            InputStream inputStream = getInputStream(builtUri, GET);
-            reader = processInputStream(locQuery, inputStream);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), Utility.LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), Utility.LOCATION_STATUS_SERVER_INVALID);
+            performSync(locQuery, extras.getString(SyncCoordinator.EXTRA_LOCATION), generation, syncResult);
+            checkpoint();
         } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            if (generation != 0) {
+                SyncCoordinator.getInstance(getContext()).onSyncFinished(generation);
             }
+            telemetry.recordTime(SyncTelemetry.STAGE_SYNC, ForecastSyncTask.millisSince(syncStart));
+            telemetry.increment(SyncTelemetry.COUNTER_SYNCS, 1);
+            telemetry.increment(SyncTelemetry.COUNTER_NOTIFICATIONS,
+                    WeatherProvider.getNotificationCount() - notificationsBefore);
+            telemetry.increment(SyncTelemetry.COUNTER_LOCATION_CACHE_HITS,
+                    LocationIdCache.getInstance().getHitCount() - locationHitsBefore);
+            telemetry.increment(SyncTelemetry.COUNTER_LOCATION_CACHE_MISSES,
+                    LocationIdCache.getInstance().getMissCount() - locationMissesBefore);
+            telemetry.save();
         }
     }
 
-    private Uri getUriFromParams(String locationQuery, String format, String units, int numDays) {
-        // Construct the URL for the OpenWeatherMap query
-        // Possible parameters are avaiable at OWM's forecast API page, at
-        // http://openweathermap.org/API#forecast
-        final String FORECAST_BASE_URL = HTTP_API_OPENWEATHERMAP_ORG_DATA_2_5_FORECAST_DAILY;
-        final String QUERY_PARAM = QUERY_PARAM_DEFAULT;
-        final String FORMAT_PARAM = MODE;
-        final String UNITS_PARAM = UNITS;
-        final String DAYS_PARAM = CNT;
-        final String APPID_PARAM = APPID;
-
-        return Uri.parse(FORECAST_BASE_URL).buildUpon()
-                .appendQueryParameter(QUERY_PARAM, locationQuery)
-                .appendQueryParameter(FORMAT_PARAM, format)
-                .appendQueryParameter(UNITS_PARAM, units)
-                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                .build();
+    /**
+     * Copies what the sync wrote to the write-ahead log into the database, now that no more
+     * writes follow, rather than during the sync's transactions.
+     */
+    private void checkpoint() {
+        long start = System.nanoTime();
+        Bundle result = getContext().getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_CHECKPOINT, null, null);
+        if (result != null) {
+            Log.d(LOG_TAG, "Checkpointed " + result.getInt(WeatherContract.RESULT_FRAMES_CHECKPOINTED)
+                    + " log frames in " + ForecastSyncTask.millisSince(start) + "ms");
+        }
     }
 
-    @Nullable
-    private BufferedReader processInputStream(String locationQuery, InputStream inputStream) throws IOException, JSONException {
-        String forecastJsonStr;
-        StringBuilder buffer = new StringBuilder();
-        if (inputStream == null) {
-            // Nothing to do.
-            return null;
+    /**
+     * @param requestedLocation the only location to sync, or null to refresh all saved ones
+     * @param generation        the coordinator's number for this sync, 0 if it didn't start it
+     */
+    private void performSync(String locQuery, String requestedLocation, long generation, SyncResult syncResult) {
+        if (sTask == null) {
+            ResilientWeatherTransport transport = getTransport(getContext());
+            sTask = new ForecastSyncTask(getContext(),
+                    HTTP_API_OPENWEATHERMAP_ORG_DATA_2_5_FORECAST_DAILY, transport,
+                    ForecastResponseCache.getInstance(getContext()));
+            if (BuildConfig.GROUP_FORECAST_URL != null) {
+                sBatchTask = new BatchForecastSyncTask(sTask, BuildConfig.GROUP_FORECAST_URL, transport);
+            }
+            sHourlyTask = new HourlyForecastSyncTask(getContext(),
+                    HTTP_API_OPENWEATHERMAP_ORG_DATA_2_5_FORECAST,
+                    new ResilientWeatherTransport(newTransport(getContext())));
+        }
+        // a location change only needs the new location; otherwise also prefetch the recent and
+        // saved ones the budget allows, so switching to them doesn't need a cold fetch
+        List<String> locations = requestedLocation != null
+                ? Collections.singletonList(requestedLocation) : ForecastPrefetcher.getLocations(getContext());
+        MultiLocationSyncEngine engine = sBatchTask != null
+                ? new MultiLocationSyncEngine(sBatchTask, MultiLocationSyncEngine.DEFAULT_MAX_WORKERS)
+                : new MultiLocationSyncEngine(sTask, MultiLocationSyncEngine.DEFAULT_MAX_WORKERS);
+        Map<String, ForecastSyncTask.Result> results = engine.syncAll(locations);
+        long wireBytes = 0;
+        long bodyBytes = 0;
+        int rowsWritten = 0;
+        long fetchMillis = 0;
+        long parseMillis = 0;
+        long persistQueueMillis = 0;
+        long persistMillis = 0;
+        SyncTelemetry telemetry = SyncTelemetry.getInstance(getContext());
+        SyncStatusStore statusStore = SyncStatusStore.getInstance(getContext());
+        for (Map.Entry<String, ForecastSyncTask.Result> entry : results.entrySet()) {
+            ForecastSyncTask.Result locationResult = entry.getValue();
+            statusStore.setLocationState(entry.getKey(), locationResult.status);
+            telemetry.record(locationResult);
+            wireBytes += locationResult.wireBytes;
+            bodyBytes += locationResult.bodyBytes;
+            rowsWritten += locationResult.rowsWritten;
+            fetchMillis += locationResult.fetchMillis;
+            parseMillis += locationResult.parseMillis;
+            persistQueueMillis += locationResult.persistQueueMillis;
+            persistMillis += locationResult.persistMillis;
         }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-
-        String line;
-        while ((line = reader.readLine()) != null) {
-            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-            // But it does make debugging a *lot* easier if you print out the completed
-            // buffer for debugging.
-            buffer.append(line + "\n");
+        syncResult.stats.numUpdates += rowsWritten;
+        Log.d(LOG_TAG, "Synced " + results.size() + " locations, downloaded " + wireBytes + " bytes, "
+                + bodyBytes + " after decompression, wrote " + rowsWritten + " rows");
+        Log.d(LOG_TAG, "Stage times: fetch " + fetchMillis + "ms, parse " + parseMillis + "ms, persist "
+                + persistMillis + "ms after waiting " + persistQueueMillis + "ms");
+        if (requestedLocation == null) {
+            // a single location just picked by the user says little about how the forecast moves
+            AdaptiveSyncScheduler.onSyncFinished(getContext(), results.values());
+            ForecastPrefetcher.onSyncFinished(getContext(), locQuery, results);
         }
 
-        if (buffer.length() == 0) {
-            // Stream was empty.  No point in parsing.
-            setLocationStatus(getContext(), Utility.LOCATION_STATUS_SERVER_DOWN);
-            return null;
+        // widgets, Muzei and the notification only show the preferred location
+        ForecastSyncTask.Result result = results.get(locQuery);
+        if (result == null) {
+            // the pass was interrupted before the preferred location finished
+            return;
+        }
+        if (generation != 0 && SyncCoordinator.getInstance(getContext()).isSuperseded(generation)) {
+            // the user has moved on to another location, whose sync will do the fan-out
+            Log.d(LOG_TAG, "Sync of " + requestedLocation + " superseded, fan-out skipped");
+            return;
+        }
+        if (result.rowsWritten > 0) {
+            fanOut(getContext());
+        } else {
+            // same forecast as before: don't wake up the widgets, Muzei or the notification
+            Log.d(LOG_TAG, "Forecast for " + locQuery + " unchanged, fan-out skipped ("
+                    + sFanOutsSkipped.incrementAndGet() + " since start)");
+        }
+        if (result.status == Utility.LOCATION_STATUS_OK) {
+            // the hours are only shown for the location in view, so that's the only one that
+            // pays for a second request; the fan-out above doesn't show them, so it needn't wait
+            ForecastSyncTask.Result hourly = sHourlyTask.sync(locQuery);
+            telemetry.increment(SyncTelemetry.COUNTER_WIRE_BYTES, hourly.wireBytes);
+            telemetry.increment(SyncTelemetry.COUNTER_BODY_BYTES, hourly.bodyBytes);
+            telemetry.increment(SyncTelemetry.COUNTER_ROWS_PARSED, hourly.rowsParsed);
+            telemetry.increment(SyncTelemetry.COUNTER_ROWS_WRITTEN, hourly.rowsWritten);
+            Log.d(LOG_TAG, "Hourly forecast of " + locQuery + ": " + hourly.rowsWritten + " of "
+                    + hourly.rowsParsed + " slots written in " + hourly.bulkInsertMillis + "ms");
         }
-        forecastJsonStr = buffer.toString();
-        getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        return reader;
+        setLocationStatus(getContext(), result.status, getTransport(getContext()).getCircuitBreaker().getRetryAt());
     }
 
-    @NonNull
-    private InputStream getInputStream(Uri builtUri, String requestMethod) throws IOException {
-        URL url = new URL(builtUri.toString());
-
-        // Create the request to OpenWeatherMap, and open the connection
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-        urlConnection.setRequestMethod(requestMethod);
-        urlConnection.connect();
-        return urlConnection.getInputStream();
+    /**
+     * @return the transport every daily forecast sync of this process goes through
+     */
+    private static synchronized ResilientWeatherTransport getTransport(Context context) {
+        if (sTransport == null) {
+            sTransport = new ResilientWeatherTransport(newTransport(context));
+        }
+        return sTransport;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p/>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * In debug builds the responses are recorded when the files directory has a
+     * {@link ResponseRecording#RECORD_DIRECTORY}, or served from the recordings in a
+     * {@link ResponseRecording#REPLAY_DIRECTORY} instead of the network, so a sync can be
+     * profiled offline on a known input.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), Utility.LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), Utility.LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+    private static WeatherTransport newTransport(Context context) {
+        WeatherTransport transport = new HttpWeatherTransport();
+        if (BuildConfig.DEBUG) {
+            File replay = new File(context.getFilesDir(), ResponseRecording.REPLAY_DIRECTORY);
+            File record = new File(context.getFilesDir(), ResponseRecording.RECORD_DIRECTORY);
+            if (replay.isDirectory()) {
+                Log.i(TAG, "Replaying OWM responses from " + replay);
+                transport = ReplayWeatherTransport.fromDirectory(replay, true);
+            } else if (record.isDirectory()) {
+                Log.i(TAG, "Recording OWM responses into " + record);
+                transport = new RecordingWeatherTransport(transport, record);
             }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            cVVector = initAndGetWeatherContentValues(weatherArray, locationId, dayTime, julianStartDay);
-
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), Utility.LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), Utility.LOCATION_STATUS_SERVER_INVALID);
         }
+        return transport;
     }
 
-    private Vector<ContentValues> initAndGetWeatherContentValues(JSONArray weatherArray, long locationId, Time dayTime, int julianStartDay) throws JSONException {
-
-        Vector<ContentValues> cVVector = new Vector<>();
-        for (int i = 0; i < weatherArray.length(); i++) {
-            // These are the values that will be collected.
-            long dateTime;
-            double pressure;
-            int humidity;
-            double windSpeed;
-            double windDirection;
-
-            double high;
-            double low;
-
-            String description;
-            int weatherId;
-
-            // Get the JSON object representing the day
-            JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-            // Cheating to convert this to UTC time, which is what we want anyhow
-            dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-            pressure = dayForecast.getDouble(OWM_PRESSURE);
-            humidity = dayForecast.getInt(OWM_HUMIDITY);
-            windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-            windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-            // Description is in a child array called "weather", which is 1 element long.
-            // That element also contains a weather code.
-            JSONObject weatherObject =
-                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-            description = weatherObject.getString(OWM_DESCRIPTION);
-            weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-            // Temperatures are in a child object called "temp".  Try not to name variables
-            // "temp" when working with temperature.  It confuses everybody.
-            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-            high = temperatureObject.getDouble(OWM_MAX);
-            low = temperatureObject.getDouble(OWM_MIN);
-
-            ContentValues weatherValues = new ContentValues();
-
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-            cVVector.add(weatherValues);
-        }
-        return cVVector;
+    /**
+     * Shows the stored forecast of the preferred location on the widgets, Muzei, the
+     * notification and the wearable.  This runs on the fan-out stage, off the calling thread,
+     * so that a sync and its wakelock don't wait for the notification icon download.
+     */
+    static void fanOut(final Context context) {
+        SyncStages.getInstance().fanOut(new Runnable() {
+            @Override
+            public void run() {
+                long fanOutStart = System.nanoTime();
+                updateWidgets(context);
+                updateMuzei(context);
+                notifyWeather(context);
+                SyncTelemetry telemetry = SyncTelemetry.getInstance(context);
+                telemetry.recordTime(SyncTelemetry.STAGE_FAN_OUT, ForecastSyncTask.millisSince(fanOutStart));
+                telemetry.increment(SyncTelemetry.COUNTER_FAN_OUTS, 1);
+            }
+        });
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
+    private static void updateWidgets(Context context) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
+    private static void notifyWeather(Context context) {
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
@@ -520,7 +429,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                                 .fitCenter()
                                 .into(largeIconWidth, largeIconHeight).get();
                     } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                        Log.e(TAG, "Error retrieving large icon from " + artUrl, e);
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
                     String title = context.getString(R.string.app_name);
@@ -534,7 +443,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
                     NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
+                            new NotificationCompat.Builder(context)
                                     .setColor(resources.getColor(R.color.primary_light))
                                     .setSmallIcon(iconId)
                                     .setLargeIcon(largeIcon)
@@ -559,7 +468,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     mBuilder.setContentIntent(resultPendingIntent);
 
                     NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
                     // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
                     mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
 
@@ -567,71 +476,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     SharedPreferences.Editor editor = prefs.edit();
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
-                    processWeatherData(high, low, weatherId);
+                    processWeatherData(context, high, low, weatherId);
                 }
                 cursor.close();
             }
         }
     }
 
-    private boolean hasADayPassed(long lastSync) {
+    private static boolean hasADayPassed(long lastSync) {
         return System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS;
     }
 
-    private boolean hasFourHoursPassed(long lastSync) {
+    private static boolean hasFourHoursPassed(long lastSync) {
         return System.currentTimeMillis() - lastSync >= FOUR_HOURS_IN_MILLIS;
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes! - u are stupid, yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -652,17 +511,21 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         }
     }
 
+    @Override
+    public void onSyncCanceled() {
+        // interrupts the sync thread, which stops the pass before the next location
+        Log.d(LOG_TAG, "Sync cancelled");
+        super.onSyncCanceled();
+    }
+
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync the preferred location soon.  Requests made
+     * in quick succession are merged into one sync by the {@link SyncCoordinator}.
      *
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        SyncCoordinator.getInstance(context).requestSync(Utility.getPreferredLocation(context));
     }
 
     /**
@@ -726,17 +589,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
+     * Sets the location status in the {@link SyncStatusStore}, which saves it in the background.
      *
-     * @param c              Context to get the PreferenceManager from.
+     * @param c              Context to get the SyncStatusStore from.
      * @param locationStatus The IntDef value to set
+     * @param serverRetryAt  when requests to the server resume, 0 if they aren't paused
      */
-    static private void setLocationStatus(Context c, @Utility.LocationStatus int locationStatus) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+    static void setLocationStatus(Context c, @Utility.LocationStatus int locationStatus,
+            long serverRetryAt) {
+        SyncStatusStore.getInstance(c).setLocationStatus(locationStatus, serverRetryAt);
     }
 
     public void startGoogleApiClient(Context context) {
@@ -5,6 +5,12 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
+import com.ant.sunshine.app.test.QueryResultCache;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Locale;
+
 public class SunshineSyncService extends Service {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
@@ -23,4 +29,19 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
+
+    /**
+     * Prints the sync telemetry and the counters of the provider's query cache, for
+     * {@code adb shell dumpsys activity service com.ant.sunshine.app/.sync.SunshineSyncService}
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        SyncTelemetry.getInstance(this).dump(writer);
+        writer.println("Sync interval: " + AdaptiveSyncScheduler.getInterval(this) + "s ("
+                + AdaptiveSyncScheduler.getReason(this) + ")");
+        QueryResultCache queryCache = QueryResultCache.getInstance();
+        writer.println(String.format(Locale.US, "Query cache: %d entries, %d bytes, %d hits, %d misses (%.2f)",
+                queryCache.size(), queryCache.getMemoryBytes(), queryCache.getHitCount(),
+                queryCache.getMissCount(), queryCache.getHitRatio()));
+    }
 }
\ No newline at end of file
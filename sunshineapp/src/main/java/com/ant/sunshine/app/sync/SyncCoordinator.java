@@ -0,0 +1,225 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.ant.sunshine.app.R;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sits in front of the sync adapter and turns bursts of sync requests into single syncs.
+ * <p/>
+ * A request doesn't start a sync right away but waits for {@link #getWindowMillis()}; every
+ * request arriving in the meantime replaces it and restarts the wait, up to
+ * {@link #getMaxDelayMillis()} after the first one, so typing a location or flicking through
+ * places ends in one sync of the last location.  When that sync is started while one for a
+ * different location is still running, the running one is cancelled, and it won't touch the
+ * widgets, Muzei, the notification or the location status once it notices, see
+ * {@link #isSuperseded(long)}.  A request for the location already being synced is merged
+ * into that sync.
+ * <p/>
+ * Every sync started through here carries {@link #EXTRA_LOCATION} and {@link #EXTRA_GENERATION}
+ * in its extras.
+ */
+public class SyncCoordinator {
+
+    private static final String LOG_TAG = SyncCoordinator.class.getSimpleName();
+
+    static final String EXTRA_LOCATION = "com.ant.sunshine.app.sync.LOCATION";
+    static final String EXTRA_GENERATION = "com.ant.sunshine.app.sync.GENERATION";
+
+    static final long DEFAULT_WINDOW_MILLIS = 1000;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+    // a sync that hasn't reported back by then, e.g. because syncing is switched off, is forgotten
+    static final long RUNNING_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    /**
+     * Starts and cancels the actual syncs.
+     */
+    interface Dispatcher {
+        void dispatch(String locationSetting, long generation);
+
+        void cancel(long generation);
+    }
+
+    private static SyncCoordinator sInstance;
+
+    private final Dispatcher mDispatcher;
+    private final long mWindowMillis;
+    private final long mMaxDelayMillis;
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private long mGeneration;
+    private String mPendingLocation;
+    private ScheduledFuture<?> mPendingFuture;
+    private long mPendingSince;
+    private String mRunningLocation;
+    private long mRunningGeneration;
+    private long mRunningSince;
+
+    private int mRequestCount;
+    private int mCoalescedCount;
+    private int mCancelledCount;
+
+    SyncCoordinator(Dispatcher dispatcher, long windowMillis, long maxDelayMillis) {
+        mDispatcher = dispatcher;
+        mWindowMillis = windowMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return the coordinator that starts syncs through the {@link ContentResolver}
+     */
+    public static synchronized SyncCoordinator getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncCoordinator(new ContentResolverDispatcher(context.getApplicationContext()),
+                    DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Asks for the given location to be synced soon.
+     */
+    public synchronized void requestSync(String locationSetting) {
+        mRequestCount++;
+        long now = System.currentTimeMillis();
+        if (mPendingFuture != null) {
+            mPendingFuture.cancel(false);
+            mCoalescedCount++;
+        } else {
+            mPendingSince = now;
+        }
+        mPendingLocation = locationSetting;
+        final long generation = ++mGeneration;
+        long delay = Math.max(0, Math.min(mWindowMillis, mPendingSince + mMaxDelayMillis - now));
+        mPendingFuture = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                start(generation);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void start(long generation) {
+        String locationSetting;
+        long superseded = 0;
+        synchronized (this) {
+            if (generation != mGeneration) {
+                // a later request replaced this one just as it was due
+                return;
+            }
+            locationSetting = mPendingLocation;
+            mPendingLocation = null;
+            mPendingFuture = null;
+            long now = System.currentTimeMillis();
+            if (mRunningGeneration != 0 && now - mRunningSince > RUNNING_TIMEOUT_MILLIS) {
+                Log.w(LOG_TAG, "Sync " + mRunningGeneration + " never finished");
+                mRunningGeneration = 0;
+            }
+            if (mRunningGeneration != 0) {
+                if (locationSetting.equals(mRunningLocation)) {
+                    mCoalescedCount++;
+                    Log.d(LOG_TAG, "Sync of " + locationSetting + " already running");
+                    return;
+                }
+                superseded = mRunningGeneration;
+                mCancelledCount++;
+            }
+            mRunningLocation = locationSetting;
+            mRunningGeneration = generation;
+            mRunningSince = now;
+        }
+        if (superseded != 0) {
+            Log.d(LOG_TAG, "Cancelling sync " + superseded + ", the location changed to " + locationSetting);
+            mDispatcher.cancel(superseded);
+        }
+        mDispatcher.dispatch(locationSetting, generation);
+    }
+
+    /**
+     * Called by the sync when it is done, whatever the outcome.
+     */
+    synchronized void onSyncFinished(long generation) {
+        if (generation == mRunningGeneration) {
+            mRunningGeneration = 0;
+            mRunningLocation = null;
+        }
+    }
+
+    /**
+     * @return true if a later request arrived for another location than the given sync's, so
+     * that its results shouldn't be shown any more
+     */
+    synchronized boolean isSuperseded(long generation) {
+        if (generation == mRunningGeneration) {
+            return mPendingLocation != null && !mPendingLocation.equals(mRunningLocation);
+        }
+        return generation < mGeneration;
+    }
+
+    /**
+     * @return the number of sync requests received
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return the number of requests that were merged into a later or a running sync
+     */
+    public synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    /**
+     * @return the number of running syncs cancelled because the location changed
+     */
+    public synchronized int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    long getMaxDelayMillis() {
+        return mMaxDelayMillis;
+    }
+
+    /**
+     * Requests expedited, manual syncs of the weather authority, like
+     * {@link SunshineSyncAdapter#syncImmediately(Context)} used to.
+     */
+    private static final class ContentResolverDispatcher implements Dispatcher {
+        private final Context mContext;
+
+        ContentResolverDispatcher(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public void dispatch(String locationSetting, long generation) {
+            Bundle bundle = new Bundle();
+            bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+            bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+            bundle.putString(EXTRA_LOCATION, locationSetting);
+            bundle.putLong(EXTRA_GENERATION, generation);
+            ContentResolver.requestSync(SunshineSyncAdapter.getSyncAccount(mContext),
+                    mContext.getString(R.string.content_authority), bundle);
+        }
+
+        @Override
+        public void cancel(long generation) {
+            // ends up in SunshineSyncAdapter.onSyncCanceled() if the sync already started
+            ContentResolver.cancelSync(SunshineSyncAdapter.getSyncAccount(mContext),
+                    mContext.getString(R.string.content_authority));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.ant.sunshine.app.sync;
+
+import android.os.Process;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The stages of a sync that come after the network, each on its own executor.
+ * <p/>
+ * Fetching and parsing run on the sync's workers, see {@link MultiLocationSyncEngine}, since the
+ * forecast is parsed while it downloads.  Parsed forecasts are written on a single persist
+ * thread, so the writes are serialized rather than contending for the database; a worker waits
+ * for its own write, so at most one write per worker is ever queued, and the time spent in the
+ * queue is reported with the result.  The fan-out to widgets, Muzei, the notification and
+ * the wearable runs on a background thread of its own, after the sync has finished: it only
+ * ever shows the stored forecast, so a fan-out still waiting when the next one comes in is
+ * dropped in its favour.
+ */
+final class SyncStages {
+
+    private static final String LOG_TAG = SyncStages.class.getSimpleName();
+
+    static final int FAN_OUT_QUEUE_CAPACITY = 1;
+
+    private static SyncStages sInstance;
+
+    private final ThreadPoolExecutor mPersistExecutor;
+    private final ThreadPoolExecutor mFanOutExecutor;
+    private final AtomicInteger mFanOutsDropped = new AtomicInteger();
+    private volatile long mLastFanOutMillis;
+
+    SyncStages() {
+        mPersistExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new StageThreadFactory("SyncPersist", Process.THREAD_PRIORITY_DEFAULT));
+        mFanOutExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(FAN_OUT_QUEUE_CAPACITY),
+                new StageThreadFactory("SyncFanOut", Process.THREAD_PRIORITY_BACKGROUND),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // the waiting fan-out would show the same rows as this one
+                        if (!executor.isShutdown()) {
+                            executor.getQueue().poll();
+                            mFanOutsDropped.incrementAndGet();
+                            executor.execute(r);
+                        }
+                    }
+                });
+    }
+
+    static synchronized SyncStages getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncStages();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Runs the given write on the persist thread and waits for it.  If the waiting thread is
+     * interrupted before the write started, the write is dropped and this returns straight away;
+     * once it started, this waits for it to finish, as the write fills in the result.  The
+     * interrupt is kept for the caller either way.
+     */
+    void persist(final Callable<Void> write, ForecastSyncTask.Result result) throws JSONException {
+        final long queuedAt = System.nanoTime();
+        final long[] startedAt = new long[1];
+        Future<Void> future = mPersistExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                startedAt[0] = System.nanoTime();
+                return write.call();
+            }
+        });
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    if (future.cancel(false)) {
+                        // never started, so nothing was written and nobody touches the result
+                        return;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long finishedAt = System.nanoTime();
+        result.persistQueueMillis = TimeUnit.NANOSECONDS.toMillis(startedAt[0] - queuedAt);
+        result.persistMillis = TimeUnit.NANOSECONDS.toMillis(finishedAt - startedAt[0]);
+    }
+
+    /**
+     * Queues the fan-out without waiting for it.
+     */
+    void fanOut(final Runnable fanOut) {
+        mFanOutExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    fanOut.run();
+                } catch (RuntimeException e) {
+                    // the forecast is stored, a failing widget or notification mustn't stop
+                    // later fan-outs
+                    Log.e(LOG_TAG, "Fan-out failed", e);
+                } finally {
+                    mLastFanOutMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    Log.d(LOG_TAG, "Fan-out took " + mLastFanOutMillis + "ms");
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of fan-outs dropped because a newer one replaced them
+     */
+    int getFanOutsDropped() {
+        return mFanOutsDropped.get();
+    }
+
+    /**
+     * @return how long the last fan-out took, in milliseconds
+     */
+    long getLastFanOutMillis() {
+        return mLastFanOutMillis;
+    }
+
+    private static final class StageThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final int mPriority;
+
+        StageThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mPriority);
+                    r.run();
+                }
+            }, mName);
+        }
+    }
+}
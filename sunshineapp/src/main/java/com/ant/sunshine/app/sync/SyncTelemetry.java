@@ -0,0 +1,324 @@
+package com.ant.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.ant.core.Utility;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Where the sync spends its time, and how much it moves.
+ * <p/>
+ * Every stage keeps a rolling histogram of its last {@link #WINDOW} timings, and a few counters
+ * add up what went through the sync.  Both are kept in memory, saved to a small file after every
+ * sync and read back when the process starts again, and printed by
+ * {@link SunshineSyncService#dump}:
+ * <pre>
+ * adb shell dumpsys activity service com.ant.sunshine.app/.sync.SunshineSyncService
+ * </pre>
+ * DNS lookup and connecting can't be told apart from waiting for the response with
+ * HttpURLConnection, so they all count as {@link #STAGE_FETCH}.
+ */
+public class SyncTelemetry {
+
+    private static final String LOG_TAG = SyncTelemetry.class.getSimpleName();
+
+    static final int WINDOW = 256;
+    static final String FILE_NAME = "sync-telemetry";
+    private static final int FILE_VERSION = 1;
+
+    // until the response headers arrived, connecting included
+    static final String STAGE_FETCH = "fetch";
+    // reading and parsing the body, which happen together
+    static final String STAGE_PARSE = "parse";
+    static final String STAGE_PERSIST_QUEUE = "persist-queue";
+    static final String STAGE_ADD_LOCATION = "add-location";
+    // the provider's bulk insert, dropping the days gone by included
+    static final String STAGE_BULK_INSERT = "bulk-insert";
+    static final String STAGE_FAN_OUT = "fan-out";
+    static final String STAGE_SYNC = "sync";
+    static final String[] STAGES = {
+            STAGE_FETCH, STAGE_PARSE, STAGE_PERSIST_QUEUE, STAGE_ADD_LOCATION, STAGE_BULK_INSERT,
+            STAGE_FAN_OUT, STAGE_SYNC
+    };
+
+    static final String COUNTER_SYNCS = "syncs";
+    static final String COUNTER_LOCATIONS = "locations";
+    static final String COUNTER_FAILURES = "failures";
+    static final String COUNTER_WIRE_BYTES = "wire-bytes";
+    static final String COUNTER_BODY_BYTES = "body-bytes";
+    static final String COUNTER_ROWS_PARSED = "rows-parsed";
+    static final String COUNTER_ROWS_WRITTEN = "rows-written";
+    static final String COUNTER_NOTIFICATIONS = "provider-notifications";
+    static final String COUNTER_FAN_OUTS = "fan-outs";
+    // location ids served by LocationIdCache, and the ones it had to query
+    static final String COUNTER_LOCATION_CACHE_HITS = "location-id-hits";
+    static final String COUNTER_LOCATION_CACHE_MISSES = "location-id-misses";
+    // locations prefetched by periodic syncs and what they downloaded
+    static final String COUNTER_PREFETCH_LOCATIONS = "prefetch-locations";
+    static final String COUNTER_PREFETCH_BYTES = "prefetch-bytes";
+    // locations picked by the user whose forecast was already stored, and the ones that wasn't
+    static final String COUNTER_PREFETCH_HITS = "prefetch-hits";
+    static final String COUNTER_PREFETCH_MISSES = "prefetch-misses";
+    // push messages carrying a forecast, the ones rejected, and the writes they were merged into
+    static final String COUNTER_PUSHES = "pushes";
+    static final String COUNTER_PUSHES_REJECTED = "pushes-rejected";
+    static final String COUNTER_PUSHES_APPLIED = "pushes-applied";
+    static final String[] COUNTERS = {
+            COUNTER_SYNCS, COUNTER_LOCATIONS, COUNTER_FAILURES, COUNTER_WIRE_BYTES, COUNTER_BODY_BYTES,
+            COUNTER_ROWS_PARSED, COUNTER_ROWS_WRITTEN, COUNTER_NOTIFICATIONS, COUNTER_FAN_OUTS,
+            COUNTER_LOCATION_CACHE_HITS, COUNTER_LOCATION_CACHE_MISSES, COUNTER_PREFETCH_LOCATIONS,
+            COUNTER_PREFETCH_BYTES, COUNTER_PREFETCH_HITS, COUNTER_PREFETCH_MISSES, COUNTER_PUSHES,
+            COUNTER_PUSHES_REJECTED, COUNTER_PUSHES_APPLIED
+    };
+
+    private static SyncTelemetry sInstance;
+
+    private final File mFile;
+    private final Map<String, Histogram> mHistograms = new LinkedHashMap<>();
+    private final Map<String, long[]> mCounters = new LinkedHashMap<>();
+
+    SyncTelemetry(File file) {
+        mFile = file;
+        for (String stage : STAGES) {
+            mHistograms.put(stage, new Histogram(WINDOW));
+        }
+        for (String counter : COUNTERS) {
+            mCounters.put(counter, new long[1]);
+        }
+    }
+
+    /**
+     * @return the telemetry of this app, with what was saved before the process started
+     */
+    public static synchronized SyncTelemetry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncTelemetry(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            sInstance.load();
+        }
+        return sInstance;
+    }
+
+    synchronized void recordTime(String stage, long millis) {
+        Histogram histogram = mHistograms.get(stage);
+        if (histogram == null) {
+            throw new IllegalArgumentException("Unknown stage " + stage);
+        }
+        histogram.add(millis);
+    }
+
+    synchronized void increment(String counter, long delta) {
+        long[] value = mCounters.get(counter);
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown counter " + counter);
+        }
+        value[0] += delta;
+    }
+
+    synchronized long getCount(String counter) {
+        return mCounters.get(counter)[0];
+    }
+
+    synchronized Histogram getHistogram(String stage) {
+        return mHistograms.get(stage);
+    }
+
+    /**
+     * Adds the timings and sizes of one location's sync.
+     */
+    synchronized void record(ForecastSyncTask.Result result) {
+        increment(COUNTER_LOCATIONS, 1);
+        increment(COUNTER_WIRE_BYTES, result.wireBytes);
+        increment(COUNTER_BODY_BYTES, result.bodyBytes);
+        increment(COUNTER_ROWS_PARSED, result.rowsParsed);
+        increment(COUNTER_ROWS_WRITTEN, result.rowsWritten);
+        if (result.status != Utility.LOCATION_STATUS_OK) {
+            increment(COUNTER_FAILURES, 1);
+            return;
+        }
+        recordTime(STAGE_FETCH, result.fetchMillis);
+        if (!result.notModified) {
+            recordTime(STAGE_PARSE, result.parseMillis);
+            recordTime(STAGE_PERSIST_QUEUE, result.persistQueueMillis);
+            recordTime(STAGE_ADD_LOCATION, result.addLocationMillis);
+            recordTime(STAGE_BULK_INSERT, result.bulkInsertMillis);
+        }
+    }
+
+    /**
+     * Writes the histograms and counters to disk, replacing what was saved before.
+     */
+    synchronized void save() {
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mHistograms.size());
+            for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+            out.writeInt(mCounters.size());
+            for (Map.Entry<String, long[]> entry : mCounters.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) {
+                Log.w(LOG_TAG, "Couldn't replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't save telemetry", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Reads back what {@link #save()} wrote.  Stages and counters the file doesn't know start
+     * empty, the ones no longer in use are skipped.
+     */
+    synchronized void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(mFile));
+            if (in.readInt() != FILE_VERSION) {
+                Log.d(LOG_TAG, "Discarding telemetry of another version");
+                return;
+            }
+            int histograms = in.readInt();
+            for (int i = 0; i < histograms; i++) {
+                String stage = in.readUTF();
+                Histogram histogram = Histogram.readFrom(in, WINDOW);
+                if (mHistograms.containsKey(stage)) {
+                    mHistograms.put(stage, histogram);
+                }
+            }
+            int counters = in.readInt();
+            for (int i = 0; i < counters; i++) {
+                String counter = in.readUTF();
+                long value = in.readLong();
+                if (mCounters.containsKey(counter)) {
+                    mCounters.get(counter)[0] = value;
+                }
+            }
+        } catch (EOFException e) {
+            Log.w(LOG_TAG, "Telemetry file truncated, keeping what was read");
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't load telemetry", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Prints the percentiles of every stage and the counters.
+     */
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Sync stages (last " + WINDOW + " timings, ms):");
+        writer.println(String.format(Locale.US, "  %-14s %6s %6s %6s %6s %6s",
+                "stage", "count", "p50", "p95", "p99", "max"));
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            long[] sorted = histogram.sorted();
+            writer.println(String.format(Locale.US, "  %-14s %6d %6d %6d %6d %6d",
+                    entry.getKey(), sorted.length, percentile(sorted, 0.50), percentile(sorted, 0.95),
+                    percentile(sorted, 0.99), sorted.length > 0 ? sorted[sorted.length - 1] : 0));
+        }
+        writer.println("Sync counters:");
+        for (Map.Entry<String, long[]> entry : mCounters.entrySet()) {
+            writer.println(String.format(Locale.US, "  %-22s %d", entry.getKey(), entry.getValue()[0]));
+        }
+    }
+
+    /**
+     * @return the nearest-rank percentile of the sorted samples, 0 if there are none
+     */
+    static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing telemetry file", e);
+            }
+        }
+    }
+
+    /**
+     * The last samples of one stage, oldest overwritten first.
+     */
+    static final class Histogram {
+        private final long[] mSamples;
+        private int mNext;
+        private int mSize;
+
+        Histogram(int window) {
+            mSamples = new long[window];
+        }
+
+        void add(long sample) {
+            mSamples[mNext] = sample;
+            mNext = (mNext + 1) % mSamples.length;
+            mSize = Math.min(mSize + 1, mSamples.length);
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long[] sorted() {
+            // until the window is full the samples are all at the start
+            long[] sorted = Arrays.copyOf(mSamples, mSize);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        long percentile(double fraction) {
+            return SyncTelemetry.percentile(sorted(), fraction);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            // oldest first, so that reading them back keeps the same ones in the window
+            int start = mSize == mSamples.length ? mNext : 0;
+            out.writeInt(mSize);
+            for (int i = 0; i < mSize; i++) {
+                out.writeLong(mSamples[(start + i) % mSamples.length]);
+            }
+        }
+
+        static Histogram readFrom(DataInputStream in, int window) throws IOException {
+            Histogram histogram = new Histogram(window);
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                histogram.add(in.readLong());
+            }
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.ant.sunshine.app.sync;
+
+import android.net.Uri;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * How the sync talks to the weather backend.  {@link HttpWeatherTransport} is the production
+ * implementation; tests and benchmarks plug in their own to run without a network.
+ */
+public interface WeatherTransport {
+
+    /**
+     * Issues a GET for the given uri.
+     *
+     * @param requestHeaders extra request headers, may be empty
+     * @return the response, which the caller must close
+     * @throws IOException if no response could be obtained
+     */
+    Response get(Uri uri, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * A response whose body can be streamed.  Closing it releases the underlying connection.
+     */
+    interface Response extends Closeable {
+        int getCode();
+
+        /**
+         * @return the value of the given response header, or null if it wasn't sent
+         */
+        String getHeader(String name);
+
+        /**
+         * @return the response body, also for error responses; null if there is none
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * @return the bytes of body received so far, as they came over the network
+         */
+        long getWireBytes();
+
+        /**
+         * @return the bytes of body handed to the reader so far, after any decompression
+         */
+        long getBodyBytes();
+    }
+}
@@ -0,0 +1,156 @@
+package com.ant.sunshine.app.test;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Where the days of one time zone start, worked out once so that dating a forecast row or
+ * building a weather uri doesn't allocate a {@link android.text.format.Time} and look up the zone
+ * every time.
+ * <p/>
+ * The local midnights of {@link #DAYS_BEFORE} days before and {@link #DAYS_AFTER} days after the
+ * moment the calendar was made are kept in an array, so a day lookup is a division and a step or
+ * two over the array, without allocating.  Days outside that range are worked out from the zone
+ * offsets, which doesn't allocate either.  The results are those of {@code Time.getJulianDay}
+ * and {@code Time.setJulianDay} in the same zone.
+ * <p/>
+ * There is one calendar per zone; {@link #getInstance()} returns the one of the default zone,
+ * which is dropped by {@link #onTimeZoneChanged()} when the device moves to another zone.
+ */
+public final class DayCalendar {
+
+    // Time.EPOCH_JULIAN_DAY
+    static final int EPOCH_JULIAN_DAY = 2440588;
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // a year either way covers everything the forecast, the pushes and the stored days use
+    static final int DAYS_BEFORE = 400;
+    static final int DAYS_AFTER = 400;
+
+    private static final ConcurrentMap<String, DayCalendar> sCalendars = new ConcurrentHashMap<>();
+    private static volatile DayCalendar sDefault;
+
+    private final TimeZone mZone;
+    // the julian day starting at mDayStarts[0]
+    private final int mFirstJulianDay;
+    // local midnights, one more than the days covered so every day has its end
+    private final long[] mDayStarts;
+
+    DayCalendar(TimeZone zone, long now) {
+        mZone = (TimeZone) zone.clone();
+        mFirstJulianDay = julianDayFromOffsets(now) - DAYS_BEFORE;
+        mDayStarts = new long[DAYS_BEFORE + DAYS_AFTER + 2];
+        for (int i = 0; i < mDayStarts.length; i++) {
+            mDayStarts[i] = startOfDayFromOffsets(mFirstJulianDay + i);
+        }
+    }
+
+    /**
+     * @return the calendar of the default time zone
+     */
+    public static DayCalendar getInstance() {
+        DayCalendar calendar = sDefault;
+        if (calendar == null) {
+            calendar = forZone(TimeZone.getDefault());
+            sDefault = calendar;
+        }
+        return calendar;
+    }
+
+    /**
+     * @return the calendar of the given time zone, made the first time it is asked for
+     */
+    public static DayCalendar forZone(TimeZone zone) {
+        DayCalendar calendar = sCalendars.get(zone.getID());
+        if (calendar == null) {
+            calendar = new DayCalendar(zone, System.currentTimeMillis());
+            DayCalendar raced = sCalendars.putIfAbsent(zone.getID(), calendar);
+            if (raced != null) {
+                calendar = raced;
+            }
+        }
+        return calendar;
+    }
+
+    /**
+     * Makes {@link #getInstance()} look the default time zone up again.
+     */
+    public static void onTimeZoneChanged() {
+        sDefault = null;
+    }
+
+    public TimeZone getZone() {
+        return (TimeZone) mZone.clone();
+    }
+
+    /**
+     * @return the julian day the given moment falls on in this zone
+     */
+    public int getJulianDay(long millis) {
+        int index = indexOf(millis);
+        return index >= 0 ? mFirstJulianDay + index : julianDayFromOffsets(millis);
+    }
+
+    /**
+     * @return the local midnight starting the given julian day
+     */
+    public long getStartOfJulianDay(int julianDay) {
+        int index = julianDay - mFirstJulianDay;
+        if (index >= 0 && index < mDayStarts.length) {
+            return mDayStarts[index];
+        }
+        return startOfDayFromOffsets(julianDay);
+    }
+
+    /**
+     * @return the local midnight starting the day the given moment falls on
+     */
+    public long normalize(long millis) {
+        int index = indexOf(millis);
+        return index >= 0 ? mDayStarts[index] : startOfDayFromOffsets(julianDayFromOffsets(millis));
+    }
+
+    /**
+     * @return the index of the day holding the moment, -1 if it is outside the array
+     */
+    private int indexOf(long millis) {
+        long[] starts = mDayStarts;
+        if (millis < starts[0] || millis >= starts[starts.length - 1]) {
+            return -1;
+        }
+        // days are 23 to 25 hours long, so the guess is at most a day off
+        int index = (int) ((millis - starts[0]) / DAY_IN_MILLIS);
+        if (index > starts.length - 2) {
+            index = starts.length - 2;
+        }
+        while (millis < starts[index]) {
+            index--;
+        }
+        while (millis >= starts[index + 1]) {
+            index++;
+        }
+        return index;
+    }
+
+    private int julianDayFromOffsets(long millis) {
+        // Time.getJulianDay
+        long offsetMillis = mZone.getOffset(millis);
+        return (int) floorDiv(millis + offsetMillis, DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    private long startOfDayFromOffsets(int julianDay) {
+        long localMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // the offset at midnight may differ from the one a few hours off it, across a DST change
+        long millis = localMidnight - mZone.getOffset(localMidnight);
+        return localMidnight - mZone.getOffset(millis);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,213 @@
+package com.ant.sunshine.app.test;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * The daily forecast of one location as parallel arrays, one entry per day, dates normalized.
+ * <p/>
+ * The sync fills one per location and hands it to the provider through
+ * {@link WeatherContract.WeatherEntry#METHOD_REPLACE_FORECAST}, where the days are compared with
+ * the stored ones and written through compiled statements, so a forecast costs no ContentValues
+ * or boxed numbers on the way to the database.  Only the descriptions are objects, and those
+ * repeat.  The arrays only grow.
+ */
+public final class ForecastBatch {
+
+    // 16 days, the most the daily endpoint returns
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_DATE = "date";
+    private static final String KEY_WEATHER_ID = "weatherId";
+    private static final String KEY_SHORT_DESC = "shortDesc";
+    private static final String KEY_MIN_TEMP = "minTemp";
+    private static final String KEY_MAX_TEMP = "maxTemp";
+    private static final String KEY_HUMIDITY = "humidity";
+    private static final String KEY_PRESSURE = "pressure";
+    private static final String KEY_WIND_SPEED = "windSpeed";
+    private static final String KEY_DEGREES = "degrees";
+
+    private int mSize;
+    long[] date;
+    int[] weatherId;
+    String[] shortDesc;
+    double[] minTemp;
+    double[] maxTemp;
+    double[] humidity;
+    double[] pressure;
+    double[] windSpeed;
+    double[] degrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int capacity) {
+        date = new long[capacity];
+        weatherId = new int[capacity];
+        shortDesc = new String[capacity];
+        minTemp = new double[capacity];
+        maxTemp = new double[capacity];
+        humidity = new double[capacity];
+        pressure = new double[capacity];
+        windSpeed = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    /**
+     * Adds the forecast of the day starting at the given normalized date.
+     */
+    public void add(long normalizedDate, int id, String description, double low, double high,
+                    double humidityValue, double pressureValue, double windSpeedValue, double degreesValue) {
+        if (mSize == date.length) {
+            grow();
+        }
+        date[mSize] = normalizedDate;
+        weatherId[mSize] = id;
+        shortDesc[mSize] = description;
+        minTemp[mSize] = low;
+        maxTemp[mSize] = high;
+        humidity[mSize] = humidityValue;
+        pressure[mSize] = pressureValue;
+        windSpeed[mSize] = windSpeedValue;
+        degrees[mSize] = degreesValue;
+        mSize++;
+    }
+
+    /**
+     * Adds a weather row, normalizing its date.
+     *
+     * @throws IllegalArgumentException if the row lacks a column
+     */
+    public void add(ContentValues row) {
+        Long rowDate = row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Integer id = row.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        String description = row.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        Double low = row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        Double high = row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        Double humidityValue = row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        Double pressureValue = row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        Double windSpeedValue = row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        Double degreesValue = row.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        if (rowDate == null || id == null || description == null || low == null || high == null
+                || humidityValue == null || pressureValue == null || windSpeedValue == null || degreesValue == null) {
+            throw new IllegalArgumentException("Incomplete weather row: " + row);
+        }
+        add(WeatherContract.normalizeDate(rowDate), id, description, low, high,
+                humidityValue, pressureValue, windSpeedValue, degreesValue);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public long getDate(int index) {
+        return date[index];
+    }
+
+    public int getWeatherId(int index) {
+        return weatherId[index];
+    }
+
+    public String getShortDesc(int index) {
+        return shortDesc[index];
+    }
+
+    public double getMinTemp(int index) {
+        return minTemp[index];
+    }
+
+    public double getMaxTemp(int index) {
+        return maxTemp[index];
+    }
+
+    public double getHumidity(int index) {
+        return humidity[index];
+    }
+
+    public double getPressure(int index) {
+        return pressure[index];
+    }
+
+    public double getWindSpeed(int index) {
+        return windSpeed[index];
+    }
+
+    public double getDegrees(int index) {
+        return degrees[index];
+    }
+
+    /**
+     * @return the earliest date of the batch, Long.MAX_VALUE if it is empty
+     */
+    public long getFirstDate() {
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            first = Math.min(first, date[i]);
+        }
+        return first;
+    }
+
+    /**
+     * Wraps the arrays, without copying them, for a call into the provider of this process.
+     * The batch mustn't change until the call returns.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putLongArray(KEY_DATE, date);
+        bundle.putIntArray(KEY_WEATHER_ID, weatherId);
+        bundle.putStringArray(KEY_SHORT_DESC, shortDesc);
+        bundle.putDoubleArray(KEY_MIN_TEMP, minTemp);
+        bundle.putDoubleArray(KEY_MAX_TEMP, maxTemp);
+        bundle.putDoubleArray(KEY_HUMIDITY, humidity);
+        bundle.putDoubleArray(KEY_PRESSURE, pressure);
+        bundle.putDoubleArray(KEY_WIND_SPEED, windSpeed);
+        bundle.putDoubleArray(KEY_DEGREES, degrees);
+        return bundle;
+    }
+
+    /**
+     * @return the batch wrapped by {@link #toBundle()}, sharing its arrays
+     */
+    public static ForecastBatch fromBundle(Bundle bundle) {
+        ForecastBatch batch = new ForecastBatch(0);
+        batch.mSize = bundle.getInt(KEY_SIZE);
+        batch.date = bundle.getLongArray(KEY_DATE);
+        batch.weatherId = bundle.getIntArray(KEY_WEATHER_ID);
+        batch.shortDesc = bundle.getStringArray(KEY_SHORT_DESC);
+        batch.minTemp = bundle.getDoubleArray(KEY_MIN_TEMP);
+        batch.maxTemp = bundle.getDoubleArray(KEY_MAX_TEMP);
+        batch.humidity = bundle.getDoubleArray(KEY_HUMIDITY);
+        batch.pressure = bundle.getDoubleArray(KEY_PRESSURE);
+        batch.windSpeed = bundle.getDoubleArray(KEY_WIND_SPEED);
+        batch.degrees = bundle.getDoubleArray(KEY_DEGREES);
+        if (batch.date == null || batch.weatherId == null || batch.shortDesc == null
+                || batch.minTemp == null || batch.maxTemp == null || batch.humidity == null
+                || batch.pressure == null || batch.windSpeed == null || batch.degrees == null
+                || batch.date.length < batch.mSize) {
+            throw new IllegalArgumentException("Not a forecast batch: " + bundle);
+        }
+        return batch;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, date.length * 2);
+        date = Arrays.copyOf(date, capacity);
+        weatherId = Arrays.copyOf(weatherId, capacity);
+        shortDesc = Arrays.copyOf(shortDesc, capacity);
+        minTemp = Arrays.copyOf(minTemp, capacity);
+        maxTemp = Arrays.copyOf(maxTemp, capacity);
+        humidity = Arrays.copyOf(humidity, capacity);
+        pressure = Arrays.copyOf(pressure, capacity);
+        windSpeed = Arrays.copyOf(windSpeed, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+    }
+}
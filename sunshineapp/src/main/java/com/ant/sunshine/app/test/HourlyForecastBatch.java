@@ -0,0 +1,137 @@
+package com.ant.sunshine.app.test;
+
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * The hourly forecast of one location as parallel arrays of primitives, one entry per slot.
+ * <p/>
+ * A sync fills the same batch again for every location and hands it to the provider through
+ * {@link WeatherContract.HourlyEntry#METHOD_REPLACE_HOURLY}, so a forecast of 40 slots costs no
+ * ContentValues, boxed numbers or strings on the way to the database.  The arrays only grow.
+ */
+public final class HourlyForecastBatch {
+
+    // 5 days in 3 hour steps, what the forecast endpoint returns
+    public static final int DEFAULT_CAPACITY = 40;
+
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_WEATHER_ID = "weatherId";
+    private static final String KEY_TEMP = "temp";
+    private static final String KEY_HUMIDITY = "humidity";
+    private static final String KEY_PRESSURE = "pressure";
+    private static final String KEY_WIND_SPEED = "windSpeed";
+    private static final String KEY_DEGREES = "degrees";
+
+    private int mSize;
+    long[] time;
+    int[] weatherId;
+    double[] temp;
+    double[] humidity;
+    double[] pressure;
+    double[] windSpeed;
+    double[] degrees;
+
+    public HourlyForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HourlyForecastBatch(int capacity) {
+        time = new long[capacity];
+        weatherId = new int[capacity];
+        temp = new double[capacity];
+        humidity = new double[capacity];
+        pressure = new double[capacity];
+        windSpeed = new double[capacity];
+        degrees = new double[capacity];
+    }
+
+    /**
+     * Adds a slot starting at the given time, in milliseconds since the epoch.
+     */
+    public void add(long timeMillis, int id, double temperature, double humidityValue,
+                    double pressureValue, double windSpeedValue, double degreesValue) {
+        if (mSize == time.length) {
+            grow();
+        }
+        time[mSize] = timeMillis;
+        weatherId[mSize] = id;
+        temp[mSize] = temperature;
+        humidity[mSize] = humidityValue;
+        pressure[mSize] = pressureValue;
+        windSpeed[mSize] = windSpeedValue;
+        degrees[mSize] = degreesValue;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public long getTime(int index) {
+        return time[index];
+    }
+
+    public int getWeatherId(int index) {
+        return weatherId[index];
+    }
+
+    public double getTemp(int index) {
+        return temp[index];
+    }
+
+    /**
+     * Wraps the arrays, without copying them, for a call into the provider of this process.
+     * The batch mustn't change until the call returns.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putLongArray(KEY_TIME, time);
+        bundle.putIntArray(KEY_WEATHER_ID, weatherId);
+        bundle.putDoubleArray(KEY_TEMP, temp);
+        bundle.putDoubleArray(KEY_HUMIDITY, humidity);
+        bundle.putDoubleArray(KEY_PRESSURE, pressure);
+        bundle.putDoubleArray(KEY_WIND_SPEED, windSpeed);
+        bundle.putDoubleArray(KEY_DEGREES, degrees);
+        return bundle;
+    }
+
+    /**
+     * @return the batch wrapped by {@link #toBundle()}, sharing its arrays
+     */
+    public static HourlyForecastBatch fromBundle(Bundle bundle) {
+        HourlyForecastBatch batch = new HourlyForecastBatch(0);
+        batch.mSize = bundle.getInt(KEY_SIZE);
+        batch.time = bundle.getLongArray(KEY_TIME);
+        batch.weatherId = bundle.getIntArray(KEY_WEATHER_ID);
+        batch.temp = bundle.getDoubleArray(KEY_TEMP);
+        batch.humidity = bundle.getDoubleArray(KEY_HUMIDITY);
+        batch.pressure = bundle.getDoubleArray(KEY_PRESSURE);
+        batch.windSpeed = bundle.getDoubleArray(KEY_WIND_SPEED);
+        batch.degrees = bundle.getDoubleArray(KEY_DEGREES);
+        if (batch.time == null || batch.weatherId == null || batch.temp == null
+                || batch.humidity == null || batch.pressure == null || batch.windSpeed == null
+                || batch.degrees == null || batch.time.length < batch.mSize) {
+            throw new IllegalArgumentException("Not an hourly forecast batch: " + bundle);
+        }
+        return batch;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, time.length * 2);
+        time = Arrays.copyOf(time, capacity);
+        weatherId = Arrays.copyOf(weatherId, capacity);
+        temp = Arrays.copyOf(temp, capacity);
+        humidity = Arrays.copyOf(humidity, capacity);
+        pressure = Arrays.copyOf(pressure, capacity);
+        windSpeed = Arrays.copyOf(windSpeed, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+    }
+}
@@ -0,0 +1,147 @@
+package com.ant.sunshine.app.test;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The row ids of the most recently used location settings, so that the sync, the widgets and
+ * Muzei don't query the location table every time they need one.
+ * <p/>
+ * There is one per process and {@link WeatherProvider} owns it: it fills the cache with every
+ * location the first time an id is asked for, adds the locations it inserts and drops entries
+ * when locations are updated or deleted, so an id read from here is always one the location
+ * table has.  Everything else only reads it, through {@link #getLocationId(Context, String)}.
+ */
+public final class LocationIdCache {
+
+    // far more than anyone saves, so in practice every location stays in
+    public static final int MAX_SIZE = 64;
+
+    private static final LocationIdCache sInstance = new LocationIdCache(MAX_SIZE);
+
+    private final Map<String, Long> mIds;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private boolean mWarmed;
+    // moves on whenever entries are dropped, so an id read before that isn't put back afterwards
+    private long mGeneration;
+
+    LocationIdCache(final int maxSize) {
+        mIds = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static LocationIdCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the row id of the location stored for the setting, -1 if there is none
+     */
+    public static long getLocationId(Context context, String locationSetting) {
+        Long id = sInstance.get(locationSetting);
+        if (id != null) {
+            return id;
+        }
+        Bundle result = context.getContentResolver().call(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.METHOD_GET_LOCATION_ID, locationSetting, null);
+        return result != null ? result.getLong(WeatherContract.LocationEntry.RESULT_LOCATION_ID, -1) : -1;
+    }
+
+    /**
+     * @return the cached id, counted as a hit, or null
+     */
+    synchronized Long get(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        if (id != null) {
+            mHitCount.incrementAndGet();
+        }
+        return id;
+    }
+
+    /**
+     * @return the cached location setting of the row id, not counted as a hit, or null
+     */
+    synchronized String getLocationSetting(long id) {
+        for (Map.Entry<String, Long> entry : mIds.entrySet()) {
+            if (entry.getValue() == id) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    synchronized void put(String locationSetting, long id) {
+        mIds.put(locationSetting, id);
+    }
+
+    /**
+     * Caches an id read from the location table, unless entries were dropped since the read
+     * started at the given {@link #getGeneration()}.
+     */
+    synchronized void putIfCurrent(String locationSetting, long id, long generation) {
+        if (generation == mGeneration) {
+            mIds.put(locationSetting, id);
+        }
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Forgets every id, until the provider fills the cache again.
+     */
+    synchronized void clear() {
+        mIds.clear();
+        mWarmed = false;
+        mGeneration++;
+    }
+
+    synchronized boolean isWarmed() {
+        return mWarmed;
+    }
+
+    /**
+     * Marks the cache as filled from the location table, unless entries were dropped since the
+     * filling started at the given {@link #getGeneration()}.
+     */
+    synchronized void setWarmed(long generation) {
+        if (generation == mGeneration) {
+            mWarmed = true;
+        }
+    }
+
+    synchronized int size() {
+        return mIds.size();
+    }
+
+    /**
+     * Counts an id the provider had to read from the location table.
+     */
+    void recordMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of ids served without a query since the process started
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return the number of ids that had to be queried since the process started
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+}
@@ -0,0 +1,235 @@
+package com.ant.sunshine.app.test;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshots of the most recently read forecasts of a location, so that the forecast list, the
+ * today row the widgets, Muzei and the notification read, and the detail of a day don't run
+ * their join again while nothing changed.
+ * <p/>
+ * There is one per process and {@link WeatherProvider} owns it: it caches what it reads through
+ * the weather/&lt;location&gt; uris, keyed by everything the query was asked with, and drops a
+ * location's snapshots once a write to that location commits, all of them when it can't tell
+ * which locations a write touched.  A snapshot goes out as a new in-memory cursor every time.
+ * Results of more than {@link #MAX_ROWS} rows aren't cached, and the least recently used
+ * snapshots go when there are more than {@link #MAX_ENTRIES} or they take more than
+ * {@link #MAX_BYTES}.
+ */
+public final class QueryResultCache {
+
+    public static final int MAX_ENTRIES = 32;
+    // a 16 day forecast with room to spare
+    public static final int MAX_ROWS = 32;
+    public static final long MAX_BYTES = 256 * 1024;
+
+    private static final QueryResultCache sInstance = new QueryResultCache(MAX_ENTRIES, MAX_BYTES);
+
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Snapshot> mSnapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private long mBytes;
+    // moves on whenever snapshots are dropped, so a result read before that isn't cached afterwards
+    private long mGeneration;
+
+    private static final class Snapshot {
+        final String locationSetting;
+        final String[] columns;
+        final Object[][] rows;
+        final long bytes;
+
+        Snapshot(String locationSetting, String[] columns, Object[][] rows, long bytes) {
+            this.locationSetting = locationSetting;
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    QueryResultCache(int maxEntries, long maxBytes) {
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+    }
+
+    public static QueryResultCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the key of a query, made of everything it was asked with
+     */
+    static String getKey(String uri, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder) {
+        return uri + '\n' + Arrays.toString(projection) + '\n' + selection + '\n'
+                + Arrays.toString(selectionArgs) + '\n' + sortOrder;
+    }
+
+    /**
+     * @return a cursor over the cached result, counted as a hit, or null, counted as a miss
+     */
+    Cursor get(String key) {
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = mSnapshots.get(key);
+        }
+        if (snapshot == null) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        mHitCount.incrementAndGet();
+        return toCursor(snapshot);
+    }
+
+    /**
+     * Reads the result into a snapshot and caches it, unless snapshots were dropped since the
+     * query started at the given {@link #getGeneration()}.  The result is closed, and a cursor
+     * over the snapshot returned, unless it's too large to cache; then it is returned as it is.
+     */
+    Cursor put(String key, String locationSetting, Cursor result, long generation) {
+        int count = result.getCount();
+        if (count > MAX_ROWS) {
+            return result;
+        }
+        String[] columns = result.getColumnNames();
+        Object[][] rows = new Object[count][];
+        long bytes = 2 * key.length() + 64;
+        try {
+            for (int i = 0; result.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                for (int column = 0; column < columns.length; column++) {
+                    row[column] = getValue(result, column);
+                    bytes += estimateBytes(row[column]);
+                }
+                rows[i] = row;
+                bytes += 16 + 4 * columns.length;
+            }
+        } finally {
+            result.close();
+        }
+        Snapshot snapshot = new Snapshot(locationSetting, columns, rows, bytes);
+        synchronized (this) {
+            if (generation == mGeneration && bytes <= mMaxBytes) {
+                Snapshot previous = mSnapshots.put(key, snapshot);
+                if (previous != null) {
+                    mBytes -= previous.bytes;
+                }
+                mBytes += bytes;
+                trim();
+            }
+        }
+        return toCursor(snapshot);
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Drops the snapshots of the location.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        Iterator<Snapshot> snapshots = mSnapshots.values().iterator();
+        while (snapshots.hasNext()) {
+            Snapshot snapshot = snapshots.next();
+            if (snapshot.locationSetting.equals(locationSetting)) {
+                mBytes -= snapshot.bytes;
+                snapshots.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every snapshot.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mSnapshots.clear();
+        mBytes = 0;
+    }
+
+    public synchronized int size() {
+        return mSnapshots.size();
+    }
+
+    /**
+     * @return roughly how much memory the snapshots take, in bytes
+     */
+    public synchronized long getMemoryBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return the number of queries served from a snapshot since the process started
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return the number of cacheable queries that went to the database since the process started
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return the share of cacheable queries served from a snapshot, 0 before the first one
+     */
+    public double getHitRatio() {
+        long hits = mHitCount.get();
+        long total = hits + mMissCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private void trim() {
+        Iterator<Snapshot> eldest = mSnapshots.values().iterator();
+        while (eldest.hasNext() && (mSnapshots.size() > mMaxEntries || mBytes > mMaxBytes)) {
+            mBytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    private static Cursor toCursor(Snapshot snapshot) {
+        MatrixCursor cursor = new MatrixCursor(snapshot.columns, snapshot.rows.length);
+        for (Object[] row : snapshot.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    private static long estimateBytes(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        return 16;
+    }
+}
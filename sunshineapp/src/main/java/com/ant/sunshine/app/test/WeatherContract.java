@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 import com.google.android.gms.maps.model.LatLng;
 
@@ -45,15 +44,18 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+
+    // ContentProvider#call method copying the write-ahead log into the database, for when a
+    // sync is done writing
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+    // key of the number of log frames copied in the Bundle returned by METHOD_CHECKPOINT
+    public static final String RESULT_FRAMES_CHECKPOINTED = "framesCheckpointed";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the the Julian day in the default time zone.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return DayCalendar.getInstance().normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -80,6 +82,12 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // ContentProvider#call method returning the row id of the location setting passed as arg,
+        // see LocationIdCache
+        public static final String METHOD_GET_LOCATION_ID = "getLocationId";
+        // key of the row id in the Bundle returned by METHOD_GET_LOCATION_ID, -1 if there is none
+        public static final String RESULT_LOCATION_ID = "locationId";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -132,6 +140,31 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // ContentProvider#call method replacing the forecast of the location passed as arg with
+        // the ForecastBatch in the extras, the way a bulkInsert into buildWeatherLocation does:
+        // only the days that changed are written, and the days before the batch go.  The number
+        // of rows written comes back under RESULT_ROWS_WRITTEN, and how the batch compares to
+        // the stored forecast under RESULT_NEW_DAYS and RESULT_MAX_TEMPERATURE_CHANGE.  The sync
+        // stores a location through it, with the location row under EXTRA_LOCATION when it isn't
+        // stored yet; the location and the days go in as one transaction and are told once it
+        // commits.
+        public static final String METHOD_REPLACE_FORECAST = "replaceForecast";
+        // key of the ContentValues of the location row in the extras of METHOD_REPLACE_FORECAST
+        public static final String EXTRA_LOCATION = "location";
+        // keys of the number of days of the batch that weren't stored, and of the largest move
+        // of the max or min temperature of the others, in the Bundle it returns
+        public static final String RESULT_NEW_DAYS = "newDays";
+        public static final String RESULT_MAX_TEMPERATURE_CHANGE = "maxTemperatureChange";
+
+        // ContentProvider#call method writing the days in the extras, a ContentValues array
+        // under each location setting, into the forecasts of stored locations, all in one
+        // transaction.  The days not in the extras are left alone.
+        public static final String METHOD_APPLY_FORECAST_DELTA = "applyForecastDelta";
+        // keys of the number of rows written, and of the location settings whose forecast
+        // changed, in the Bundle returned by METHOD_APPLY_FORECAST_DELTA
+        public static final String RESULT_ROWS_WRITTEN = "rowsWritten";
+        public static final String RESULT_LOCATIONS_CHANGED = "locationsChanged";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -176,4 +209,56 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the hourly (3-hour step) forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        // all the hourly rows; the ones of a location are under weather/<location>/hourly
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the slot, stored as long in milliseconds since the epoch, not normalized
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API; the description is derived from it, not stored
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature at that time (stored as a float)
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // ContentProvider#call method replacing the hourly forecast of the location passed as
+        // arg with the HourlyForecastBatch in the extras
+        public static final String METHOD_REPLACE_HOURLY = "replaceHourly";
+        // key of the number of rows written in the Bundle returned by METHOD_REPLACE_HOURLY
+        public static final String RESULT_ROWS_WRITTEN = "rowsWritten";
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_HOURLY).build();
+        }
+
+        public static Uri buildHourlyLocationWithStartTime(String locationSetting, long startTime) {
+            return buildHourlyLocation(locationSetting).buildUpon()
+                    .appendQueryParameter(COLUMN_TIME, Long.toString(startTime)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(COLUMN_TIME);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return 0;
+        }
+    }
 }
@@ -15,25 +15,108 @@
  */
 package com.ant.sunshine.app.test;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.ant.sunshine.app.test.WeatherContract.HourlyEntry;
 import com.ant.sunshine.app.test.WeatherContract.LocationEntry;
 import com.ant.sunshine.app.test.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ * <p/>
+ * The database is opened in write-ahead logging mode, so the forecast list, the widgets and
+ * Muzei keep reading the last committed forecast on their own connections while a sync writes,
+ * instead of waiting for its transactions.  The log is folded back into the database by SQLite
+ * once it holds {@link #WAL_AUTOCHECKPOINT_PAGES} pages, and by {@link #checkpoint} after each
+ * sync, when nobody is likely to be reading.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 4;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // The forecast is read a location at a time in date order, while the unique key leads with
+    // the date, so this index leads with the location: it answers location_id = ? with a date
+    // range or a day, in date order, without a scan or a sort.  It also carries the columns the
+    // forecast list, the widgets and Muzei show, so listing a forecast never reads the table.
+    // The location side of the join is found through the unique location_setting.
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    // SQLite's own default; Android's 100 pages would checkpoint several times during a sync of
+    // many locations, each time waiting for the readers of the pages it copies
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+    // what the log file is truncated back to after a checkpoint
+    static final long JOURNAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
+    private final boolean mWriteAheadLogging;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * @param writeAheadLogging false to keep the rollback journal, where a write blocks readers
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        if (writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!mWriteAheadLogging || db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // in a transaction so they run on the connection that does the writing
+        db.beginTransactionNonExclusive();
+        try {
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES, null);
+            DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit=" + JOURNAL_SIZE_LIMIT_BYTES, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Copies what the log holds into the database, without waiting for readers: pages still
+     * being read stay in the log until the next checkpoint.
+     *
+     * @return the number of log frames copied, -1 if the database isn't in WAL mode
+     */
+    static int checkpoint(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            // busy, frames in the log, frames checkpointed
+            return cursor.moveToFirst() ? cursor.getInt(2) : -1;
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -79,12 +162,42 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // The hourly forecast is only ever read a location at a time in time order, so the unique
+        // key leads with the location: its index answers location_id = ? AND time >= ? ORDER BY
+        // time without a sort, and replacing a slot stays a single index lookup.  Descriptions
+        // are derived from the weather id, so rows keep to numbers.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        // ids cached for a database that is gone mean nothing for this one
+        LocationIdCache.getInstance().clear();
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion == 3) {
+            // version 4 only adds an index, so the stored forecasts can stay
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+            return;
+        }
         // This database is only a cache for online data, so its upgrade policy is
         // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
@@ -93,6 +206,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
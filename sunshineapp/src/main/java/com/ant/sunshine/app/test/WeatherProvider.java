@@ -17,29 +17,54 @@ package com.ant.sunshine.app.test;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
 
 import com.ant.sunshine.app.application.SunshineApplication;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+    private static final AtomicLong sNotificationCount = new AtomicLong();
+    // what the batch the calling thread is applying changed, taken care of after it commits
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<>();
+    private final QueryResultCache mQueryCache = QueryResultCache.getInstance();
     private WeatherDbHelper mOpenHelper;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_HOURLY_WITH_LOCATION = 103;
     static final int LOCATION = 300;
+    static final int HOURLY = 400;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
 
     public static final String ON = " ON ";
 
@@ -61,21 +86,46 @@ public class WeatherProvider extends ContentProvider {
                         POINT_STRING + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         EQ_STRING + WeatherContract.LocationEntry.TABLE_NAME +
                         POINT_STRING + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + INNER_JOIN +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        ON + WeatherContract.HourlyEntry.TABLE_NAME +
+                        POINT_STRING + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        EQ_STRING + WeatherContract.LocationEntry.TABLE_NAME +
+                        POINT_STRING + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //weather.location_id = ? AND date = ?
+    static final String sLocationKeyAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    static final String sLocationKeyFromDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND date < ?
+    static final String sLocationKeyBeforeDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -105,6 +155,91 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    //location.location_setting = ? AND time >= ?
+    static final String sLocationSettingWithStartTimeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? ";
+
+    static final String sLocationIdQuery =
+            "SELECT " + WeatherContract.LocationEntry._ID + " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    static final String sDeleteHourlyOfLocation =
+            "DELETE FROM " + WeatherContract.HourlyEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ?";
+
+    private static final String sInsertHourly =
+            "INSERT INTO " + WeatherContract.HourlyEntry.TABLE_NAME + " (" +
+                    WeatherContract.HourlyEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_TEMP + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.HourlyEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    static final String sInsertWeather =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // the same columns as sInsertWeather after the first two, which go last here
+    static final String sUpdateWeatherDay =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ? " +
+                    "WHERE " + sLocationKeyAndDaySelection;
+
+    static final String sDeleteWeatherBeforeDay =
+            "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " + sLocationKeyBeforeDaySelection;
+
+    // in the order ForecastBatch holds them
+    private static final String[] sStoredForecastColumns = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.HourlyEntry.COLUMN_TIME + " ASC";
+        }
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithStartTimeSelection,
+                new String[]{locationSetting, Long.toString(startTime)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
@@ -154,8 +289,11 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_HOURLY,
+                WEATHER_HOURLY_WITH_LOCATION);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
         return matcher;
     }
 
@@ -190,6 +328,9 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case WEATHER_HOURLY_WITH_LOCATION:
+            case HOURLY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -198,10 +339,24 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        // the forecasts of a location come out of the cache until a write to it
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (match == WEATHER_WITH_LOCATION_AND_DATE || match == WEATHER_WITH_LOCATION) {
+            cacheKey = QueryResultCache.getKey(uri.toString(), projection, selection, selectionArgs, sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContentResolver(), uri);
+                return cached;
+            }
+            cacheGeneration = mQueryCache.getGeneration();
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE: {
                 retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
@@ -238,10 +393,32 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "weather/*/hourly"
+            case WEATHER_HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        if (cacheKey != null) {
+            retCursor = mQueryCache.put(cacheKey, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                    retCursor, cacheGeneration);
+        }
         retCursor.setNotificationUri(getContentResolver(), uri);
         return retCursor;
     }
@@ -254,6 +431,7 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        Uri changedUri = uri;
 
         switch (match) {
             case WEATHER: {
@@ -263,20 +441,30 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changedUri = getDayUri(values);
+                invalidateUri(changedUri);
                 break;
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if (_id > 0)
+                if (_id > 0) {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
+                    String locationSetting = values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    if (locationSetting != null) {
+                        LocationIdCache.getInstance().put(locationSetting, _id);
+                        // its forecast may have been read, and cached, while there was none
+                        invalidate(locationSetting);
+                    } else {
+                        invalidateAll();
+                    }
+                } else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContentResolver().notifyChange(uri, null);
+        notifyChange(changedUri);
         return returnUri;
     }
 
@@ -292,16 +480,43 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    invalidateAll();
+                }
                 break;
+            case WEATHER_WITH_LOCATION: {
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        DatabaseUtils.concatenateWhere(
+                                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " IN (" + sLocationIdQuery + ")", selection),
+                        DatabaseUtils.appendSelectionArgs(new String[]{locationSetting}, selectionArgs));
+                if (rowsDeleted != 0) {
+                    invalidate(locationSetting);
+                }
+                break;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    // the selection could match any of them
+                    LocationIdCache.getInstance().clear();
+                    invalidateAll();
+                }
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case WEATHER_HOURLY_WITH_LOCATION:
+                rowsDeleted = db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                        WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " IN (" + sLocationIdQuery + ")",
+                        new String[]{WeatherContract.HourlyEntry.getLocationSettingFromUri(uri)});
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -310,7 +525,11 @@ public class WeatherProvider extends ContentProvider {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            long normalizedDate = WeatherContract.normalizeDate(dateValue);
+            // rows dated by the sync are normalized already, and keep their boxed value
+            if (normalizedDate != dateValue) {
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE, normalizedDate);
+            }
         }
     }
 
@@ -319,22 +538,52 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        Uri changedUri = uri;
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    invalidateAll();
+                }
+                break;
+            case WEATHER_WITH_LOCATION: {
+                // writes the day in the values into the forecast of the location, unless it's
+                // stored as it is; the selection isn't used
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                long locationId = getLocationId(db, locationSetting);
+                if (locationId == -1) {
+                    throw new IllegalArgumentException("Unknown location " + locationSetting);
+                }
+                ForecastBatch day = new ForecastBatch(1);
+                day.add(values);
+                rowsUpdated = writeChangedDays(db, locationId, day, day.getDate(0), null, null);
+                if (rowsUpdated != 0) {
+                    invalidate(locationSetting);
+                    changedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, day.getDate(0));
+                }
                 break;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                // a new name or coordinates leave the ids as they are
+                if (rowsUpdated != 0 && (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                        || values.containsKey(WeatherContract.LocationEntry._ID))) {
+                    LocationIdCache.getInstance().clear();
+                }
+                if (rowsUpdated != 0) {
+                    // the forecasts carry the city name and coordinates
+                    invalidateAll();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContentResolver().notifyChange(uri, null);
+            notifyChange(changedUri);
         }
         return rowsUpdated;
     }
@@ -345,27 +594,609 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                int returnCount = insertWeather(db, values);
+                Set<Uri> changed = new LinkedHashSet<>();
+                for (ContentValues value : values) {
+                    changed.add(getDayUri(value));
+                }
+                for (Uri changedUri : changed) {
+                    invalidateUri(changedUri);
+                }
+                if (returnCount > 0) {
+                    notifyChanges(changed);
                 }
-                getContentResolver().notifyChange(uri, null);
                 return returnCount;
+            case WEATHER_WITH_LOCATION:
+                return replaceForecast(db, uri, values);
+            case WEATHER_HOURLY_WITH_LOCATION:
+                return replaceHourly(WeatherContract.HourlyEntry.getLocationSettingFromUri(uri), toBatch(values));
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Applies the operations in a single transaction, so readers see all of them or none, and
+        tells the changed uris after the commit, as notifyChanges does, rather than once per
+        operation.  Nobody is told anything when an operation fails and the batch rolls back.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        PendingChanges changes = new PendingChanges();
+        ContentProviderResult[] results;
+        boolean committed = false;
+        mPendingChanges.set(changes);
+        db.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            endChanges(db, committed);
+        }
+        publishChanges(changes);
+        return results;
+    }
+
+    /*
+        Replaces the forecast of the location the way a sync stores it, as METHOD_REPLACE_FORECAST:
+        the location row under EXTRA_LOCATION goes in first when the location isn't stored yet,
+        then the whole batch through replaceForecast, all in one transaction, with the changed
+        uris told once it commits, as in applyBatch.
+     */
+    private Bundle replaceForecast(String locationSetting, Bundle extras) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ForecastBatch batch = ForecastBatch.fromBundle(extras);
+        ContentValues location = extras.getParcelable(WeatherContract.WeatherEntry.EXTRA_LOCATION);
+        PendingChanges changes = new PendingChanges();
+        Bundle result = new Bundle();
+        int rowsWritten;
+        boolean committed = false;
+        mPendingChanges.set(changes);
+        db.beginTransactionNonExclusive();
+        try {
+            long locationId = getLocationId(db, locationSetting);
+            if (locationId == -1 && location != null) {
+                locationId = ContentUris.parseId(insert(WeatherContract.LocationEntry.CONTENT_URI, location));
+            }
+            if (locationId == -1) {
+                throw new IllegalArgumentException("Unknown location " + locationSetting);
+            }
+            rowsWritten = replaceForecast(db, locationId, batch,
+                    WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting), result);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            endChanges(db, committed);
+        }
+        publishChanges(changes);
+        result.putInt(WeatherContract.WeatherEntry.RESULT_ROWS_WRITTEN, rowsWritten);
+        return result;
+    }
+
+    private void endChanges(SQLiteDatabase db, boolean committed) {
+        db.endTransaction();
+        mPendingChanges.remove();
+        if (!committed) {
+            // a location inserted in the transaction went into the cache, and is gone again
+            LocationIdCache.getInstance().clear();
+        }
+    }
+
+    // drops the cached forecasts of the changed locations and tells the changed uris
+    private void publishChanges(PendingChanges changes) {
+        if (changes.allLocations) {
+            invalidateAll();
+        } else {
+            for (String locationSetting : changes.locations) {
+                invalidate(locationSetting);
+            }
+        }
+        notifyChanges(changes.uris);
+    }
+
+    /*
+        The uris to tell of the given changes, in their order.  Several days of a location become
+        the location, and a uri isn't told on its own when one of its ancestors is, as telling
+        weather/<location> reaches the observers of its days too.  Observers of the forecast list
+        are registered on weather/<location> for its descendants, so a single changed day
+        reaches them through weather/<location>/<date> without waking the details of the others.
+     */
+    static List<Uri> coalesce(Set<Uri> uris) {
+        Map<String, Integer> daysPerLocation = new HashMap<>();
+        for (Uri uri : uris) {
+            if (sUriMatcher.match(uri) == WEATHER_WITH_LOCATION_AND_DATE) {
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                Integer days = daysPerLocation.get(locationSetting);
+                daysPerLocation.put(locationSetting, days == null ? 1 : days + 1);
+            }
+        }
+        Set<Uri> coalesced = new LinkedHashSet<>();
+        for (Uri uri : uris) {
+            if (sUriMatcher.match(uri) == WEATHER_WITH_LOCATION_AND_DATE) {
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                if (daysPerLocation.get(locationSetting) > 1) {
+                    uri = WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+                }
+            }
+            coalesced.add(uri);
+        }
+        return withoutDescendants(coalesced);
+    }
+
+    // the uris none of whose ancestors are among them, in their order
+    static List<Uri> withoutDescendants(Set<Uri> uris) {
+        List<Uri> roots = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri other : uris) {
+                if (other != uri && isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                roots.add(uri);
+            }
+        }
+        return roots;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorPath = ancestor.getPathSegments();
+        List<String> path = uri.getPathSegments();
+        return ancestorPath.size() < path.size() && ancestorPath.equals(path.subList(0, ancestorPath.size()));
+    }
+
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (WeatherContract.HourlyEntry.METHOD_REPLACE_HOURLY.equals(method)) {
+            if (arg == null || extras == null) {
+                throw new IllegalArgumentException(method + " needs a location setting and a batch");
+            }
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.HourlyEntry.RESULT_ROWS_WRITTEN,
+                    replaceHourly(arg, HourlyForecastBatch.fromBundle(extras)));
+            return result;
+        }
+        if (WeatherContract.WeatherEntry.METHOD_REPLACE_FORECAST.equals(method)) {
+            if (arg == null || extras == null) {
+                throw new IllegalArgumentException(method + " needs a location setting and a batch");
+            }
+            return replaceForecast(arg, extras);
+        }
+        if (WeatherContract.WeatherEntry.METHOD_APPLY_FORECAST_DELTA.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException(method + " needs the days of at least one location");
+            }
+            return applyForecastDelta(extras);
+        }
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.RESULT_FRAMES_CHECKPOINTED,
+                    WeatherDbHelper.checkpoint(mOpenHelper.getWritableDatabase()));
+            return result;
+        }
+        if (WeatherContract.LocationEntry.METHOD_GET_LOCATION_ID.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.LocationEntry.RESULT_LOCATION_ID,
+                    getLocationId(mOpenHelper.getReadableDatabase(), arg));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /*
+        Returns the row id of the location setting, -1 if it isn't stored, going to the location
+        table only when the cache doesn't know it.  The first time, every location is read into
+        the cache with a single query.
+     */
+    private long getLocationId(SQLiteDatabase db, String locationSetting) {
+        LocationIdCache cache = LocationIdCache.getInstance();
+        Long cached = cache.get(locationSetting);
+        if (cached != null) {
+            return cached;
+        }
+        cache.recordMiss();
+        long generation = cache.getGeneration();
+        if (!cache.isWarmed()) {
+            long locationId = -1;
+            int rows = 0;
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID, WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    null, null, null, null, WeatherContract.LocationEntry._ID + " DESC",
+                    Integer.toString(LocationIdCache.MAX_SIZE));
+            try {
+                while (cursor.moveToNext()) {
+                    rows++;
+                    cache.putIfCurrent(cursor.getString(1), cursor.getLong(0), generation);
+                    if (locationSetting.equals(cursor.getString(1))) {
+                        locationId = cursor.getLong(0);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            cache.setWarmed(generation);
+            // with more locations than fit, the one asked for may be among those left out
+            if (locationId != -1 || rows < LocationIdCache.MAX_SIZE) {
+                return locationId;
+            }
+        }
+        try {
+            long locationId = DatabaseUtils.longForQuery(db, sLocationIdQuery, new String[]{locationSetting});
+            cache.putIfCurrent(locationSetting, locationId, generation);
+            return locationId;
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    /*
+        Replaces the hourly forecast of one location with the batch in a single transaction:
+        that location's slots go and the new ones are written through one compiled statement,
+        bound column by column, so no row goes through a ContentValues.  The location has to
+        be stored already.
+
+        Returns the number of rows written.
+     */
+    private int replaceHourly(String locationSetting, HourlyForecastBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsWritten = 0;
+        int rowsDeleted;
+        db.beginTransactionNonExclusive();
+        SQLiteStatement delete = null;
+        SQLiteStatement insert = null;
+        try {
+            long locationId = getLocationId(db, locationSetting);
+            if (locationId == -1) {
+                throw new IllegalArgumentException("Unknown location " + locationSetting);
+            }
+            delete = db.compileStatement(sDeleteHourlyOfLocation);
+            delete.bindLong(1, locationId);
+            rowsDeleted = delete.executeUpdateDelete();
+
+            insert = db.compileStatement(sInsertHourly);
+            for (int i = 0; i < batch.size(); i++) {
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, batch.time[i]);
+                insert.bindLong(3, batch.weatherId[i]);
+                insert.bindDouble(4, batch.temp[i]);
+                insert.bindDouble(5, batch.humidity[i]);
+                insert.bindDouble(6, batch.pressure[i]);
+                insert.bindDouble(7, batch.windSpeed[i]);
+                insert.bindDouble(8, batch.degrees[i]);
+                if (insert.executeInsert() != -1) {
+                    rowsWritten++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (delete != null) {
+                delete.close();
+            }
+            if (insert != null) {
+                insert.close();
+            }
+            db.endTransaction();
+        }
+        if (rowsWritten > 0 || rowsDeleted > 0) {
+            notifyChange(WeatherContract.HourlyEntry.buildHourlyLocation(locationSetting));
+        }
+        return rowsWritten;
+    }
+
+    private static HourlyForecastBatch toBatch(ContentValues[] values) {
+        HourlyForecastBatch batch = new HourlyForecastBatch(values.length);
+        for (ContentValues value : values) {
+            batch.add(value.getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME),
+                    value.getAsInteger(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID),
+                    value.getAsDouble(WeatherContract.HourlyEntry.COLUMN_TEMP),
+                    value.getAsDouble(WeatherContract.HourlyEntry.COLUMN_HUMIDITY),
+                    value.getAsDouble(WeatherContract.HourlyEntry.COLUMN_PRESSURE),
+                    value.getAsDouble(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED),
+                    value.getAsDouble(WeatherContract.HourlyEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
+    /*
+        Inserts weather rows of any locations through one compiled statement in a single
+        transaction.  Rows missing a column are skipped, as db.insert would have refused them.
+
+        Returns the number of rows inserted.
+     */
+    private static int insertWeather(SQLiteDatabase db, ContentValues[] values) {
+        ForecastBatch row = new ForecastBatch(1);
+        int rowsInserted = 0;
+        db.beginTransactionNonExclusive();
+        SQLiteStatement insert = null;
+        try {
+            insert = db.compileStatement(sInsertWeather);
+            for (ContentValues value : values) {
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                row.clear();
+                try {
+                    row.add(value);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                if (locationId != null && insertDay(insert, locationId, row, 0) != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+            db.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    /*
+        Inserts every day of the batch for the location through one compiled statement, in a
+        single transaction.  The ingest path without the comparison against the stored days.
+
+        Returns the number of rows inserted.
+     */
+    static int insertForecast(SQLiteDatabase db, long locationId, ForecastBatch batch) {
+        int rowsInserted = 0;
+        db.beginTransactionNonExclusive();
+        SQLiteStatement insert = null;
+        try {
+            insert = db.compileStatement(sInsertWeather);
+            for (int i = 0; i < batch.size(); i++) {
+                if (insertDay(insert, locationId, batch, i) != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+            db.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    private int replaceForecast(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        Long locationId = values[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (locationId == null) {
+            throw new IllegalArgumentException("Missing " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " for " + uri);
+        }
+        ForecastBatch batch = new ForecastBatch(values.length);
+        for (ContentValues value : values) {
+            batch.add(value);
+        }
+        return replaceForecast(db, locationId, batch, uri, null);
+    }
+
+    /*
+        Replaces the forecast of one location: days that differ from what is stored are written,
+        identical days are left alone and that location's days older than the first new one go
+        out, all in a single transaction, so readers never see a half-written forecast and
+        concurrent syncs of other locations don't touch these rows.  Nobody is notified when
+        nothing changed.
+
+        Returns the number of rows written, not the number of days in the batch.  Unless it's
+        null, comparison gets how the batch compares to the stored days, see writeChangedDays.
+     */
+    private int replaceForecast(SQLiteDatabase db, long locationId, ForecastBatch batch, Uri uri,
+                                Bundle comparison) {
+        if (batch.size() == 0) {
+            return 0;
+        }
+        long firstDate = batch.getFirstDate();
+        List<Long> writtenDates = new ArrayList<>(batch.size());
+        int rowsWritten;
+        int rowsDeleted;
+        db.beginTransactionNonExclusive();
+        SQLiteStatement delete = null;
+        try {
+            rowsWritten = writeChangedDays(db, locationId, batch, firstDate, writtenDates, comparison);
+            delete = db.compileStatement(sDeleteWeatherBeforeDay);
+            delete.bindLong(1, locationId);
+            delete.bindLong(2, firstDate);
+            rowsDeleted = delete.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        } finally {
+            if (delete != null) {
+                delete.close();
+            }
+            db.endTransaction();
+        }
+        if (rowsWritten > 0 || rowsDeleted > 0) {
+            String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+            invalidate(locationSetting);
+            if (rowsDeleted > 0) {
+                notifyChange(uri);
+            } else {
+                notifyChanges(getDayUris(locationSetting, writtenDates));
+            }
+        }
+        return rowsWritten;
+    }
+
+    /*
+        Writes the days of the batch that differ from the stored ones, all no earlier than
+        firstDate, and returns how many were written, adding their dates to writtenDates unless
+        it's null.  New days are inserted and changed ones updated, so they keep their _id, each
+        through a statement compiled once.  Runs inside the caller's transaction.
+
+        Unless it's null, comparison gets the number of days that weren't stored under
+        RESULT_NEW_DAYS and the largest move of a stored day's max or min temperature under
+        RESULT_MAX_TEMPERATURE_CHANGE, from the stored days read for the writing anyway.
+     */
+    private static int writeChangedDays(SQLiteDatabase db, long locationId, ForecastBatch batch, long firstDate,
+                                        List<Long> writtenDates, Bundle comparison) {
+        ForecastBatch stored = getStoredForecast(db, locationId, firstDate);
+        int rowsWritten = 0;
+        int newDays = 0;
+        double maxTemperatureChange = 0;
+        SQLiteStatement insert = null;
+        SQLiteStatement update = null;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                int storedIndex = Arrays.binarySearch(stored.date, 0, stored.size(), batch.date[i]);
+                if (storedIndex < 0) {
+                    newDays++;
+                    if (insert == null) {
+                        insert = db.compileStatement(sInsertWeather);
+                    }
+                    if (insertDay(insert, locationId, batch, i) != -1) {
+                        rowsWritten++;
+                        if (writtenDates != null) {
+                            writtenDates.add(batch.date[i]);
+                        }
+                    }
+                } else if (!sameForecast(stored, storedIndex, batch, i)) {
+                    maxTemperatureChange = Math.max(maxTemperatureChange, Math.max(
+                            Math.abs(batch.maxTemp[i] - stored.maxTemp[storedIndex]),
+                            Math.abs(batch.minTemp[i] - stored.minTemp[storedIndex])));
+                    if (update == null) {
+                        update = db.compileStatement(sUpdateWeatherDay);
+                    }
+                    bindDay(update, 1, batch, i);
+                    update.bindLong(9, locationId);
+                    update.bindLong(10, batch.date[i]);
+                    int updated = update.executeUpdateDelete();
+                    rowsWritten += updated;
+                    if (updated > 0 && writtenDates != null) {
+                        writtenDates.add(batch.date[i]);
+                    }
+                }
+            }
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+            if (update != null) {
+                update.close();
+            }
+        }
+        if (comparison != null) {
+            comparison.putInt(WeatherContract.WeatherEntry.RESULT_NEW_DAYS, newDays);
+            comparison.putDouble(WeatherContract.WeatherEntry.RESULT_MAX_TEMPERATURE_CHANGE, maxTemperatureChange);
+        }
+        return rowsWritten;
+    }
+
+    private static long insertDay(SQLiteStatement insert, long locationId, ForecastBatch batch, int index) {
+        insert.bindLong(1, locationId);
+        insert.bindLong(2, batch.date[index]);
+        bindDay(insert, 3, batch, index);
+        try {
+            return insert.executeInsert();
+        } catch (android.database.SQLException e) {
+            // what db.insert does with a row the constraints refuse
+            return -1;
+        }
+    }
+
+    // binds the columns after the date, in sStoredForecastColumns order, from the given index on
+    private static void bindDay(SQLiteStatement statement, int firstIndex, ForecastBatch batch, int index) {
+        statement.bindLong(firstIndex, batch.weatherId[index]);
+        statement.bindString(firstIndex + 1, batch.shortDesc[index]);
+        statement.bindDouble(firstIndex + 2, batch.minTemp[index]);
+        statement.bindDouble(firstIndex + 3, batch.maxTemp[index]);
+        statement.bindDouble(firstIndex + 4, batch.humidity[index]);
+        statement.bindDouble(firstIndex + 5, batch.pressure[index]);
+        statement.bindDouble(firstIndex + 6, batch.windSpeed[index]);
+        statement.bindDouble(firstIndex + 7, batch.degrees[index]);
+    }
+
+    /*
+        Writes the days pushed for several locations in a single transaction, so the forecasts
+        of a push show up together or not at all.  Locations that aren't stored are skipped:
+        a push can only update what a sync has stored before.  Each location whose forecast
+        changed is notified once, after the commit, through the uri of the day when only one
+        changed.
+     */
+    private Bundle applyForecastDelta(Bundle extras) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsWritten = 0;
+        ArrayList<String> changed = new ArrayList<>();
+        Set<Uri> changedDays = new LinkedHashSet<>();
+        List<Long> writtenDates = new ArrayList<>();
+        db.beginTransactionNonExclusive();
+        try {
+            for (String locationSetting : extras.keySet()) {
+                Parcelable[] days = extras.getParcelableArray(locationSetting);
+                long locationId = getLocationId(db, locationSetting);
+                if (days == null || days.length == 0 || locationId == -1) {
+                    continue;
+                }
+                ForecastBatch batch = new ForecastBatch(days.length);
+                for (Parcelable day : days) {
+                    batch.add((ContentValues) day);
+                }
+                writtenDates.clear();
+                int written = writeChangedDays(db, locationId, batch, batch.getFirstDate(), writtenDates, null);
+                if (written > 0) {
+                    rowsWritten += written;
+                    changed.add(locationSetting);
+                    changedDays.addAll(getDayUris(locationSetting, writtenDates));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        for (String locationSetting : changed) {
+            invalidate(locationSetting);
+        }
+        notifyChanges(changedDays);
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.RESULT_ROWS_WRITTEN, rowsWritten);
+        result.putStringArrayList(WeatherContract.WeatherEntry.RESULT_LOCATIONS_CHANGED, changed);
+        return result;
+    }
+
+    // the stored days of the location from firstDate on, in date order
+    private static ForecastBatch getStoredForecast(SQLiteDatabase db, long locationId, long firstDate) {
+        ForecastBatch stored = new ForecastBatch();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, sStoredForecastColumns,
+                sLocationKeyFromDaySelection, new String[]{Long.toString(locationId), Long.toString(firstDate)},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                stored.add(cursor.getLong(0), cursor.getInt(1), cursor.getString(2), cursor.getDouble(3),
+                        cursor.getDouble(4), cursor.getDouble(5), cursor.getDouble(6), cursor.getDouble(7),
+                        cursor.getDouble(8));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stored;
+    }
+
+    /*
+        Compares an incoming day against a stored one.  Numbers are compared by value, as a
+        humidity of 60 comes back from its REAL column as 60.0.
+     */
+    private static boolean sameForecast(ForecastBatch stored, int storedIndex, ForecastBatch incoming, int index) {
+        return stored.weatherId[storedIndex] == incoming.weatherId[index]
+                && stored.shortDesc[storedIndex].equals(incoming.shortDesc[index])
+                && stored.minTemp[storedIndex] == incoming.minTemp[index]
+                && stored.maxTemp[storedIndex] == incoming.maxTemp[index]
+                && stored.humidity[storedIndex] == incoming.humidity[index]
+                && stored.pressure[storedIndex] == incoming.pressure[index]
+                && stored.windSpeed[storedIndex] == incoming.windSpeed[index]
+                && stored.degrees[storedIndex] == incoming.degrees[index];
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -376,6 +1207,106 @@ public class WeatherProvider extends ContentProvider {
         super.shutdown();
     }
 
+    /*
+        What a batch changed: the uris to tell and the locations whose cached forecasts go.
+     */
+    private static final class PendingChanges {
+        final Set<Uri> uris = new LinkedHashSet<>();
+        final Set<String> locations = new LinkedHashSet<>();
+        boolean allLocations;
+    }
+
+    /**
+     * Drops the cached forecasts of the location, once its write committed.  Inside
+     * {@link #applyBatch} that happens after the batch commits.
+     */
+    private void invalidate(String locationSetting) {
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.locations.add(locationSetting);
+        } else {
+            mQueryCache.invalidate(locationSetting);
+        }
+    }
+
+    /**
+     * Drops the cached forecasts of the location a weather uri belongs to, all of them for
+     * {@link WeatherContract.WeatherEntry#CONTENT_URI}.
+     */
+    private void invalidateUri(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        if (match == WEATHER_WITH_LOCATION || match == WEATHER_WITH_LOCATION_AND_DATE) {
+            invalidate(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        } else {
+            invalidateAll();
+        }
+    }
+
+    /*
+        The uri of the day of a weather row, of its location when it has no date, or
+        WeatherEntry.CONTENT_URI when the cache of location ids doesn't know the location.
+     */
+    private static Uri getDayUri(ContentValues row) {
+        Long locationId = row.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        String locationSetting = locationId != null
+                ? LocationIdCache.getInstance().getLocationSetting(locationId) : null;
+        if (locationSetting == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        Long date = row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        return date != null ? WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date)
+                : WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting);
+    }
+
+    private static Set<Uri> getDayUris(String locationSetting, List<Long> dates) {
+        Set<Uri> uris = new LinkedHashSet<>();
+        for (Long date : dates) {
+            uris.add(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date));
+        }
+        return uris;
+    }
+
+    private void invalidateAll() {
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.allLocations = true;
+        } else {
+            mQueryCache.clear();
+        }
+    }
+
+    /**
+     * Tells the observers of the changed uris, as few of them as reach all those observers, see
+     * {@link #coalesce}.
+     */
+    private void notifyChanges(Set<Uri> uris) {
+        for (Uri uri : coalesce(uris)) {
+            notifyChange(uri);
+        }
+    }
+
+    /**
+     * Tells the observers of the uri that it changed, counting it for the sync telemetry.  Inside
+     * {@link #applyBatch} and {@link WeatherContract.WeatherEntry#METHOD_REPLACE_FORECAST} the uri
+     * is only noted, to be told once the transaction commits.
+     */
+    private void notifyChange(Uri uri) {
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.uris.add(uri);
+            return;
+        }
+        sNotificationCount.incrementAndGet();
+        getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * @return the number of change notifications sent since the process started
+     */
+    public static long getNotificationCount() {
+        return sNotificationCount.get();
+    }
+
     private ContentResolver getContentResolver() {
         return SunshineApplication.getInstance().getContentResolver();
     }